@@ -0,0 +1,137 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.benchmark;
+
+import net.morimekta.file.FileUtil;
+import net.morimekta.gittool.util.AheadBehind;
+import net.morimekta.gittool.util.GitSession;
+import net.morimekta.gittool.util.MergeBase;
+import net.morimekta.gittool.util.SyntheticRepo;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History reads done by {@code gt b} and {@code gt st}, with and without
+ * a commit-graph file. Each invocation opens the repository and a new
+ * {@link GitSession}, same as a new gt process would, and the history
+ * cache is not used. The repository is packed in both cases. Main has {@code depth} commits, and each of the
+ * branches is forked from a random point on main with a few commits of
+ * its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommitGraphBenchmark {
+    @Param({"true", "false"})
+    public boolean commitGraph;
+
+    @Param({"10000"})
+    public int depth;
+
+    @Param({"50"})
+    public int branches;
+
+    private Path            tmp;
+    private RevCommit       main;
+    private List<RevCommit> tips;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmp = Files.createTempDirectory("gt-bench");
+        var random = new Random(depth);
+        try (var repo = SyntheticRepo.create(tmp)) {
+            var mainCommits = new ArrayList<RevCommit>();
+            var current = repo.commit("root");
+            for (int i = 0; i < depth; ++i) {
+                current = repo.commit("main " + i, current);
+                mainCommits.add(current);
+            }
+            main = current;
+            repo.branch("master", main);
+            tips = new ArrayList<>();
+            for (int i = 0; i < branches; ++i) {
+                var fork = mainCommits.get(random.nextInt(mainCommits.size()));
+                var tip = repo.chain("branch " + i, fork, 3);
+                repo.branch("branch-" + i, tip);
+                tips.add(tip);
+            }
+            repo.gc(commitGraph);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtil.deleteRecursively(tmp);
+    }
+
+    @Benchmark
+    public int branchList() throws IOException {
+        try (var repository = open();
+             var session = new GitSession(repository)) {
+            int sum = 0;
+            for (var tip : tips) {
+                var commit = session.commit(tip);
+                var counts = AheadBehind.count(session.walk(), commit, main);
+                sum += counts.ahead() + counts.behind();
+            }
+            return sum;
+        }
+    }
+
+    @Benchmark
+    public RevCommit status() throws IOException {
+        try (var repository = open();
+             var session = new GitSession(repository)) {
+            var tip = tips.get(0);
+            AheadBehind.count(session.walk(), tip, main);
+            return MergeBase.best(session.walk(), main, tip).orElseThrow();
+        }
+    }
+
+    private Repository open() throws IOException {
+        return new FileRepositoryBuilder().setGitDir(tmp.resolve(".git").toFile()).build();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.benchmark;
+
+import net.morimekta.file.FileUtil;
+import net.morimekta.gittool.GitTool;
+import net.morimekta.gittool.util.BranchInfo;
+import net.morimekta.gittool.util.LogFilter;
+import net.morimekta.gittool.util.SyntheticRepo;
+import net.morimekta.gittool.util.WorktreeStatus;
+import net.morimekta.io.tty.TTY;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The git operations behind {@code gt b}, {@code gt st}, {@code gt l} and
+ * {@code gt d}, on a generated repository of the given shape. Each
+ * invocation uses a new {@link GitTool} that opens the repository, same
+ * as a new gt process would, with the history cache disabled. The
+ * repository is packed with a commit-graph. Allocation rates are reported
+ * with {@code -prof gc}, which the jmh profile enables by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GitToolBenchmark {
+    @Param({"1000", "10000"})
+    public int commits;
+
+    @Param({"20"})
+    public int branches;
+
+    @Param({"1000"})
+    public int files;
+
+    @Param({"10"})
+    public int divergence;
+
+    private Path                    tmp;
+    private Map<String, String>     env;
+    private SyntheticRepo.Generated generated;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmp = Files.createTempDirectory("gt-bench").toRealPath();
+        try (var repo = SyntheticRepo.create(tmp)) {
+            generated = repo.generate(new SyntheticRepo.Shape(commits, branches, files, divergence), commits);
+            var config = repo.repository().getConfig();
+            config.setBoolean("gt", null, "cache", false);
+            config.save();
+            repo.gc(true);
+        }
+        env = new HashMap<>(System.getenv());
+        env.put("PWD", tmp.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtil.deleteRecursively(tmp);
+    }
+
+    /**
+     * All branch details shown by {@code gt b}: ahead / behind the diffbase
+     * and the remote, for every branch.
+     */
+    @Benchmark
+    public int branchInfo() throws IOException {
+        var gt = newGitTool();
+        try {
+            int sum = 0;
+            for (var ref : gt.getRepository().getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+                var info = new BranchInfo(ref, gt);
+                info.preload();
+                sum += info.localCommits() + info.missingCommits();
+            }
+            return sum;
+        } finally {
+            close(gt);
+        }
+    }
+
+    @Benchmark
+    public int lastCommonAncestor() throws IOException {
+        var gt = newGitTool();
+        try {
+            var session = gt.getSession();
+            var master = session.commit(generated.master());
+            int sum = 0;
+            for (var branch : generated.branches()) {
+                sum += gt.lastCommonAncestor(master, session.commit(branch)).getCommitTime();
+            }
+            return sum;
+        } finally {
+            close(gt);
+        }
+    }
+
+    @Benchmark
+    public int log() throws IOException {
+        var gt = newGitTool();
+        try {
+            var sum = new int[1];
+            gt.log(generated.master(), generated.branches().get(0), LogFilter.ALL, Integer.MAX_VALUE,
+                   c -> sum[0] += c.getShortMessage().length());
+            gt.log(generated.branches().get(0), generated.master(), LogFilter.ALL, Integer.MAX_VALUE,
+                   c -> sum[0] += c.getShortMessage().length());
+            return sum[0];
+        } finally {
+            close(gt);
+        }
+    }
+
+    @Benchmark
+    public List<DiffEntry> diff() throws IOException, GitAPIException {
+        var gt = newGitTool();
+        try {
+            var session = gt.getSession();
+            RevCommit branch = session.commit(generated.branches().get(0));
+            return gt.diff(gt.lastCommonAncestor(session.commit(generated.master()), branch), branch);
+        } finally {
+            close(gt);
+        }
+    }
+
+    @Benchmark
+    public boolean hasUncommitted() throws IOException {
+        var gt = newGitTool();
+        try {
+            return gt.hasUncommitted.get();
+        } finally {
+            close(gt);
+        }
+    }
+
+    /**
+     * The uncommitted changes shown by {@code gt st}, which has to compare
+     * every file in the work tree.
+     */
+    @Benchmark
+    public int worktreeStatus() throws IOException {
+        var gt = newGitTool();
+        try {
+            var count = new int[1];
+            WorktreeStatus.scan(gt.getRepository(), gt.getMetrics(), status -> {
+                ++count[0];
+                return true;
+            });
+            return count[0];
+        } finally {
+            close(gt);
+        }
+    }
+
+    private GitTool newGitTool() {
+        return new GitTool(new TTY(), env) {};
+    }
+
+    private static void close(GitTool gt) throws IOException {
+        gt.getSession().close();
+        gt.getGit().close();
+        gt.getRepository().close();
+    }
+}
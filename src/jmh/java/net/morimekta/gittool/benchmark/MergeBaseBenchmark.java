@@ -0,0 +1,112 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.benchmark;
+
+import net.morimekta.file.FileUtil;
+import net.morimekta.gittool.util.MergeBase;
+import net.morimekta.gittool.util.SyntheticRepo;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge base latency against history depth: A branch with a couple of
+ * commits, forked from main which has moved on by {@code depth} commits.
+ * The {@code legacyLogRange} benchmark is the log-range-then-step-back
+ * approach that {@code GitTool.lastCommonAncestor} used before, and
+ * {@code mergeBaseReusedWalk} shows the cost when the walk has already
+ * parsed the history, as when a command asks for several merge bases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBaseBenchmark {
+    @Param({"100", "1000", "10000", "20000"})
+    public int depth;
+
+    private Path          tmp;
+    private SyntheticRepo repo;
+    private RevCommit     main;
+    private RevCommit     branch;
+    private RevWalk       shared;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmp = Files.createTempDirectory("gt-bench");
+        repo = SyntheticRepo.create(tmp);
+        var root = repo.chain("root", null, 100);
+        main = repo.chain("main", root, depth);
+        branch = repo.chain("branch", root, 2);
+        shared = new RevWalk(repo.repository());
+        shared.setRetainBody(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        shared.close();
+        repo.close();
+        FileUtil.deleteRecursively(tmp);
+    }
+
+    @Benchmark
+    public RevCommit mergeBase() throws IOException {
+        try (var walk = new RevWalk(repo.repository())) {
+            return MergeBase.best(walk, main, branch).orElseThrow();
+        }
+    }
+
+    @Benchmark
+    public RevCommit mergeBaseReusedWalk() throws IOException {
+        return MergeBase.best(shared, main, branch).orElseThrow();
+    }
+
+    @Benchmark
+    public RevCommit legacyLogRange() throws Exception {
+        var remote = new ArrayList<RevCommit>();
+        repo.git().log().addRange(branch, main).call().forEach(remote::add);
+        Collections.reverse(remote);
+        var sub = new ArrayList<RevCommit>();
+        repo.git().log().add(remote.get(0)).setMaxCount(2).call().forEach(sub::add);
+        return sub.get(sub.size() - 1);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.benchmark;
+
+import net.morimekta.file.FileUtil;
+import net.morimekta.gittool.util.GitSession;
+import net.morimekta.gittool.util.LogFilter;
+import net.morimekta.gittool.util.SyntheticRepo;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path limited history, as shown by {@code gt l -- path}, with and without
+ * changed-path Bloom filters in the commit-graph. Each invocation opens the
+ * repository and a new {@link GitSession}, same as a new gt process would.
+ * The log is limited to a single file, and to the directory holding it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PathLogBenchmark {
+    @Param({"true", "false"})
+    public boolean changedPaths;
+
+    @Param({"100000"})
+    public int commits;
+
+    @Param({"10000"})
+    public int files;
+
+    private Path      tmp;
+    private RevCommit master;
+    private String    file;
+    private String    directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmp = Files.createTempDirectory("gt-bench");
+        try (var repo = SyntheticRepo.create(tmp)) {
+            master = repo.generate(new SyntheticRepo.Shape(commits, 0, files, 0), commits).master();
+            repo.gc(true, changedPaths);
+        }
+        file = SyntheticRepo.generatedPath(files / 2);
+        directory = file.substring(0, file.lastIndexOf('/'));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtil.deleteRecursively(tmp);
+    }
+
+    @Benchmark
+    public int fileLog() throws IOException {
+        return log(file);
+    }
+
+    @Benchmark
+    public int directoryLog() throws IOException {
+        return log(directory);
+    }
+
+    private int log(String path) throws IOException {
+        try (var repository = open();
+             var session = new GitSession(repository)) {
+            var walk = session.walk();
+            try {
+                walk.setRevFilter(new LogFilter(null, null, null, null, List.of(path)).revFilter(walk));
+                walk.markStart(walk.parseCommit(master));
+                int count = 0;
+                while (walk.next() != null) {
+                    ++count;
+                }
+                return count;
+            } finally {
+                walk.reset();
+            }
+        }
+    }
+
+    private Repository open() throws IOException {
+        return new FileRepositoryBuilder().setGitDir(tmp.resolve(".git").toFile()).build();
+    }
+}
@@ -15,15 +15,24 @@
  */
 package net.morimekta.gittool;
 
-import net.morimekta.collect.UnmodifiableList;
 import net.morimekta.collect.UnmodifiableSet;
 import net.morimekta.collect.util.LazyCachedSupplier;
 import net.morimekta.gittool.cmd.Command;
 import net.morimekta.gittool.cmd.GtBranch;
+import net.morimekta.gittool.cmd.GtCache;
+import net.morimekta.gittool.cmd.GtDaemon;
 import net.morimekta.gittool.cmd.GtDiff;
 import net.morimekta.gittool.cmd.GtHelp;
 import net.morimekta.gittool.cmd.GtLog;
 import net.morimekta.gittool.cmd.GtStatus;
+import net.morimekta.gittool.util.AheadBehind;
+import net.morimekta.gittool.util.DirtyCheck;
+import net.morimekta.gittool.util.GitSession;
+import net.morimekta.gittool.util.HistoryCache;
+import net.morimekta.gittool.util.HistoryWalk;
+import net.morimekta.gittool.util.LogFilter;
+import net.morimekta.gittool.util.Metrics;
+import net.morimekta.gittool.util.Timings;
 import net.morimekta.gittool.util.Utils;
 import net.morimekta.io.tty.TTY;
 import net.morimekta.terminal.args.ArgException;
@@ -32,24 +41,31 @@ import net.morimekta.terminal.args.ArgParser;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static net.morimekta.collect.util.LazyCachedSupplier.lazyCache;
 import static net.morimekta.terminal.args.Flag.flag;
@@ -57,28 +73,41 @@ import static net.morimekta.terminal.args.Flag.flagLong;
 import static net.morimekta.terminal.args.Option.optionLong;
 import static net.morimekta.terminal.args.SubCommand.subCommand;
 import static net.morimekta.terminal.args.ValueParser.dir;
+import static net.morimekta.terminal.args.ValueParser.path;
 
 public class GitTool {
     private static final String DOT_GIT = ".git";
-    public static        Path   pwd;
 
+    /** The terminal, or null when run by the daemon for a client. */
     public final TTY tty;
 
     public ArgParser parser = null;
 
+    private final Path pwd;
+
     private Command command = null;
     private boolean help    = false;
     private boolean version = false;
     private boolean verbose = false;
+    private boolean timed   = false;
+    private Path    metricsFile;
 
     private Path         repositoryRoot = null;
     private Repository   repository     = null;
     private StoredConfig config         = null;
     private Git          git            = null;
+    private GitSession   session        = null;
+    private HistoryCache historyCache   = null;
+    private Timings      timings        = new Timings(false);
+    private Metrics      metrics        = new Metrics(false);
 
     protected GitTool(TTY tty, Map<String, String> env) {
         this.tty = tty;
-        pwd = Paths.get(env.get("PWD")).normalize().toAbsolutePath();
+        this.pwd = Paths.get(env.get("PWD")).normalize().toAbsolutePath();
+        var metricsEnv = env.get("GT_METRICS");
+        if (metricsEnv != null && !metricsEnv.isBlank()) {
+            metricsFile = pwd.resolve(metricsEnv);
+        }
     }
 
     public int terminalWidth() {
@@ -109,29 +138,94 @@ public class GitTool {
         this.verbose = verbose;
     }
 
+    private void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+    private void setMetricsFile(Path file) {
+        this.metricsFile = pwd.resolve(file);
+    }
+
+    /**
+     * Get the phase timings of the command. Phases are always emitted as
+     * JFR events, and printed when the command is done if '--timings' is
+     * set.
+     *
+     * @return The command timings.
+     */
+    public Timings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Get the I/O metrics of the command. Metrics are only collected when
+     * written to a file with '--metrics' or the 'GT_METRICS' env.
+     *
+     * @return The command metrics.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The directory the command was run from.
+     */
+    public Path getPwd() {
+        return pwd;
+    }
+
     public Path getRepositoryRoot() throws IOException {
         if (repositoryRoot == null) {
-            var current = pwd;
-            while (!Files.exists(current.resolve(DOT_GIT))) {
-                current = current.getParent();
-                if (current == null || current.toString().isEmpty()) {
-                    throw new IOException("Not in a git repository!");
-                }
+            try (var span = timings.start("discover repository")) {
+                repositoryRoot = findRepositoryRoot();
             }
-            repositoryRoot = current;
         }
         return repositoryRoot;
     }
 
+    private Path findRepositoryRoot() throws IOException {
+        var current = pwd;
+        while (!Files.exists(current.resolve(DOT_GIT))) {
+            current = current.getParent();
+            if (current == null || current.toString().isEmpty()) {
+                throw new IOException("Not in a git repository!");
+            }
+        }
+        return current;
+    }
+
     public Repository getRepository() throws IOException {
         if (repository == null) {
-            repository = new FileRepositoryBuilder()
-                    .setGitDir(getRepositoryRoot().resolve(DOT_GIT).toFile())
-                    .build();
+            var gitDir = getRepositoryRoot().resolve(DOT_GIT);
+            try (var span = timings.start("open repository")) {
+                repository = openRepository(gitDir);
+            }
         }
         return repository;
     }
 
+    /**
+     * Open the repository. May be overridden to reuse open repositories.
+     *
+     * @param gitDir The git directory.
+     * @return The opened repository.
+     * @throws IOException If unable to open the repository.
+     */
+    protected Repository openRepository(Path gitDir) throws IOException {
+        return new FileRepositoryBuilder()
+                .setGitDir(gitDir.toFile())
+                .build();
+    }
+
+    /**
+     * Close the repository after the command is done.
+     *
+     * @param repository The repository to close.
+     */
+    protected void closeRepository(Repository repository) {
+        repository.close();
+    }
+
     public Git getGit() throws IOException {
         if (git == null) {
             git = new Git(getRepository());
@@ -141,8 +235,9 @@ public class GitTool {
 
     public StoredConfig getConfig() throws IOException {
         if (config == null) {
-            config = getRepository().getConfig();
-            try {
+            var repo = getRepository();
+            try (var span = timings.start("config")) {
+                config = repo.getConfig();
                 config.load();
             } catch (ConfigInvalidException e) {
                 throw new IOException(e);
@@ -151,6 +246,62 @@ public class GitTool {
         return config;
     }
 
+    /**
+     * Get the session for reading history for this command. The session is
+     * closed when the command is done.
+     *
+     * @return The git session.
+     * @throws IOException If unable to open the repository.
+     */
+    public GitSession getSession() throws IOException {
+        if (session == null) {
+            session = new GitSession(getRepository(), metrics);
+        }
+        return session;
+    }
+
+    /**
+     * Get the history cache for the repository. The cache is stored in the
+     * git directory, unless disabled with the 'gt.cache' config.
+     *
+     * @return The history cache.
+     * @throws IOException If unable to read the repository config.
+     */
+    public HistoryCache getHistoryCache() throws IOException {
+        if (historyCache == null) {
+            if (getConfig().getBoolean("gt", null, "cache", true)) {
+                var gitDir = getRepository().getDirectory().toPath();
+                try (var span = timings.start("load history cache")) {
+                    historyCache = loadHistoryCache(gitDir);
+                }
+            } else {
+                historyCache = HistoryCache.inMemory();
+            }
+        }
+        return historyCache;
+    }
+
+    /**
+     * Load the history cache. May be overridden to reuse loaded caches.
+     *
+     * @param gitDir The git directory.
+     * @return The history cache.
+     */
+    protected HistoryCache loadHistoryCache(Path gitDir) {
+        return HistoryCache.load(gitDir);
+    }
+
+    /**
+     * Check if the command can be executed here. If not, execute returns
+     * without running the command.
+     *
+     * @param command The command to be executed.
+     * @return True if the command should be executed.
+     */
+    protected boolean canExecute(Command command) {
+        return true;
+    }
+
     public boolean showHelp() {
         return (help || command == null);
     }
@@ -170,12 +321,18 @@ public class GitTool {
                 .add(flag("--help", "h?", "Show help", this::setHelp))
                 .add(flag("--version", "V", "Show program version", this::setVersion))
                 .add(flagLong("--verbose", "Show verbose exceptions", this::setVerbose))
+                .add(flagLong("--timings", "Show time spent in each phase of the command", this::setTimed))
+                .add(optionLong("--metrics",
+                                "Append I/O metrics of the command as JSON to file",
+                                path(this::setMetricsFile)))
                 .withSubCommands("cmd", "Command to act on git repo with", this::setCommand)
                 .add(subCommand("help", "Show help", GtHelp::new).alias("h"))
-                .add(subCommand("branch", "Change branch", parser -> new GtBranch()).alias("br", "b"))
+                .add(subCommand("branch", "Change branch", GtBranch::new).alias("br", "b"))
                 .add(subCommand("status", "Review branch status", GtStatus::new).alias("st"))
                 .add(subCommand("diff", "Diff changes", GtDiff::new).alias("d"))
                 .add(subCommand("log", "Log changes", GtLog::new).alias("l"))
+                .add(subCommand("cache", "Inspect or clear the history cache", GtCache::new))
+                .add(subCommand("daemon", "Run the gt daemon", GtDaemon::new))
                 .build();
     }
 
@@ -183,7 +340,7 @@ public class GitTool {
             "master", "develop", "main");
 
     public LazyCachedSupplier<String> defaultBranch = lazyCache(() -> {
-        try {
+        try (var span = timings.start("default branch")) {
             var cfg = getConfig();
             String tmp = cfg.getString("default", null, "branch");
             if (tmp != null) {
@@ -206,7 +363,7 @@ public class GitTool {
     });
 
     public LazyCachedSupplier<Set<String>> remoteNames = lazyCache(() -> {
-        try {
+        try (var span = timings.start("remotes")) {
             return getGit().remoteList()
                            .call()
                            .stream()
@@ -220,36 +377,12 @@ public class GitTool {
 
     public LazyCachedSupplier<Boolean> hasUncommitted = lazyCache(() -> {
         try {
-            var hasCached = !getGit()
-                    .diff()
-                    .setShowNameAndStatusOnly(true)
-                    .setCached(true)
-                    .call().isEmpty();
-            var hasUncached = getGit()
-                    .diff()
-                    .setShowNameAndStatusOnly(true)
-                    .setCached(false)
-                    .call()
-                    .stream()
-                    .anyMatch(i -> {
-                        if (i.getChangeType() == DiffEntry.ChangeType.DELETE) {
-                            try {
-                                var path = getRepositoryRoot().resolve(i.getOldPath());
-                                if (Files.isDirectory(path)) {
-                                    // Weirdness where it reports empty folders that are checked
-                                    // in as a folder as deleted.
-                                    return false;
-                                }
-                            } catch (IOException e) {
-                                return true;
-                            }
-                        }
-                        return true;
-                    });
-
-            return hasCached || hasUncached;
-        } catch (GitAPIException | IOException e) {
-            throw new RuntimeException(e);
+            var repo = getRepository();
+            try (var span = timings.start("worktree scan")) {
+                return DirtyCheck.hasUncommitted(repo, metrics);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     });
 
@@ -262,49 +395,125 @@ public class GitTool {
         return false;
     }
 
+    /**
+     * Get the last common ancestor (merge base) of two commits. If there are
+     * multiple merge bases, e.g. on criss-cross merges, the newest is used.
+     *
+     * @param baseCommit   The base commit, e.g. the diffbase of a branch.
+     * @param targetCommit The target commit, e.g. the branch head.
+     * @return The last common ancestor commit.
+     * @throws IOException If the commits have no common history or unable to
+     *                     read the commits.
+     */
     public RevCommit lastCommonAncestor(
             RevCommit baseCommit,
-            RevCommit targetCommit) throws IOException, GitAPIException {
-        UnmodifiableList<RevCommit> remoteCommits = UnmodifiableList.asList(
-                getGit().log().addRange(targetCommit, baseCommit).call());
-        remoteCommits = remoteCommits.reversed();
-        if (!remoteCommits.isEmpty()) {
-            // Get the most recent commit before the oldest commit in the remote-only list.
-            List<RevCommit> sub2 = UnmodifiableList.asList(
-                    getGit().log()
-                            .add(remoteCommits.get(0))
-                            .setMaxCount(2)
-                            .call()).reversed();
-            return sub2.get(0);
-        } else {
-            // It is the base commit.
-            return baseCommit;
+            RevCommit targetCommit) throws IOException {
+        var cache = getHistoryCache();
+        var walk = getSession().walk();
+        try (var span = timings.start("merge base")) {
+            var ancestor = cache
+                    .mergeBase(walk, baseCommit, targetCommit)
+                    .orElseThrow(() -> new IOException(
+                            "No common ancestor of " + baseCommit.abbreviate(7).name() +
+                            " and " + targetCommit.abbreviate(7).name()));
+            return session.commit(ancestor);
         }
     }
 
-    public record Log(List<RevCommit> local, List<RevCommit> remote) {}
+    /**
+     * Count commits only on the local side, and only on the other side.
+     *
+     * @param localCommit The local commit, e.g. the branch head.
+     * @param otherCommit The commit to compare with, e.g. the diffbase.
+     * @return The ahead / behind counts.
+     * @throws IOException If unable to read the commits.
+     */
+    public AheadBehind aheadBehind(RevCommit localCommit, RevCommit otherCommit) throws IOException {
+        var cache = getHistoryCache();
+        var walk = getSession().walk();
+        try (var span = timings.start("ahead / behind")) {
+            return cache.aheadBehind(walk, localCommit, otherCommit);
+        }
+    }
 
-    public Log log(ObjectId baseIOD, ObjectId targetIOD) throws IOException, GitAPIException {
-        UnmodifiableList<RevCommit> localCommits = UnmodifiableList.asList(
-                getGit().log().addRange(baseIOD, targetIOD).call());
-        UnmodifiableList<RevCommit> remoteCommits = UnmodifiableList.asList(
-                getGit().log().addRange(targetIOD, baseIOD).call());
-        return new Log(localCommits.reversed(), remoteCommits.reversed());
+    /**
+     * Walk the commits reachable from one commit but not from another, and
+     * give the newest of them to the consumer, oldest first, same as 'git
+     * log -n' in reverse. The range is walked newest first, so only the
+     * commits given to the consumer are kept, and they are given as soon
+     * as they are all found. Only those have their message read, and it is
+     * dropped again after.
+     *
+     * @param sinceIOD The commit to log since, e.g. the diffbase.
+     * @param untilIOD The commit to log until, e.g. the branch head.
+     * @param filter   Filter for the commits to include.
+     * @param maxCount The maximum number of commits to give to the consumer,
+     *                 the newest ones.
+     * @param consumer Consumer of the commits.
+     * @return The number of commits in the range matching the filter,
+     *         including those not given to the consumer.
+     * @throws IOException If unable to read the commits.
+     */
+    public int log(ObjectId sinceIOD,
+                   ObjectId untilIOD,
+                   LogFilter filter,
+                   int maxCount,
+                   Consumer<RevCommit> consumer) throws IOException {
+        try (var span = timings.start("history walk");
+             var reader = getSession().reader();
+             var walk = new HistoryWalk(reader)) {
+            walk.setRevFilter(filter.revFilter(walk));
+            walk.markStart(walk.parseCommit(untilIOD));
+            walk.markUninteresting(walk.parseCommit(sinceIOD));
+            // Newest first, so the last one kept is the oldest.
+            var kept = new ArrayDeque<RevCommit>();
+            RevCommit c;
+            while (kept.size() < maxCount && (c = walk.next()) != null) {
+                kept.push(c);
+            }
+            for (var commit : kept) {
+                walk.parseBody(commit);
+                consumer.accept(commit);
+                commit.disposeBody();
+            }
+            int count = kept.size();
+            while (walk.next() != null) {
+                ++count;
+            }
+            return count;
+        }
     }
 
     public List<DiffEntry> diff(RevCommit baseRev, RevCommit targetRev) throws IOException, GitAPIException {
-        try (var reader = repository.newObjectReader()) {
+        // The reader belongs to the session walk, and is closed with it.
+        var reader = getSession().walk().getObjectReader();
+        try (var span = timings.start("tree diff");
+             var formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            // Same as 'git diff --name-status', without needing the Git
+            // porcelain. The formatter does not close the session reader.
+            formatter.setReader(reader, getConfig());
             var baseTreeIter = new CanonicalTreeParser();
             baseTreeIter.reset(reader, baseRev.getTree());
             var targetTreeIter = new CanonicalTreeParser();
             targetTreeIter.reset(reader, targetRev.getTree());
 
             // finally get the list of changed files
-            return git.diff()
-                      .setShowNameAndStatusOnly(true)
-                      .setOldTree(baseTreeIter)
-                      .setNewTree(targetTreeIter)
-                      .call();
+            return formatter.scan(baseTreeIter, targetTreeIter);
+        }
+    }
+
+    /**
+     * Find the ref of a local or remote branch.
+     *
+     * @param branch The branch name, e.g. 'master' or 'origin/master'.
+     * @return The branch ref, or null if not found.
+     * @throws IOException If unable to read the refs.
+     */
+    public Ref findRef(String branch) throws IOException {
+        var refDatabase = getRepository().getRefDatabase();
+        var name = refName(branch);
+        try (var span = timings.start("refs")) {
+            return refDatabase.findRef(name);
         }
     }
 
@@ -332,9 +541,35 @@ public class GitTool {
                 return;
             }
 
+            if (!canExecute(command)) {
+                return;
+            }
+
+            timings = new Timings(timed);
+            metrics = new Metrics(metricsFile != null);
+            var start = System.nanoTime();
             try {
-                command.execute(this);
+                try (var span = timings.start("execute")) {
+                    command.execute(this);
+                }
             } finally {
+                var cache = historyCache;
+                if (cache != null) {
+                    try (var span = timings.start("save history cache")) {
+                        cache.save();
+                    } catch (IOException e) {
+                        // The cache is only an optimization.
+                        if (verbose) {
+                            System.err.println("Unable to save history cache: " + e.getMessage());
+                        }
+                    }
+                }
+
+                var s = session;
+                if (s != null) {
+                    s.close();
+                }
+
                 var g = git;
                 if (g != null) {
                     g.close();
@@ -342,7 +577,22 @@ public class GitTool {
 
                 var repo = repository;
                 if (repo != null) {
-                    repo.close();
+                    closeRepository(repo);
+                }
+
+                if (timings.isEnabled()) {
+                    System.err.println();
+                    timings.print(System.err);
+                }
+                if (metrics.isEnabled()) {
+                    try {
+                        metrics.append(metricsFile,
+                                       List.of(args),
+                                       repositoryRoot,
+                                       TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    } catch (IOException e) {
+                        System.err.println("Unable to write metrics: " + e.getMessage());
+                    }
                 }
             }
             return;
@@ -28,4 +28,15 @@ public abstract class Command {
      * @throws Exception On any error.
      */
     public abstract void execute(GitTool opts) throws Exception;
+
+    /**
+     * If the command must run in the calling process, e.g. because it needs
+     * the terminal or starts other programs, so it can not be run by the gt
+     * daemon.
+     *
+     * @return True if the command must run locally.
+     */
+    public boolean isLocalOnly() {
+        return false;
+    }
 }
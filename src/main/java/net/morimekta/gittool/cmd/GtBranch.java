@@ -23,6 +23,7 @@ import net.morimekta.io.tty.TTYMode;
 import net.morimekta.strings.chr.Char;
 import net.morimekta.strings.chr.Color;
 import net.morimekta.terminal.Terminal;
+import net.morimekta.terminal.args.ArgParser;
 import net.morimekta.terminal.input.InputLine;
 import net.morimekta.terminal.selection.Selection;
 import net.morimekta.terminal.selection.SelectionReaction;
@@ -33,6 +34,7 @@ import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.StoredConfig;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
@@ -40,6 +42,9 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -51,6 +56,7 @@ import static net.morimekta.strings.chr.Color.DIM;
 import static net.morimekta.strings.chr.Color.GREEN;
 import static net.morimekta.strings.chr.Color.RED;
 import static net.morimekta.strings.chr.Color.YELLOW;
+import static net.morimekta.terminal.args.Flag.flag;
 
 /**
  * Interactively manage branches.
@@ -68,7 +74,11 @@ public class GtBranch extends Command {
 
     private final List<BranchInfo> branches = new LinkedList<>();
 
-    public GtBranch() {}
+    private boolean list = false;
+
+    public GtBranch(ArgParser.Builder builder) {
+        builder.add(flag("--list", "l", "List branches and exit", b -> list = b));
+    }
 
     private BranchInfo   currentInfo = null;
     private BranchAction action      = null;
@@ -78,12 +88,15 @@ public class GtBranch extends Command {
     private BranchInfo refreshBranchList(String selected) throws IOException, GitAPIException {
         branches.clear();
 
-        List<Ref> refs = gt.getGit()
-                           .branchList()
-                           .call();
+        var git = gt.getGit();
+        List<Ref> refs;
+        try (var span = gt.getTimings().start("refs")) {
+            refs = git.branchList().call();
+        }
 
         prompt = "Manage branches from <untracked>:";
         BranchInfo selectedInfo = null;
+        List<BranchInfo> infos = new ArrayList<>();
         for (Ref ref : refs) {
             BranchInfo info = new BranchInfo(ref, gt);
             if (info.isCurrent()) {
@@ -94,17 +107,60 @@ public class GtBranch extends Command {
             }
 
             longestBranchName = Math.max(longestBranchName, printableWidth(info.name()));
+            infos.add(info);
+        }
 
-            // Initialize info.
-            info.branchLine(null, longestBranchName);
-
-            branches.add(info);
+        // Initialize info.
+        try (var span = gt.getTimings().start("load branches")) {
+            preload(infos);
         }
+        branches.addAll(infos);
 
         branches.sort(Comparator.naturalOrder());
         return selectedInfo == null ? currentInfo : selectedInfo;
     }
 
+    private void preload(List<BranchInfo> infos) throws IOException {
+        // Shared lazy values must be loaded before the branches are
+        // loaded concurrently.
+        gt.getConfig();
+        gt.getHistoryCache();
+        gt.getSession();
+        gt.defaultBranch.get();
+        gt.remoteNames.get();
+
+        int threads = Math.min(infos.size(), Runtime.getRuntime().availableProcessors());
+        if (threads < 2) {
+            infos.forEach(BranchInfo::preload);
+            return;
+        }
+
+        var executor = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "gt-branch-info");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var info : infos) {
+                futures.add(executor.submit(gt.getTimings().inherit(info::preload)));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private SelectionReaction onDelete(int idx, BranchInfo b, Selection<BranchInfo> sel) {
         if (b.isDefault()) {
             sel.warn("Not allowed to delete default branch.");
@@ -403,10 +459,29 @@ public class GtBranch extends Command {
         return false;
     }
 
+    @Override
+    public boolean isLocalOnly() {
+        return !list;
+    }
+
     @Override
     public void execute(GitTool gt) throws IOException {
         this.gt = gt;
 
+        if (list) {
+            try {
+                refreshBranchList(null);
+            } catch (GitAPIException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            try (var span = gt.getTimings().start("render")) {
+                for (var branch : branches) {
+                    System.out.println(branch.branchLine(null, longestBranchName));
+                }
+            }
+            return;
+        }
+
         try (Terminal terminal = new Terminal(gt.tty, TTYMode.COOKED)) {
             try {
                 BranchInfo tmpSelected = refreshBranchList(null);
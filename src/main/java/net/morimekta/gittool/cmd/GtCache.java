@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.morimekta.gittool.cmd;
+
+import net.morimekta.gittool.GitTool;
+import net.morimekta.gittool.util.HistoryCache;
+import net.morimekta.gittool.util.UntrackedCache;
+import net.morimekta.terminal.args.ArgParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static net.morimekta.strings.chr.Color.BOLD;
+import static net.morimekta.strings.chr.Color.CLEAR;
+import static net.morimekta.strings.chr.Color.DIM;
+import static net.morimekta.strings.chr.Color.GREEN;
+import static net.morimekta.terminal.args.Flag.flag;
+
+/**
+ * Inspect or clear the merge base and ahead / behind cache, and the
+ * untracked files cache.
+ */
+public class GtCache extends Command {
+    private boolean clear = false;
+
+    public GtCache(ArgParser.Builder builder) {
+        builder.add(flag("--clear", "c", "Clear the history and untracked caches", b -> clear = b));
+    }
+
+    @Override
+    public void execute(GitTool gt) throws IOException {
+        var cache = gt.getHistoryCache();
+        var untracked = UntrackedCache.load(gt.getRepository());
+        if (clear) {
+            cache.clear();
+            untracked.clear();
+            // Files may be left from before the caches were disabled.
+            var gitDir = gt.getRepository().getDirectory().toPath();
+            if (cache.file() == null) {
+                HistoryCache.delete(gitDir);
+            }
+            if (!untracked.isEnabled()) {
+                UntrackedCache.delete(gitDir);
+            }
+            System.out.printf("%sCleared%s history and untracked caches.%n", GREEN, CLEAR);
+            return;
+        }
+
+        if (cache.file() == null) {
+            System.out.printf("History cache is %sdisabled%s.%n", BOLD, CLEAR);
+            return;
+        }
+        System.out.printf("File:         %s%s%s", BOLD, cache.file(), CLEAR);
+        if (Files.exists(cache.file())) {
+            System.out.printf(" %s(%d bytes)%s%n", DIM, Files.size(cache.file()), CLEAR);
+        } else {
+            System.out.printf(" %s(not created)%s%n", DIM, CLEAR);
+        }
+        System.out.printf("Ahead/behind: %d%n", cache.aheadBehindSize());
+        System.out.printf("Merge bases:  %d%n", cache.mergeBaseSize());
+        if (untracked.isEnabled()) {
+            System.out.printf("Untracked:    %d folders%n", untracked.size());
+        }
+    }
+}
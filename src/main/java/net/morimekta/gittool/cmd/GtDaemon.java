@@ -0,0 +1,57 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.morimekta.gittool.cmd;
+
+import net.morimekta.gittool.GitTool;
+import net.morimekta.gittool.daemon.DaemonProtocol;
+import net.morimekta.gittool.daemon.DaemonServer;
+import net.morimekta.terminal.args.ArgParser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static net.morimekta.terminal.args.Option.option;
+import static net.morimekta.terminal.args.ValueParser.path;
+import static net.morimekta.terminal.args.ValueParser.ui32;
+
+/**
+ * Run the gt daemon in the foreground, keeping the JVM and repositories
+ * warm for the thin client.
+ */
+public class GtDaemon extends Command {
+    private Path socket      = null;
+    private int  idleMinutes = 30;
+
+    public GtDaemon(ArgParser.Builder builder) {
+        builder.add(option("--socket", "s", "Socket to listen on", path(p -> socket = p)));
+        builder.add(option("--idle-timeout", "t", "Minutes without requests before exiting, 0 for never",
+                           ui32(i -> idleMinutes = i)).defaultValue(idleMinutes));
+    }
+
+    @Override
+    public boolean isLocalOnly() {
+        return true;
+    }
+
+    @Override
+    public void execute(GitTool gt) throws IOException {
+        var path = socket != null ? socket : DaemonProtocol.socketPath(System.getenv());
+        try (var server = new DaemonServer(path, Duration.ofMinutes(idleMinutes), System.err)) {
+            server.run();
+        }
+    }
+}
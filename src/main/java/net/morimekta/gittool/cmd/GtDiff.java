@@ -17,60 +17,80 @@ package net.morimekta.gittool.cmd;
 
 import net.morimekta.file.TemporaryAssetFolder;
 import net.morimekta.gittool.GitTool;
+import net.morimekta.gittool.util.BlobCache;
+import net.morimekta.gittool.util.BlobExtractor;
+import net.morimekta.gittool.util.BlobPipes;
 import net.morimekta.gittool.util.BranchInfo;
+import net.morimekta.gittool.util.DiffStat;
+import net.morimekta.gittool.util.TerminalDiff;
+import net.morimekta.gittool.util.WorktreeStatus;
 import net.morimekta.io.proc.SubProcess;
 import net.morimekta.terminal.args.ArgParser;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import static java.lang.String.format;
 import static net.morimekta.gittool.util.Colors.YELLOW_DIM;
+import static net.morimekta.strings.StringUtil.rightPad;
 import static net.morimekta.strings.chr.Color.CLEAR;
 import static net.morimekta.strings.chr.Color.DIM;
 import static net.morimekta.strings.chr.Color.GREEN;
 import static net.morimekta.strings.chr.Color.RED;
 import static net.morimekta.strings.chr.Color.YELLOW;
+import static net.morimekta.terminal.args.Flag.flag;
 import static net.morimekta.terminal.args.Option.option;
-import static org.eclipse.jgit.diff.DiffEntry.ChangeType.ADD;
 import static org.eclipse.jgit.diff.DiffEntry.ChangeType.DELETE;
+import static org.eclipse.jgit.diff.DiffEntry.DEV_NULL;
 
 /**
  * Interactively manage branches.
  */
 public class GtDiff extends Command {
-    private String branch = null;
+    private String  branch   = null;
+    private boolean terminal = false;
+    private boolean stat     = false;
+    private boolean pipes    = false;
 
     public GtDiff(ArgParser.Builder builder) {
         builder.add(option("--branch", "b", "Show diff against branch", str -> branch = str));
+        builder.add(flag("--terminal", "t", "Show diff in the terminal", b -> terminal = b));
+        builder.add(flag("--stat", "s", "Show lines added and removed per file", b -> stat = b));
+        builder.add(flag("--pipes", "p", "Stream old files to the difftool through named pipes", b -> pipes = b));
+    }
+
+    @Override
+    public boolean isLocalOnly() {
+        return true;
     }
 
     @Override
     public void execute(GitTool gt) throws IOException, GitAPIException {
         Repository repository = gt.getRepository();
 
-        Ref currentRef = repository.getRefDatabase().findRef(gt.refName(repository.getBranch()));
+        Ref currentRef = gt.findRef(repository.getBranch());
         BranchInfo current = new BranchInfo(currentRef, gt);
 
         Ref diffWithRef;
         if (branch != null) {
-            diffWithRef = repository.getRefDatabase().findRef(gt.refName(branch));
+            diffWithRef = gt.findRef(branch);
             if (diffWithRef == null) {
                 System.out.println("No ref found for " + branch);
                 return;
             }
         } else {
-            diffWithRef = repository.getRefDatabase().findRef(gt.refName(current.diffBase()));
+            diffWithRef = gt.findRef(current.diffBase());
             if (diffWithRef == null) {
                 System.out.println("No ref found for " + current.diffBase());
                 return;
@@ -89,7 +109,8 @@ public class GtDiff extends Command {
                 var gde = new GtDiffEntry();
                 gde.fromGitPath = entry.getOldPath();
                 gde.toGitPath = entry.getNewPath();
-                gde.baseToHead = entry;
+                gde.oldId = entry.getOldId().toObjectId();
+                gde.newId = entry.getNewId().toObjectId();
                 if (entry.getChangeType() != DELETE) {
                     gde.key = gde.toGitPath;
                 } else {
@@ -99,142 +120,252 @@ public class GtDiff extends Command {
             }
         }
         if (current.hasUncommitted()) {
-            for (var entry : gt.getGit().diff()
-                               .setShowNameAndStatusOnly(true)
-                               .setCached(true)
-                               .call()) {
-                var gde = entry.getChangeType() == ADD
-                          ? diffEntryMap.get(entry.getNewPath())
-                          : diffEntryMap.get(entry.getOldPath());
-                if (gde == null) {
-                    gde = new GtDiffEntry();
-                    gde.fromGitPath = entry.getOldPath();
-                    gde.toGitPath = entry.getNewPath();
-                    if (entry.getChangeType() == DELETE) {
-                        gde.key = gde.fromGitPath;
-                    } else {
-                        gde.key = gde.toGitPath;
-                    }
-                    gde.staged = entry;
-                    diffEntryMap.put(gde.key, gde);
-                } else {
-                    if (entry.getChangeType() != DELETE && !gde.key.equals(entry.getNewPath())) {
-                        diffEntryMap.remove(gde.key);
-                        gde.key = entry.getNewPath();
+            try (var span = gt.getTimings().start("worktree status")) {
+                WorktreeStatus.scan(repository, gt.getMetrics(), status -> {
+                    var path = status.path();
+                    var deleted = status.unstaged() != null
+                                  ? status.unstaged() == DELETE
+                                  : status.staged() == DELETE;
+                    var gde = diffEntryMap.get(path);
+                    if (gde == null) {
+                        gde = new GtDiffEntry();
+                        gde.key = path;
+                        if (status.staged() != null) {
+                            // Staged changes are shown from HEAD.
+                            gde.fromGitPath = status.head() == null ? DEV_NULL : path;
+                            gde.oldId = status.head();
+                        } else {
+                            gde.fromGitPath = status.index() == null ? DEV_NULL : path;
+                            gde.oldId = status.index();
+                        }
                         diffEntryMap.put(gde.key, gde);
                     }
-                    gde.toGitPath = entry.getNewPath();
-                    gde.staged = entry;
-                }
+                    gde.toGitPath = deleted ? DEV_NULL : path;
+                    // Unstaged changes are only in the work tree.
+                    gde.newId = status.unstaged() != null ? null : status.index();
+                    return true;
+                });
             }
-            for (var entry : gt.getGit().diff()
-                               .setShowNameAndStatusOnly(true)
-                               .setCached(false)
-                               .call()) {
-                var gde = entry.getChangeType() == ADD
-                          ? diffEntryMap.get(entry.getNewPath())
-                          : diffEntryMap.get(entry.getOldPath());
-                if (gde == null) {
-                    gde = new GtDiffEntry();
-                    gde.fromGitPath = entry.getOldPath();
-                    gde.toGitPath = entry.getNewPath();
-                    if (entry.getChangeType() == DELETE) {
-                        var np = gt.getRepositoryRoot().resolve(gde.fromGitPath);
-                        if (Files.isDirectory(np)) {
-                            continue;
-                        }
-                        gde.key = gde.fromGitPath;
-                    } else {
-                        gde.key = gde.toGitPath;
+        }
+
+        if (diffEntryMap.isEmpty()) {
+            return;
+        }
+
+        var maxSize = gt.getConfig().getLong("gt", null, "diffMaxSize", TerminalDiff.DEFAULT_MAX_SIZE);
+        if (stat) {
+            try (var span = gt.getTimings().start("diff stat");
+                 var diffStat = new DiffStat(repository,
+                                             gt.getMetrics(),
+                                             Runtime.getRuntime().availableProcessors(),
+                                             maxSize)) {
+                var entries = new ArrayList<GtDiffEntry>();
+                var stats = new ArrayList<Future<DiffStat.Stat>>();
+                for (var gde : diffEntryMap.values()) {
+                    if (gde.fromGitPath.equals(DEV_NULL) && gde.toGitPath.equals(DEV_NULL)) {
+                        // created, then deleted.
+                        continue;
                     }
-                    gde.unstaged = entry;
-                    diffEntryMap.put(gde.key, gde);
-                } else {
-                    if (entry.getChangeType() != DELETE && !gde.key.equals(entry.getNewPath())) {
-                        diffEntryMap.remove(gde.key);
-                        gde.key = entry.getNewPath();
-                        diffEntryMap.put(entry.getNewPath(), gde);
+                    var from = gde.fromGitPath.equals(DEV_NULL) ? DiffStat.Side.NONE : DiffStat.Side.blob(gde.oldId);
+                    DiffStat.Side to;
+                    if (gde.toGitPath.equals(DEV_NULL)) {
+                        to = DiffStat.Side.NONE;
+                    } else if (gde.newId != null) {
+                        to = DiffStat.Side.blob(gde.newId);
+                    } else {
+                        to = DiffStat.Side.file(gt.getRepositoryRoot().resolve(gde.toGitPath));
                     }
-                    gde.toGitPath = entry.getNewPath();
-                    gde.unstaged = entry;
+                    entries.add(gde);
+                    stats.add(diffStat.start(from, to));
                 }
+                printStat(entries, stats, gt.terminalWidth());
             }
+            return;
         }
 
-        if (diffEntryMap.isEmpty()) {
+        var difftool = gt.getConfig().getString("gt", null, "difftool");
+        if (terminal || "terminal".equals(difftool)) {
+            var files = new ArrayList<TerminalDiff.FileDiff>();
+            for (var gde : diffEntryMap.values()) {
+                if (gde.fromGitPath.equals(DEV_NULL) && gde.toGitPath.equals(DEV_NULL)) {
+                    // created, then deleted.
+                    continue;
+                }
+                files.add(new TerminalDiff.FileDiff(
+                        gde.fromGitPath,
+                        gde.fromGitPath.equals(DEV_NULL) ? null : gde.oldId,
+                        gde.toGitPath,
+                        gde.toGitPath.equals(DEV_NULL) ? null : gt.getRepositoryRoot().resolve(gde.toGitPath)));
+            }
+            try (var span = gt.getTimings().start("terminal diff")) {
+                TerminalDiff.write(repository,
+                                   gt.getMetrics(),
+                                   files,
+                                   System.out,
+                                   Runtime.getRuntime().availableProcessors(),
+                                   maxSize);
+            }
             return;
         }
 
-        Path tmp = Files.createTempDirectory("gt-diff");
+        var blobCache = BlobCache.load(gt.getConfig(), System.getenv());
+        Path tmp = blobCache.newRunFolder("gt-diff");
         try (var taf = new TemporaryAssetFolder(tmp)) {
             var list = new ArrayList<Path>();
+            var lines = new ArrayList<String>();
+            var blobs = new ArrayList<BlobExtractor.Blob>();
             for (var gde : diffEntryMap.values()) {
                 if (gde.fromGitPath.equals("/dev/null")) {
                     if (gde.toGitPath.equals("/dev/null")) {
                         // created, then deleted.
-                        System.out.printf("Skipping %s%s%s (new + delete)%n", DIM, gde.key, CLEAR);
+                        lines.add(format("Skipping %s%s%s (new + delete)", DIM, gde.key, CLEAR));
                         continue;
                     }
-                    System.out.printf("New    %s%s%s%n", GREEN, gde.toGitPath, CLEAR);
+                    lines.add(format("New    %s%s%s", GREEN, gde.toGitPath, CLEAR));
                     list.add(Path.of(gde.fromGitPath));
-                    list.add(GitTool.pwd.relativize(gt.getRepositoryRoot().resolve(gde.toGitPath)));
+                    list.add(gt.getPwd().relativize(gt.getRepositoryRoot().resolve(gde.toGitPath)));
                 } else {
-                    var oldObjectId = gde.baseToHead != null
-                                      ? gde.baseToHead.getOldId() :
-                                      (gde.staged != null
-                                       ? gde.staged.getOldId()
-                                       : gde.unstaged.getOldId());
-
                     var file = taf.resolvePath(gde.fromGitPath);
-                    var dir = file.getParent();
-                    if (!Files.exists(dir)) {
-                        Files.createDirectories(dir);
-                    }
-                    try (var reader = repository.getObjectDatabase().newReader();
-                         var out = new BufferedOutputStream(Files.newOutputStream(file))) {
-                        reader.open(oldObjectId.toObjectId()).copyTo(out);
-                    }
+                    blobs.add(new BlobExtractor.Blob(gde.oldId, file));
                     list.add(file);
                     if (gde.toGitPath.equals("/dev/null")) {
-                        System.out.printf("Delete %s%s%s%n", RED, CLEAR, gde.key);
+                        lines.add(format("Delete %s%s%s", RED, CLEAR, gde.key));
                         list.add(Path.of(gde.toGitPath));
                     } else {
                         if (gde.toGitPath.equals(gde.fromGitPath)) {
-                            System.out.printf("Diff   %s%n", gde.toGitPath);
+                            lines.add(format("Diff   %s", gde.toGitPath));
                         } else {
-                            System.out.printf("Move   %s%s%s -> %s%s%s%n",
-                                              YELLOW_DIM,
-                                              gde.fromGitPath,
-                                              CLEAR,
-                                              YELLOW,
-                                              gde.toGitPath,
-                                              CLEAR);
+                            lines.add(format("Move   %s%s%s -> %s%s%s",
+                                             YELLOW_DIM,
+                                             gde.fromGitPath,
+                                             CLEAR,
+                                             YELLOW,
+                                             gde.toGitPath,
+                                             CLEAR));
                         }
-                        list.add(GitTool.pwd.relativize(gt.getRepositoryRoot().resolve(gde.toGitPath)));
+                        list.add(gt.getPwd().relativize(gt.getRepositoryRoot().resolve(gde.toGitPath)));
                     }
                 }
             }
 
-            var share = System.getenv("GT_SHARE");
-            if (share == null) {
-                share = "src/deb/share";
+            var blobPipes = pipes || gt.getConfig().getBoolean("gt", null, "diffPipes", false)
+                            ? openPipes(gt, blobs)
+                            : null;
+            if (blobPipes != null) {
+                // Blobs are only read when the difftool opens them.
+                lines.forEach(System.out::println);
+            } else {
+                try (var span = gt.getTimings().start("extract blobs");
+                     var extractor = BlobExtractor.start(repository, gt.getMetrics(), blobCache, blobs)) {
+                    // Shown while the blobs are written.
+                    lines.forEach(System.out::println);
+                    extractor.await();
+                }
+                try {
+                    blobCache.evict();
+                } catch (IOException e) {
+                    // Ignore, tried again next time.
+                }
             }
 
             var args = new ArrayList<String>();
-            args.add("gvim");
-            args.add("+so " + share + "/diffall.vim");
+            if (difftool != null && !difftool.isBlank()) {
+                // Run by the shell, like git runs its tools, so quoted
+                // arguments and paths with spaces work. The files are passed
+                // as arguments to it.
+                args.add("sh");
+                args.add("-c");
+                args.add(difftool.trim() + " \"$@\"");
+                args.add("gt-difftool");
+            } else {
+                var share = System.getenv("GT_SHARE");
+                if (share == null) {
+                    share = "src/deb/share";
+                }
+                args.add("gvim");
+                args.add("+so " + share + "/diffall.vim");
+            }
             list.forEach(p -> args.add(p.toString()));
 
-            var out = SubProcess
-                    .newRunner(args.toArray(new String[0]))
-                    .withDeadlineMs(TimeUnit.HOURS.toMillis(20))
-                    .withDeadlineFlushMs(TimeUnit.HOURS.toMillis(20))
-                    .run();
-            if (out.getExitCode() != 0) {
-                System.err.print(out.getError());
-                System.out.print(out.getOutput());
+            try (var span = gt.getTimings().start("difftool");
+                 blobPipes) {
+                var out = SubProcess
+                        .newRunner(args.toArray(new String[0]))
+                        .withDeadlineMs(TimeUnit.HOURS.toMillis(20))
+                        .withDeadlineFlushMs(TimeUnit.HOURS.toMillis(20))
+                        .run();
+                if (out.getExitCode() != 0) {
+                    System.err.print(out.getError());
+                    System.out.print(out.getOutput());
+                }
+            }
+        }
+    }
+
+    /**
+     * Make named pipes for the blobs, or null if not possible, e.g. too many
+     * blobs, or no mkfifo, so they are extracted instead.
+     */
+    private static BlobPipes openPipes(GitTool gt, List<BlobExtractor.Blob> blobs) {
+        if (blobs.size() > BlobPipes.MAX_PIPES) {
+            return null;
+        }
+        try {
+            var reopenDelay = gt.getConfig().getTimeUnit(
+                    "gt", null, "diffPipesReopenDelay", BlobPipes.DEFAULT_REOPEN_DELAY_MS, TimeUnit.MILLISECONDS);
+            return BlobPipes.create(gt.getRepository(), gt.getMetrics(), blobs, reopenDelay);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void printStat(List<GtDiffEntry> entries, List<Future<DiffStat.Stat>> futures, int width)
+            throws IOException {
+        var names = new ArrayList<String>();
+        var stats = new ArrayList<DiffStat.Stat>();
+        var total = DiffStat.Stat.NONE;
+        int nameWidth = 0;
+        int maxChanges = 0;
+        for (int i = 0; i < entries.size(); ++i) {
+            var gde = entries.get(i);
+            var name = gde.key;
+            if (!gde.fromGitPath.equals(DEV_NULL) &&
+                !gde.toGitPath.equals(DEV_NULL) &&
+                !gde.fromGitPath.equals(gde.toGitPath)) {
+                name = gde.fromGitPath + " => " + gde.toGitPath;
+            }
+            var stat = DiffStat.get(futures.get(i));
+            names.add(name);
+            stats.add(stat);
+            total = total.plus(stat);
+            nameWidth = Math.max(nameWidth, name.length());
+            maxChanges = Math.max(maxChanges, stat.changes());
+        }
+        var countWidth = Math.max(3, Integer.toString(maxChanges).length());
+        var graphWidth = Math.max(10, Math.min(40, width - nameWidth - countWidth - 6));
+        for (int i = 0; i < names.size(); ++i) {
+            var stat = stats.get(i);
+            if (stat.binary()) {
+                System.out.printf(" %s | %" + countWidth + "s%n", rightPad(names.get(i), nameWidth), "Bin");
+                continue;
+            }
+            int added = stat.added();
+            int removed = stat.removed();
+            if (maxChanges > graphWidth) {
+                // Scale down, but show at least one of each.
+                added = added == 0 ? 0 : Math.max(1, added * graphWidth / maxChanges);
+                removed = removed == 0 ? 0 : Math.max(1, removed * graphWidth / maxChanges);
             }
+            System.out.printf(" %s | %" + countWidth + "d %s%s%s%s%s%s%n",
+                              rightPad(names.get(i), nameWidth),
+                              stat.changes(),
+                              GREEN, "+".repeat(added), CLEAR,
+                              RED, "-".repeat(removed), CLEAR);
         }
+        System.out.printf(" %d file%s changed, %d insertion%s(+), %d deletion%s(-)%n",
+                          names.size(), names.size() == 1 ? "" : "s",
+                          total.added(), total.added() == 1 ? "" : "s",
+                          total.removed(), total.removed() == 1 ? "" : "s");
     }
 
     private class GtDiffEntry {
@@ -243,8 +374,9 @@ public class GtDiff extends Command {
         String toGitPath;
         String key;
 
-        DiffEntry baseToHead;
-        DiffEntry staged;
-        DiffEntry unstaged;
+        // The object to show the diff from.
+        ObjectId oldId;
+        // The object to show the diff to, if not changed in the work tree.
+        ObjectId newId;
     }
 }
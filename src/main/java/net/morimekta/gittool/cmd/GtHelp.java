@@ -80,6 +80,11 @@ public class GtHelp extends Command {
                 case "diff":
                     System.out.println(BOLD + "Show branch diff" + CLEAR);
                     System.out.println();
+                    System.out.println("Opens the changed files in gvim. Another diff tool can be set with");
+                    System.out.println("'git config gt.difftool <command>', which is given the old and new");
+                    System.out.println("file of each change as arguments. The command is run by the shell, so");
+                    System.out.println("it may quote arguments and paths with spaces.");
+                    System.out.println();
                     argHelp(subCommandSet.parserForSubCommand("diff")).printHelp(System.out);
                     break;
                 case "l":
@@ -88,6 +93,24 @@ public class GtHelp extends Command {
                     System.out.println();
                     argHelp(subCommandSet.parserForSubCommand("log")).printHelp(System.out);
                     break;
+                case "cache":
+                    System.out.println(BOLD + "Inspect or clear the history cache" + CLEAR);
+                    System.out.println();
+                    System.out.println("Merge bases and ahead / behind counts are cached in '.git/gt-cache',");
+                    System.out.println("keyed by the commits they were computed from. The cache can be");
+                    System.out.println("disabled with 'git config gt.cache false'.");
+                    System.out.println();
+                    argHelp(subCommandSet.parserForSubCommand("cache")).printHelp(System.out);
+                    break;
+                case "daemon":
+                    System.out.println(BOLD + "Run the gt daemon" + CLEAR);
+                    System.out.println();
+                    System.out.println("Keeps the JVM and repositories open, so commands started with the");
+                    System.out.println("'gt' script skip JVM and repository startup. The daemon exits after");
+                    System.out.println("being idle for the given time. Branch and diff always run locally.");
+                    System.out.println();
+                    argHelp(subCommandSet.parserForSubCommand("daemon")).printHelp(System.out);
+                    break;
                 case "help":
                     System.out.println(BOLD + "Show help information" + CLEAR);
                     System.out.println();
@@ -17,15 +17,30 @@ package net.morimekta.gittool.cmd;
 
 import net.morimekta.gittool.GitTool;
 import net.morimekta.gittool.util.BranchInfo;
+import net.morimekta.gittool.util.CommitPages;
+import net.morimekta.gittool.util.LogFilter;
+import net.morimekta.io.tty.TTYMode;
+import net.morimekta.strings.chr.Char;
+import net.morimekta.strings.chr.Color;
+import net.morimekta.terminal.Terminal;
 import net.morimekta.terminal.args.ArgParser;
+import net.morimekta.terminal.selection.Selection;
+import net.morimekta.terminal.selection.SelectionReaction;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.String.format;
 import static net.morimekta.gittool.util.Colors.YELLOW_DIM;
+import static net.morimekta.gittool.util.Utils.clr;
 import static net.morimekta.gittool.util.Utils.date;
 import static net.morimekta.gittool.util.Utils.print1or2ln;
 import static net.morimekta.strings.StringUtil.clipWidth;
@@ -35,139 +50,314 @@ import static net.morimekta.strings.chr.Color.CLEAR;
 import static net.morimekta.strings.chr.Color.DIM;
 import static net.morimekta.strings.chr.Color.GREEN;
 import static net.morimekta.strings.chr.Color.RED;
+import static net.morimekta.strings.chr.Color.YELLOW;
+import static net.morimekta.terminal.args.Argument.argument;
 import static net.morimekta.terminal.args.Flag.flag;
 import static net.morimekta.terminal.args.Option.option;
+import static net.morimekta.terminal.args.Option.optionLong;
+import static net.morimekta.terminal.args.ValueParser.ui32;
 
 /**
  * Interactively manage branches.
  */
 public class GtLog extends Command {
-    private String  branch = null;
-    private boolean left   = false;
-    private boolean right  = false;
-    private boolean remote = false;
+    private static final int PAGE_SIZE = 100;
+
+    private String  branch   = null;
+    private boolean left     = false;
+    private boolean right    = false;
+    private boolean remote   = false;
+    private int     maxCount = 0;
+
+    private boolean interactive = false;
+
+    private final List<String> paths = new ArrayList<>();
+
+    private String    author = null;
+    private String    grep   = null;
+    private Instant   since  = null;
+    private Instant   until  = null;
+    private LogFilter filter = LogFilter.ALL;
 
     public GtLog(ArgParser.Builder builder) {
         builder.add(option("--branch", "b", "Show status for branch, if not set diff to current", str -> branch = str));
         builder.add(flag("--left", "l", "Show left side", b -> left = b).defaultOn());
         builder.add(flag("--right", "r", "Show right side", b -> right = b).defaultOff());
         builder.add(flag("--remote", "R", "Show diff to remote", b -> remote = b).defaultOff());
+        builder.add(option("--max-count", "n", "Show at most this many commits on each side, 0 for all",
+                           ui32(i -> maxCount = i)).defaultValue(maxCount));
+        builder.add(flag("--interactive", "i", "Browse the commits of one side, the right side if shown",
+                         b -> interactive = b).defaultOff());
+        builder.add(option("--author", "a", "Only commits with matching author name or email", str -> author = str));
+        builder.add(option("--grep", "g", "Only commits with matching message", str -> grep = str));
+        builder.add(optionLong("--since", "Only commits since date, e.g. 2024-01-31 or 2.weeks.ago",
+                               str -> since = LogFilter.parseDate(str)));
+        builder.add(optionLong("--until", "Only commits until date", str -> until = LogFilter.parseDate(str)));
+        builder.add(argument("path", "Only commits changing these paths", paths::add).repeated());
     }
 
     @Override
-    public void execute(GitTool gt) throws IOException {
-        try {
-            var width = gt.terminalWidth();
-            if (!left && !right) {
-                left = true;
-            }
+    public boolean isLocalOnly() {
+        return interactive;
+    }
 
-            Repository repository = gt.getRepository();
+    @Override
+    public void execute(GitTool gt) throws IOException, GitAPIException {
+        var width = gt.terminalWidth();
+        if (!left && !right) {
+            left = true;
+        }
 
-            var currentBranch = branch != null ? branch : repository.getBranch();
-            var currentRef = repository.getRefDatabase().findRef(gt.refName(currentBranch));
-            var current = new BranchInfo(currentRef, gt);
+        Repository repository = gt.getRepository();
+        filter = new LogFilter(author, grep, since, until, repositoryPaths(gt));
+        if (interactive && !filter.isAll()) {
+            System.err.println("Filters can not be used with --interactive");
+            return;
+        }
 
-            if (remote && current.remote().isEmpty()) {
-                System.err.println("No remote for " + currentBranch);
-                return;
-            }
+        var currentBranch = branch != null ? branch : repository.getBranch();
+        var currentRef = gt.findRef(currentBranch);
+        var current = new BranchInfo(currentRef, gt);
+
+        if (remote && current.remote().isEmpty()) {
+            System.err.println("No remote for " + currentBranch);
+            return;
+        }
 
-            String diffWithBranch = remote ? current.remote() : current.diffBase();
-            Ref diffWithRef = repository.getRefDatabase().findRef(gt.refName(diffWithBranch));
-            if (diffWithRef == null) {
-                System.out.printf("No such branch %s%s%s%n", BOLD, diffWithBranch, CLEAR);
+        String diffWithBranch = remote ? current.remote() : current.diffBase();
+        Ref diffWithRef = gt.findRef(diffWithBranch);
+        if (diffWithRef == null) {
+            System.out.printf("No such branch %s%s%s%n", BOLD, diffWithBranch, CLEAR);
+            return;
+        }
+
+        var diffWith = new BranchInfo(diffWithRef, gt);
+
+        if (!current.commit().equals(diffWith.commit())) {
+            if (interactive) {
+                // Only the commits shown are walked, so the ahead / behind
+                // counts are not needed.
+                if (right) {
+                    browse(gt,
+                           "Commits on %s%s%s since %s%s%s:".formatted(RED, diffWithBranch, CLEAR,
+                                                                       YELLOW_DIM, currentBranch, CLEAR),
+                           current.commit(), diffWith.commit(), "-", RED);
+                } else {
+                    browse(gt,
+                           "Commits on %s%s%s since %s%s%s:".formatted(GREEN, currentBranch, CLEAR,
+                                                                       YELLOW_DIM, diffWithBranch, CLEAR),
+                           diffWith.commit(), current.commit(), "+", GREEN);
+                }
                 return;
             }
 
-            var diffWith = new BranchInfo(diffWithRef, gt);
+            // The counts are usually cached, so empty sides are known without
+            // walking them.
+            var counts = gt.aheadBehind(current.commit(), diffWith.commit());
+
+            if (left) {
+                var ancestor = gt.lastCommonAncestor(diffWith.commit(), current.commit());
 
-            if (!current.commit().equals(diffWith.commit())) {
-                var log = gt.log(diffWith.commit(), current.commit());
+                String diff = gt.isRemote(diffWithBranch)
+                              ? format("->%s%s%s", BLUE, diffWithBranch, CLEAR)
+                              : format("d:%s%s%s", YELLOW_DIM, diffWithBranch, CLEAR);
+                if (counts.ahead() == 0) {
+                    print1or2ln(
+                            "No commits on on %s%s%s since %s [%s]".formatted(
+                                    GREEN, currentBranch, CLEAR, date(ancestor), diff),
+                            " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
+                            width);
+                } else {
+                    print1or2ln(
+                            "Commits on on %s%s%s since %s [%s]".formatted(
+                                    GREEN, currentBranch, CLEAR, date(ancestor), diff),
+                            " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
+                            width);
+                    System.out.println();
+                    printLog(gt, diffWith.commit(), current.commit(), "+", GREEN, width);
+                }
+            }
 
+            if (right) {
                 if (left) {
-                    var leftLog = log.local();
-                    var ancestor = gt.lastCommonAncestor(diffWith.commit(), current.commit());
-
-                    String diff = gt.isRemote(diffWithBranch)
-                                  ? format("->%s%s%s", BLUE, diffWithBranch, CLEAR)
-                                  : format("d:%s%s%s", YELLOW_DIM, diffWithBranch, CLEAR);
-                    if (leftLog.isEmpty()) {
-                        print1or2ln(
-                                "No commits on on %s%s%s since %s [%s]".formatted(
-                                        GREEN, currentBranch, CLEAR, date(ancestor), diff),
-                                " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
-                                width);
-                    } else {
-                        print1or2ln(
-                                "Commits on on %s%s%s since %s [%s]".formatted(
-                                        GREEN, currentBranch, CLEAR, date(ancestor), diff),
-                                " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
-                                width);
-                        System.out.println();
-                        leftLog.forEach(co -> {
-                            System.out.println(clipWidth(
-                                    "+ %s%s%s %s %s%s%s".formatted(
-                                            GREEN,
-                                            co.abbreviate(7).name(),
-                                            CLEAR,
-                                            date(co),
-                                            DIM,
-                                            co.getShortMessage(),
-                                            CLEAR),
-                                    width));
-                        });
-                    }
+                    System.out.println();
                 }
 
-                if (right) {
-                    if (left) {
-                        System.out.println();
-                    }
-
-                    var rightLog = log.remote();
-                    var ancestor = gt.lastCommonAncestor(current.commit(), diffWith.commit());
-                    if (rightLog.isEmpty()) {
-                        print1or2ln(
-                                "No commits on %s%s%s since %s [d:%s%s%s]".formatted(
-                                        RED, diffWithBranch, CLEAR,
-                                        date(ancestor),
-                                        YELLOW_DIM, currentBranch, CLEAR),
-                                left ? "" : " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
-                                width);
-                    } else {
-                        print1or2ln(
-                                "Commits on on %s%s%s since %s [d:%s%s%s]".formatted(
-                                        RED, diffWithBranch, CLEAR,
-                                        date(ancestor),
-                                        YELLOW_DIM, currentBranch, CLEAR),
-                                left ? "" : " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
-                                width);
-                        System.out.println();
-                        rightLog.forEach(co -> {
-                            System.out.println(clipWidth(
-                                    "- %s%s%s %s %s%s%s".formatted(
-                                            RED,
-                                            co.abbreviate(7).name(),
-                                            CLEAR,
-                                            date(co),
-                                            DIM,
-                                            co.getShortMessage(),
-                                            CLEAR),
-                                    width));
-                        });
-                    }
+                var ancestor = gt.lastCommonAncestor(current.commit(), diffWith.commit());
+                if (counts.behind() == 0) {
+                    print1or2ln(
+                            "No commits on %s%s%s since %s [d:%s%s%s]".formatted(
+                                    RED, diffWithBranch, CLEAR,
+                                    date(ancestor),
+                                    YELLOW_DIM, currentBranch, CLEAR),
+                            left ? "" : " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
+                            width);
+                } else {
+                    print1or2ln(
+                            "Commits on on %s%s%s since %s [d:%s%s%s]".formatted(
+                                    RED, diffWithBranch, CLEAR,
+                                    date(ancestor),
+                                    YELLOW_DIM, currentBranch, CLEAR),
+                            left ? "" : " -- %s%s%s".formatted(DIM, ancestor.getShortMessage(), CLEAR),
+                            width);
+                    System.out.println();
+                    printLog(gt, current.commit(), diffWith.commit(), "-", RED, width);
+                }
+            }
+        } else {
+            print1or2ln(
+                    "No commits on %s%s%s since %s".formatted(
+                            BLUE, currentBranch, CLEAR, date(current.commit())),
+                    " -- %s%s%s".formatted(
+                            DIM, current.commit().getShortMessage(), CLEAR),
+                    width);
+        }
+    }
+
+    private void printLog(GitTool gt,
+                          RevCommit base,
+                          RevCommit head,
+                          String sign,
+                          Color color,
+                          int width) throws IOException {
+        int limit = maxCount > 0 ? maxCount : Integer.MAX_VALUE;
+        int matching = gt.log(base, head, filter, limit, co -> System.out.println(clipWidth(
+                "%s %s%s%s %s %s%s%s".formatted(
+                        sign,
+                        color,
+                        co.abbreviate(7).name(),
+                        CLEAR,
+                        date(co),
+                        DIM,
+                        co.getShortMessage(),
+                        CLEAR),
+                width)));
+        if (matching > limit) {
+            System.out.printf("%s... %d more%s%n", DIM, matching - limit, CLEAR);
+        } else if (matching == 0) {
+            System.out.printf("%sNo matching commits%s%n", DIM, CLEAR);
+        }
+    }
+
+    /**
+     * @return The path arguments relative to the repository root, or empty
+     *         if any of them is the repository root itself.
+     */
+    private List<String> repositoryPaths(GitTool gt) throws IOException {
+        var root = gt.getRepositoryRoot();
+        var out = new ArrayList<String>();
+        for (var path : paths) {
+            var relative = root.relativize(gt.getPwd().resolve(path).normalize()).toString().replace('\\', '/');
+            if (relative.isEmpty()) {
+                return List.of();
+            }
+            out.add(relative);
+        }
+        return out;
+    }
+
+    private void browse(GitTool gt,
+                        String prompt,
+                        RevCommit base,
+                        RevCommit head,
+                        String sign,
+                        Color color) throws IOException, GitAPIException {
+        try (var pages = new CommitPages(gt.getSession().reader(), base, head, PAGE_SIZE)) {
+            if (pages.isEmpty()) {
+                System.out.println(prompt + " none");
+                return;
+            }
+            browse(gt, prompt, pages, sign, color);
+        }
+    }
+
+    private void browse(GitTool gt,
+                        String prompt,
+                        CommitPages pages,
+                        String sign,
+                        Color color) throws IOException, GitAPIException {
+        try (var terminal = new Terminal(gt.tty, TTYMode.COOKED)) {
+            RevCommit selected = null;
+            while (true) {
+                var builder = Selection
+                        .newBuilder(pages)
+                        .terminal(terminal)
+                        .prompt(prompt)
+                        .on(Char.CR, "details", SelectionReaction.SELECT)
+                        .on('q', "quit", SelectionReaction.EXIT)
+                        .hiddenOn(Char.ESC, SelectionReaction.EXIT)
+                        .printer((co, bg) -> logLine(co, sign, color, bg));
+                if (selected != null) {
+                    builder.initial(selected);
+                }
+                try (var selection = builder.build()) {
+                    selected = selection.runSelection();
+                } catch (UncheckedIOException e) {
+                    // Most likely: User interrupted:
+                    // <ESC>, <CTRL-C> etc.
+                    System.out.println(e.getMessage());
+                    return;
+                }
+                if (selected == null) {
+                    return;
+                }
+                printDetails(gt, terminal, selected);
+            }
+        }
+    }
+
+    private static String logLine(RevCommit co, String sign, Color color, Color baseColor) {
+        var builder = new StringBuilder();
+        if (baseColor != null) {
+            builder.append(baseColor);
+        }
+        builder.append(sign).append(' ').append(color).append(co.abbreviate(7).name());
+        clr(builder, baseColor);
+        builder.append(' ').append(date(co)).append(' ').append(DIM).append(co.getShortMessage());
+        clr(builder, baseColor);
+        return builder.toString();
+    }
+
+    /**
+     * Print the full message and changed files of a commit. Only done for
+     * the selected commit, so the list itself only needs the commit headers
+     * and short messages.
+     */
+    private void printDetails(GitTool gt, Terminal terminal, RevCommit commit) throws IOException, GitAPIException {
+        var lp = terminal.lp();
+        lp.println("");
+        lp.println("%scommit %s%s".formatted(YELLOW, commit.name(), CLEAR));
+        lp.println("Author: %s <%s>".formatted(commit.getAuthorIdent().getName(),
+                                                commit.getAuthorIdent().getEmailAddress()));
+        lp.println("Date:   %s".formatted(date(commit)));
+        lp.println("");
+        for (var line : commit.getFullMessage().strip().split("\n")) {
+            lp.println("    " + line);
+        }
+        if (commit.getParentCount() > 0) {
+            var parent = gt.getSession().commit(commit.getParent(0));
+            lp.println("");
+            for (var entry : gt.diff(parent, commit)) {
+                switch (entry.getChangeType()) {
+                    case ADD:
+                        lp.println(" A %s%s%s".formatted(GREEN, entry.getNewPath(), CLEAR));
+                        break;
+                    case DELETE:
+                        lp.println(" D %s%s%s".formatted(YELLOW, entry.getOldPath(), CLEAR));
+                        break;
+                    case RENAME:
+                    case COPY:
+                        lp.println(" %s %s%s%s <- %s%s%s".formatted(
+                                entry.getChangeType() == DiffEntry.ChangeType.RENAME ? "R" : "C",
+                                YELLOW_DIM, entry.getNewPath(), CLEAR,
+                                DIM, entry.getOldPath(), CLEAR));
+                        break;
+                    default:
+                        lp.println("   " + entry.getNewPath());
+                        break;
                 }
-            } else {
-                print1or2ln(
-                        "No commits on %s%s%s since %s".formatted(
-                                BLUE, currentBranch, CLEAR, date(current.commit())),
-                        " -- %s%s%s".formatted(
-                                DIM, current.commit().getShortMessage(), CLEAR),
-                        width);
             }
-        } catch (GitAPIException e) {
-            throw new IllegalStateException(e.getMessage(), e);
         }
+        lp.println("");
     }
 }
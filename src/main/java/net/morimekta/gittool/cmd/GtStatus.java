@@ -18,8 +18,9 @@ package net.morimekta.gittool.cmd;
 import net.morimekta.file.FileUtil;
 import net.morimekta.gittool.GitTool;
 import net.morimekta.gittool.util.BranchInfo;
-import net.morimekta.gittool.util.FileStatus;
+import net.morimekta.gittool.util.DiffStat;
 import net.morimekta.gittool.util.Utils;
+import net.morimekta.gittool.util.WorktreeStatus;
 import net.morimekta.terminal.args.ArgParser;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
@@ -28,15 +29,12 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryState;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.ArrayList;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.Future;
 
 import static java.lang.String.format;
-import static net.morimekta.gittool.GitTool.pwd;
 import static net.morimekta.gittool.util.Colors.YELLOW_BOLD;
 import static net.morimekta.gittool.util.Colors.YELLOW_DIM;
 import static net.morimekta.gittool.util.Utils.addsAndDeletes;
@@ -51,14 +49,18 @@ import static net.morimekta.strings.chr.Color.RED;
 import static net.morimekta.strings.chr.Color.YELLOW;
 import static net.morimekta.terminal.args.Flag.flag;
 import static net.morimekta.terminal.args.Option.option;
+import static org.eclipse.jgit.diff.DiffEntry.ChangeType.ADD;
+import static org.eclipse.jgit.diff.DiffEntry.ChangeType.DELETE;
 
 /**
  * Interactively manage branches.
  */
 public class GtStatus extends Command {
     private Path root;
+    private Path pwd;
 
     private boolean relative = false;
+    private boolean stat     = false;
     private String  branch   = null;
 
     private void setBranch(String branch) {
@@ -68,6 +70,7 @@ public class GtStatus extends Command {
     public GtStatus(ArgParser.Builder builder) {
         builder.add(option("--branch", "b", "Show status for branch", this::setBranch));
         builder.add(flag("--relative", "r", "Show relative path to PWD", b -> relative = b));
+        builder.add(flag("--stat", "s", "Show lines added and removed per file", b -> stat = b));
     }
 
     private String path(String path) {
@@ -77,8 +80,18 @@ public class GtStatus extends Command {
         return path;
     }
 
+    private static String stat(DiffStat.Stat stat) {
+        if (stat.binary()) {
+            return " %s[bin]%s".formatted(DIM, CLEAR);
+        } else if (stat.changes() == 0) {
+            return "";
+        }
+        return " " + addsAndDeletes(stat.added(), stat.removed(), null);
+    }
+
     @Override
     public void execute(GitTool gt) throws IOException {
+        DiffStat diffStat = null;
         try {
             var width = gt.terminalWidth();
 
@@ -93,15 +106,18 @@ public class GtStatus extends Command {
                         + state.getDescription(), width));
             }
 
-            var git = gt.getGit();
             this.root = FileUtil.readCanonicalPath(gt.getRepositoryRoot());
+            this.pwd = gt.getPwd();
+            if (stat) {
+                diffStat = new DiffStat(repository, gt.getMetrics());
+            }
 
             var currentBranch = repository.getBranch();
-            var currentRef = repository.getRefDatabase().findRef(gt.refName(currentBranch));
+            var currentRef = gt.findRef(currentBranch);
             var current = new BranchInfo(currentRef, gt);
 
             String diffWithBranch = branch != null ? branch : current.diffBase();
-            Ref diffWithRef = repository.getRefDatabase().findRef(gt.refName(diffWithBranch));
+            Ref diffWithRef = gt.findRef(diffWithBranch);
             if (diffWithRef == null) {
                 System.out.println(clipWidth(
                         "No such branch %s%s%s".formatted(BOLD, diffWithBranch, CLEAR), width));
@@ -114,9 +130,9 @@ public class GtStatus extends Command {
             var diffWith = new BranchInfo(diffWithRef, gt);
 
             if (!current.commit().equals(diffWith.commit())) {
-                var log = gt.log(diffWith.commit(), current.commit());
-                int commits = log.local().size();
-                int missing = log.remote().size();
+                var counts = gt.aheadBehind(current.commit(), diffWith.commit());
+                int commits = counts.ahead();
+                int missing = counts.behind();
                 String stats = "";
                 if (commits > 0 || missing > 0) {
                     stats = " " + addsAndDeletes(commits, missing, null);
@@ -132,30 +148,47 @@ public class GtStatus extends Command {
 
                 var diffEntries = gt.diff(ancestor, current.commit());
                 if (!diffEntries.isEmpty()) {
-                    System.out.println();
-                    for (DiffEntry entry : diffEntries) {
-                        switch (entry.getChangeType()) {
-                            case RENAME:
-                                System.out.printf(" R %s%s%s <- %s%s%s%n",
-                                                  YELLOW_DIM, entry.getNewPath(), CLEAR,
-                                                  DIM, path(entry.getOldPath()), CLEAR);
-                                break;
-                            case MODIFY:
-                                System.out.printf("   %s%n", path(entry.getOldPath()));
-                                break;
-                            case ADD:
-                                System.out.printf(" A %s%s%s%n",
-                                                  GREEN, path(entry.getNewPath()), CLEAR);
-                                break;
-                            case DELETE:
-                                System.out.printf(" D %s%s%s%n",
-                                                  YELLOW, path(entry.getOldPath()), CLEAR);
-                                break;
-                            case COPY:
-                                System.out.printf(" C %s%s%s <- %s%s%s%n",
-                                                  YELLOW_DIM, path(entry.getNewPath()), CLEAR,
-                                                  DIM, path(entry.getOldPath()), CLEAR);
-                                break;
+                    var lineStats = new ArrayList<Future<DiffStat.Stat>>();
+                    if (diffStat != null) {
+                        // All started before the first is shown.
+                        for (DiffEntry entry : diffEntries) {
+                            lineStats.add(diffStat.start(
+                                    entry.getChangeType() == ADD
+                                    ? DiffStat.Side.NONE
+                                    : DiffStat.Side.blob(entry.getOldId().toObjectId()),
+                                    entry.getChangeType() == DELETE
+                                    ? DiffStat.Side.NONE
+                                    : DiffStat.Side.blob(entry.getNewId().toObjectId())));
+                        }
+                    }
+                    try (var span = gt.getTimings().start("render")) {
+                        System.out.println();
+                        for (int i = 0; i < diffEntries.size(); ++i) {
+                            var entry = diffEntries.get(i);
+                            var changes = lineStats.isEmpty() ? "" : stat(DiffStat.get(lineStats.get(i)));
+                            switch (entry.getChangeType()) {
+                                case RENAME:
+                                    System.out.printf(" R %s%s%s <- %s%s%s%s%n",
+                                                      YELLOW_DIM, entry.getNewPath(), CLEAR,
+                                                      DIM, path(entry.getOldPath()), CLEAR, changes);
+                                    break;
+                                case MODIFY:
+                                    System.out.printf("   %s%s%n", path(entry.getOldPath()), changes);
+                                    break;
+                                case ADD:
+                                    System.out.printf(" A %s%s%s%s%n",
+                                                      GREEN, path(entry.getNewPath()), CLEAR, changes);
+                                    break;
+                                case DELETE:
+                                    System.out.printf(" D %s%s%s%s%n",
+                                                      YELLOW, path(entry.getOldPath()), CLEAR, changes);
+                                    break;
+                                case COPY:
+                                    System.out.printf(" C %s%s%s <- %s%s%s%s%n",
+                                                      YELLOW_DIM, path(entry.getNewPath()), CLEAR,
+                                                      DIM, path(entry.getOldPath()), CLEAR, changes);
+                                    break;
+                            }
                         }
                     }
                 }
@@ -167,74 +200,51 @@ public class GtStatus extends Command {
                         width);
             }
 
-            // Check for staged and unstaged changes.
-            List<DiffEntry> staged = git
-                    .diff()
-                    .setShowNameAndStatusOnly(true)
-                    .setCached(true)
-                    .call();
-            List<DiffEntry> unstaged = git
-                    .diff()
-                    .setShowNameAndStatusOnly(true)
-                    .setCached(false)
-                    .call()
-                    .stream()
-                    .filter(i -> {
-                        if (i.getChangeType() == DiffEntry.ChangeType.DELETE) {
-                            try {
-                                var path = gt.getRepositoryRoot().resolve(i.getOldPath());
-                                if (Files.isDirectory(path)) {
-                                    // Weirdness where it reports empty folders that are checked
-                                    // in as a folder as deleted.
-                                    return false;
-                                }
-                            } catch (IOException e) {
-                                return true;
-                            }
-                        }
-                        return true;
-                    })
-                    .toList();
-
-            if (!staged.isEmpty() || !unstaged.isEmpty()) {
-                System.out.println();
-                System.out.printf("%sUncommitted%s changes on %s%s%s:%n",
-                                  RED,
-                                  CLEAR,
-                                  YELLOW_BOLD,
-                                  currentBranch,
-                                  CLEAR);
-                System.out.println();
-
-                Map<String, FileStatus> st = unstaged
-                        .stream()
-                        .map(d -> new FileStatus(relative, root, d))
-                        .collect(Collectors.toMap(
-                                FileStatus::getNewestPath, fs -> fs));
-                staged.forEach(d -> {
-                    if (d.getNewPath() != null) {
-                        if (st.containsKey(d.getNewPath())) {
-                            st.get(d.getNewPath()).setStaged(d);
-                            return;
-                        }
+            // Staged and unstaged changes are found in one pass, and
+            // shown as they are found, or when counted with --stat.
+            try (var span = gt.getTimings().start("worktree status")) {
+                var header = new boolean[]{false};
+                var pending = new ArrayList<Map.Entry<String, Future<DiffStat.Stat>>>();
+                var counter = diffStat;
+                WorktreeStatus.scan(repository, gt.getMetrics(), fs -> {
+                    if (!header[0]) {
+                        header[0] = true;
+                        System.out.println();
+                        System.out.printf("%sUncommitted%s changes on %s%s%s:%n",
+                                          RED,
+                                          CLEAR,
+                                          YELLOW_BOLD,
+                                          currentBranch,
+                                          CLEAR);
+                        System.out.println();
                     }
-                    if (d.getOldPath() != null) {
-                        if (st.containsKey(d.getOldPath())) {
-                            st.get(d.getOldPath()).setStaged(d);
-                            return;
+                    if (counter == null) {
+                        System.out.println(fs.statusLine(this::path));
+                    } else {
+                        // The total change, from HEAD to the work tree.
+                        DiffStat.Side to;
+                        if (fs.unstaged() == null) {
+                            to = DiffStat.Side.blob(fs.index());
+                        } else if (fs.unstaged() == DELETE) {
+                            to = DiffStat.Side.NONE;
+                        } else {
+                            to = DiffStat.Side.file(root.resolve(fs.path()));
                         }
+                        pending.add(Map.entry(fs.statusLine(this::path),
+                                              counter.start(DiffStat.Side.blob(fs.head()), to)));
                     }
-                    FileStatus fs = new FileStatus(relative, root, null).setStaged(d);
-
-                    st.put(fs.getNewestPath(), fs);
+                    return true;
                 });
-
-                for (FileStatus fs : new TreeMap<>(st).values()) {
-                    System.out.println(fs.statusLine());
+                for (var line : pending) {
+                    System.out.println(line.getKey() + stat(DiffStat.get(line.getValue())));
                 }
             }
         } catch (GitAPIException e) {
             throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            if (diffStat != null) {
+                diffStat.close();
+            }
         }
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.daemon;
+
+import net.morimekta.gittool.GitTool;
+import net.morimekta.io.tty.TTY;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thin client for the gt daemon. Sends the command to the daemon if one
+ * is running, and otherwise runs it in this process, same as
+ * {@link GitTool#main(String...)}. The client does not touch JGit, so its
+ * own startup is short when the daemon does the work.
+ */
+public class DaemonClient {
+    /**
+     * Send the command to the daemon.
+     *
+     * @param socket The daemon socket.
+     * @param args   The command line arguments.
+     * @param env    The environment.
+     * @return The exit code, or null if the command must be run locally.
+     * @throws IOException If the connection failed after output was received.
+     */
+    static Integer send(Path socket, String[] args, Map<String, String> env) throws IOException {
+        SocketChannel channel;
+        try {
+            // The environment is sent to the daemon, so only to one run by
+            // the same user.
+            if (!isOwnedByUser(socket)) {
+                return null;
+            }
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            // No daemon running.
+            return null;
+        }
+
+        boolean received = false;
+        try (channel) {
+            var out = new DataOutputStream(Channels.newOutputStream(channel));
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            new DaemonProtocol.Request(List.of(args), env, terminalWidth(), System.console() != null).write(out);
+
+            var buffer = new byte[8192];
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case DaemonProtocol.STDOUT, DaemonProtocol.STDERR -> {
+                        received = true;
+                        var target = type == DaemonProtocol.STDOUT ? System.out : System.err;
+                        int remaining = in.readInt();
+                        while (remaining > 0) {
+                            int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                            if (read < 0) {
+                                throw new EOFException("gt daemon closed connection");
+                            }
+                            target.write(buffer, 0, read);
+                            remaining -= read;
+                        }
+                    }
+                    case DaemonProtocol.EXIT -> {
+                        System.out.flush();
+                        System.err.flush();
+                        return in.readInt();
+                    }
+                    case DaemonProtocol.RUN_LOCAL -> {
+                        return null;
+                    }
+                    default -> throw new IOException("Unknown gt daemon response: " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (received) {
+                throw e;
+            }
+            // Nothing shown yet, so safe to run locally instead.
+            return null;
+        }
+    }
+
+    private static boolean isOwnedByUser(Path socket) throws IOException {
+        var user = socket.getFileSystem()
+                         .getUserPrincipalLookupService()
+                         .lookupPrincipalByName(System.getProperty("user.name"));
+        return user.equals(Files.getOwner(socket, LinkOption.NOFOLLOW_LINKS));
+    }
+
+    private static int terminalWidth() {
+        try {
+            return new TTY().getTerminalSize().cols;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    public static void main(String... args) {
+        var env = System.getenv();
+        var socket = DaemonProtocol.socketPath(env);
+        Integer exitCode = null;
+        if (Files.exists(socket)) {
+            try {
+                exitCode = send(socket, args, env);
+            } catch (IOException e) {
+                System.err.println("gt daemon error: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (exitCode == null) {
+            GitTool.main(args);
+            return;
+        }
+        System.exit(exitCode);
+    }
+}
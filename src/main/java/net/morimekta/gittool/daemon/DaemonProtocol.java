@@ -0,0 +1,149 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The wire format between the gt client and the gt daemon. The client sends
+ * a single request with the command arguments, its environment, terminal
+ * width and if its output is a terminal. The daemon answers with a sequence of frames, each a type byte,
+ * followed by the output bytes for {@link #STDOUT} and {@link #STDERR}, the
+ * exit code for {@link #EXIT}, or nothing for {@link #RUN_LOCAL} if the
+ * client must run the command itself.
+ */
+public final class DaemonProtocol {
+    public static final int VERSION = 2;
+
+    public static final byte STDOUT    = 1;
+    public static final byte STDERR    = 2;
+    public static final byte EXIT      = 3;
+    public static final byte RUN_LOCAL = 4;
+
+    /**
+     * A single command request.
+     *
+     * @param args    The command line arguments.
+     * @param env     The client environment.
+     * @param columns  The client terminal width, or -1 if not a terminal.
+     * @param terminal If the client output is a terminal.
+     */
+    public record Request(List<String> args, Map<String, String> env, int columns, boolean terminal) {
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(VERSION);
+            out.writeInt(args.size());
+            for (var arg : args) {
+                out.writeUTF(arg);
+            }
+            out.writeInt(env.size());
+            for (var entry : env.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(columns);
+            out.writeBoolean(terminal);
+            out.flush();
+        }
+
+        public static Request read(DataInputStream in) throws IOException {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown gt daemon protocol version " + version);
+            }
+            var args = new ArrayList<String>();
+            for (int i = in.readInt(); i > 0; --i) {
+                args.add(in.readUTF());
+            }
+            var env = new HashMap<String, String>();
+            for (int i = in.readInt(); i > 0; --i) {
+                env.put(in.readUTF(), in.readUTF());
+            }
+            int columns = in.readInt();
+            return new Request(List.copyOf(args), Map.copyOf(env), columns, in.readBoolean());
+        }
+    }
+
+    /**
+     * Output stream that writes each chunk as a frame of the given type.
+     */
+    public static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte             type;
+
+        public FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Get the daemon socket path. Set with the 'GT_DAEMON_SOCKET' environment
+     * variable, otherwise a per user socket in the runtime directory.
+     *
+     * @param env The environment.
+     * @return The socket path.
+     */
+    public static Path socketPath(Map<String, String> env) {
+        var socket = env.get("GT_DAEMON_SOCKET");
+        if (socket != null && !socket.isEmpty()) {
+            return Path.of(socket);
+        }
+        var dir = env.get("XDG_RUNTIME_DIR");
+        if (dir == null || dir.isEmpty()) {
+            dir = System.getProperty("java.io.tmpdir");
+        }
+        return Path.of(dir, "gt-daemon-" + System.getProperty("user.name") + ".sock");
+    }
+
+    private DaemonProtocol() {}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.daemon;
+
+import net.morimekta.gittool.GitTool;
+import net.morimekta.gittool.cmd.Command;
+import net.morimekta.gittool.util.HistoryCache;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Long-lived gt process, that runs commands sent by {@link DaemonClient}
+ * over a unix domain socket. Repositories and history caches are kept open
+ * between commands, and JGit's window cache stays warm, so commands skip
+ * JVM startup and cold reads of packs and config.
+ * <p>
+ * Commands are run one at a time, with standard output and error sent back
+ * to the client. Commands that need the terminal are sent back to be run
+ * by the client, so the daemon never uses a terminal of its own. The
+ * terminal width and whether the output is a terminal are the client's.
+ * A repository is reopened whenever HEAD, the index, refs, packs, config
+ * or the commit-graph have changed on disk since it was last used.
+ */
+public class DaemonServer implements Closeable {
+    private static final String[] STATE_FILES = {
+            "HEAD", "index", "packed-refs", "config", "objects/info/commit-graph", "objects/pack"
+    };
+
+    private final Path                      socket;
+    private final Duration                  idleTimeout;
+    private final PrintStream               log;
+    private final Map<Path, OpenRepository> repositories;
+    private final Map<Path, HistoryCache>   historyCaches;
+
+    public DaemonServer(Path socket, Duration idleTimeout, PrintStream log) {
+        this.socket = socket;
+        this.idleTimeout = idleTimeout;
+        this.log = log;
+        this.repositories = new HashMap<>();
+        this.historyCaches = new HashMap<>();
+    }
+
+    /**
+     * Serve requests until no request has come for the idle timeout.
+     *
+     * @throws IOException If unable to listen on the socket.
+     */
+    public void run() throws IOException {
+        removeStaleSocket();
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             var selector = Selector.open()) {
+            bindPrivate(server);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            log.println("gt daemon listening on " + socket);
+
+            while (selector.select(idleTimeout.toMillis()) > 0) {
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    try (var client = channel) {
+                        client.configureBlocking(true);
+                        handle(client);
+                    } catch (IOException e) {
+                        log.println("gt daemon request failed: " + e.getMessage());
+                    }
+                }
+            }
+            log.println("gt daemon idle for " + idleTimeout.toMinutes() + " minutes, exiting");
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (var open : repositories.values()) {
+            open.repository().close();
+        }
+        repositories.clear();
+        historyCaches.clear();
+    }
+
+    // --------------
+
+    private void handle(SocketChannel client) throws IOException {
+        var in = new DataInputStream(Channels.newInputStream(client));
+        var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        var request = DaemonProtocol.Request.read(in);
+
+        var stdout = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.STDOUT), true, UTF_8);
+        var stderr = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.STDERR), true, UTF_8);
+        var gt = new DaemonGitTool(request);
+
+        // Commands are run one at a time, so the standard streams can be
+        // swapped for the duration of the command.
+        var originalOut = System.out;
+        var originalErr = System.err;
+        System.setOut(stdout);
+        System.setErr(stderr);
+        try {
+            gt.execute(request.args().toArray(new String[0]));
+        } catch (RuntimeException e) {
+            stderr.println("Internal Error: " + e.getMessage());
+            gt.exitCode = 1;
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
+        stdout.flush();
+        stderr.flush();
+
+        if (gt.runLocal) {
+            out.writeByte(DaemonProtocol.RUN_LOCAL);
+        } else {
+            out.writeByte(DaemonProtocol.EXIT);
+            out.writeInt(gt.exitCode);
+        }
+        out.flush();
+    }
+
+    /**
+     * Only the owner may talk to the daemon. The socket is bound in a new
+     * folder only the owner can enter, made private, and then moved in
+     * place, so no one else can connect to it before it is private.
+     */
+    private void bindPrivate(ServerSocketChannel server) throws IOException {
+        var parent = socket.toAbsolutePath().getParent();
+        var dir = Files.createTempDirectory(parent, ".gt-daemon-", PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rwx------")));
+        try {
+            var bound = dir.resolve("socket");
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(dir.resolve("socket"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private void removeStaleSocket() throws IOException {
+        if (!Files.exists(socket)) {
+            return;
+        }
+        try (var probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            probe.connect(UnixDomainSocketAddress.of(socket));
+            throw new IOException("gt daemon already running on " + socket);
+        } catch (ConnectException e) {
+            // Left behind by a daemon that did not exit cleanly.
+            Files.delete(socket);
+        }
+    }
+
+    /**
+     * Stamp of the files that change when refs, the index or the object
+     * database change. Loose refs can be nested, so every file and folder
+     * under 'refs' is included.
+     */
+    private static String stateOf(Path gitDir) throws IOException {
+        var builder = new StringBuilder();
+        for (var name : STATE_FILES) {
+            stamp(builder, gitDir.resolve(name));
+        }
+        var refs = gitDir.resolve("refs");
+        if (Files.isDirectory(refs)) {
+            try (Stream<Path> paths = Files.walk(refs)) {
+                for (var path : (Iterable<Path>) paths.sorted()::iterator) {
+                    stamp(builder, path);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void stamp(StringBuilder builder, Path path) throws IOException {
+        builder.append(path.getFileName()).append(':');
+        if (Files.exists(path)) {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            builder.append(attributes.lastModifiedTime().toMillis())
+                   .append(':')
+                   .append(attributes.size());
+        }
+        builder.append(';');
+    }
+
+    private record OpenRepository(Repository repository, String state) {}
+
+    private class DaemonGitTool extends GitTool {
+        private final int     columns;
+        private final boolean terminal;
+
+        private int     exitCode = 0;
+        private boolean runLocal = false;
+
+        private DaemonGitTool(DaemonProtocol.Request request) {
+            // No terminal, as commands that need it are run by the client.
+            super(null, request.env());
+            this.columns = request.columns();
+            this.terminal = request.terminal();
+        }
+
+        @Override
+        public int terminalWidth() {
+            return terminal && columns > 0 ? columns : 80;
+        }
+
+        @Override
+        protected boolean canExecute(Command command) {
+            runLocal = command.isLocalOnly();
+            return !runLocal;
+        }
+
+        @Override
+        protected Repository openRepository(Path gitDir) throws IOException {
+            gitDir = gitDir.toAbsolutePath().normalize();
+            var state = stateOf(gitDir);
+            var open = repositories.get(gitDir);
+            if (open != null) {
+                if (open.state().equals(state)) {
+                    return open.repository();
+                }
+                // Changed on disk, drop anything JGit kept in memory.
+                open.repository().close();
+            }
+            var repository = super.openRepository(gitDir);
+            repositories.put(gitDir, new OpenRepository(repository, state));
+            return repository;
+        }
+
+        @Override
+        protected void closeRepository(Repository repository) {
+            // Kept open for the next command.
+        }
+
+        @Override
+        protected HistoryCache loadHistoryCache(Path gitDir) {
+            return historyCaches.computeIfAbsent(gitDir.toAbsolutePath().normalize(), HistoryCache::load);
+        }
+
+        @Override
+        protected void errorExit() {
+            exitCode = 1;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Number of commits only reachable from a local commit (ahead), and only
+ * reachable from the commit it is compared to (behind).
+ *
+ * @param ahead  Number of commits only on the local side.
+ * @param behind Number of commits only on the other side.
+ */
+public record AheadBehind(int ahead, int behind) {
+    public static final AheadBehind NONE = new AheadBehind(0, 0);
+
+    // Keep walking a few commits after both sides have met, to be
+    // tolerant of some clock skew, same as the RevWalk pending generator.
+    private static final int OVER_SCAN = 6;
+
+    /**
+     * Count commits ahead and behind in a single traversal. Both tips are
+     * walked at once in commit time order, and each commit is marked with
+     * which side it is reachable from. The walk stops when every pending
+     * commit is reachable from both sides.
+     * <p>
+     * If the repository has a commit-graph file, commits are walked in
+     * generation number order instead, which is a strict topological order.
+     * Then the walk can stop as soon as every pending commit is reachable
+     * from both sides, without scanning extra commits for clock skew.
+     *
+     * @param walk  The rev walk to parse commits with.
+     * @param local The local commit.
+     * @param other The commit to compare with.
+     * @return The ahead / behind counts.
+     * @throws IOException If unable to read the commits.
+     */
+    public static AheadBehind count(HistoryWalk walk, AnyObjectId local, AnyObjectId other) throws IOException {
+        if (AnyObjectId.isEqual(local, other)) {
+            return NONE;
+        }
+
+        RevFlag localFlag = walk.newFlag("ahead-behind-local");
+        RevFlag otherFlag = walk.newFlag("ahead-behind-other");
+        RevFlag queuedFlag = walk.newFlag("ahead-behind-queued");
+        var visited = new ArrayList<RevCommit>();
+        try {
+            var queue = new PriorityQueue<>(NEWEST_FIRST);
+            var localCommit = walk.parseCommit(local);
+            var otherCommit = walk.parseCommit(other);
+            localCommit.add(localFlag);
+            otherCommit.add(otherFlag);
+            localCommit.add(queuedFlag);
+            otherCommit.add(queuedFlag);
+            visited.add(localCommit);
+            visited.add(otherCommit);
+            var localEntry = new Entry(localCommit, walk.generation(localCommit));
+            var otherEntry = new Entry(otherCommit, walk.generation(otherCommit));
+            queue.add(localEntry);
+            queue.add(otherEntry);
+
+            // Generation order is only exact if all walked commits are in
+            // the commit graph. Commits newer than the graph are unknown.
+            boolean exact = localEntry.isKnown() && otherEntry.isKnown();
+            // Number of queued commits not yet reachable from both sides.
+            int active = 2;
+            int overScan = OVER_SCAN;
+            while (!queue.isEmpty()) {
+                if (active == 0 && (exact || --overScan < 0)) {
+                    break;
+                }
+
+                var commit = queue.poll().commit();
+                commit.remove(queuedFlag);
+                boolean isLocal = commit.has(localFlag);
+                boolean isOther = commit.has(otherFlag);
+                if (!isLocal || !isOther) {
+                    --active;
+                }
+
+                for (var parent : commit.getParents()) {
+                    walk.parseHeaders(parent);
+                    boolean wasLocal = parent.has(localFlag);
+                    boolean wasOther = parent.has(otherFlag);
+                    if ((wasLocal || !isLocal) && (wasOther || !isOther)) {
+                        // Nothing new to carry down.
+                        continue;
+                    }
+                    if (!wasLocal && !wasOther) {
+                        visited.add(parent);
+                    }
+                    if (isLocal) {
+                        parent.add(localFlag);
+                    }
+                    if (isOther) {
+                        parent.add(otherFlag);
+                    }
+                    boolean stale = parent.has(localFlag) && parent.has(otherFlag);
+                    if (parent.has(queuedFlag)) {
+                        if (stale) {
+                            // Became reachable from both sides while queued.
+                            --active;
+                        }
+                    } else {
+                        // Either new, or already walked and needs the new
+                        // flag carried down to its own parents.
+                        parent.add(queuedFlag);
+                        var entry = new Entry(parent, walk.generation(parent));
+                        exact = exact && entry.isKnown();
+                        queue.add(entry);
+                        if (!stale) {
+                            ++active;
+                        }
+                    }
+                }
+            }
+
+            int ahead = 0;
+            int behind = 0;
+            for (var commit : visited) {
+                boolean isLocal = commit.has(localFlag);
+                boolean isOther = commit.has(otherFlag);
+                if (isLocal && !isOther) {
+                    ++ahead;
+                } else if (isOther && !isLocal) {
+                    ++behind;
+                }
+            }
+            return new AheadBehind(ahead, behind);
+        } finally {
+            // The commits were never marked as walk starts, so the walk
+            // does not know to clear these on reset.
+            for (var commit : visited) {
+                commit.remove(localFlag);
+                commit.remove(otherFlag);
+                commit.remove(queuedFlag);
+            }
+            walk.disposeFlag(localFlag);
+            walk.disposeFlag(otherFlag);
+            walk.disposeFlag(queuedFlag);
+        }
+    }
+
+    private record Entry(RevCommit commit, int generation) {
+        boolean isKnown() {
+            return HistoryWalk.isKnown(generation);
+        }
+    }
+
+    // Highest generation first, so the order is topological when known,
+    // then newest first, as commits not in the graph have equal generation.
+    private static final Comparator<Entry> NEWEST_FIRST =
+            Comparator.comparingInt(Entry::generation)
+                      .thenComparingInt(e -> e.commit().getCommitTime())
+                      .reversed();
+}
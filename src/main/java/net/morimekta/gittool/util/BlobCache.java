@@ -0,0 +1,346 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache of extracted blobs, keyed by blob ID, shared by all repositories of
+ * the user. Cached blobs are hard linked into the diff folder of each run,
+ * so a blob that was extracted by an earlier run is not read or written
+ * again. The cache is on tmpfs when available, i.e. in '$XDG_RUNTIME_DIR'
+ * or '/dev/shm', and the diff folders are made next to it so the links
+ * work. If linking fails the blob is copied.
+ * <p>
+ * Blobs are written to a temporary file and moved in place, and made read
+ * only, so the cached files are always complete and never changed through
+ * a link. When the cache is larger than its size limit, the least
+ * recently used blobs are deleted. Using a blob updates its modification
+ * time. Deleting a cached blob does not affect links to it.
+ * <p>
+ * The default cache folders have predictable names in folders anyone can
+ * write to, and cached blobs are trusted by ID. So the cache is only used
+ * if its folder is owned by the user and only accessible by the user.
+ * Otherwise, or if the cache can not be read or written, the cache is
+ * disabled and each run uses a new private temp folder.
+ */
+public final class BlobCache {
+    /** Default size limit of the cache. */
+    public static final long DEFAULT_SIZE = 256L * 1024 * 1024;
+
+    private static final Set<PosixFilePermission> PRIVATE = PosixFilePermissions.fromString("rwx------");
+
+    private final Path          root;
+    private final long          maxSize;
+    private final AtomicBoolean added;
+    private final AtomicBoolean failed;
+
+    private volatile Boolean usable;
+
+    private BlobCache(Path root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+        this.added = new AtomicBoolean();
+        this.failed = new AtomicBoolean();
+    }
+
+    /**
+     * Load the blob cache from config. The cache folder is set with
+     * 'gt.blobCache', and its size limit with 'gt.blobCacheSize'. A size of
+     * 0 disables the cache.
+     *
+     * @param config The git config.
+     * @param env    The environment.
+     * @return The blob cache.
+     */
+    public static BlobCache load(Config config, Map<String, String> env) {
+        var maxSize = config.getLong("gt", null, "blobCacheSize", DEFAULT_SIZE);
+        if (maxSize <= 0) {
+            return disabled();
+        }
+        var dir = config.getString("gt", null, "blobCache");
+        if (dir != null && !dir.isBlank()) {
+            return new BlobCache(Path.of(dir.trim()), maxSize);
+        }
+        var runtime = env.get("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty() && Files.isDirectory(Path.of(runtime))) {
+            return new BlobCache(Path.of(runtime, "gt-blobs"), maxSize);
+        }
+        var user = System.getProperty("user.name");
+        if (Files.isDirectory(Path.of("/dev/shm"))) {
+            return new BlobCache(Path.of("/dev/shm", "gt-blobs-" + user), maxSize);
+        }
+        return new BlobCache(Path.of(System.getProperty("java.io.tmpdir"), "gt-blobs-" + user), maxSize);
+    }
+
+    /**
+     * @return A cache that does not cache anything.
+     */
+    public static BlobCache disabled() {
+        return new BlobCache(null, 0);
+    }
+
+    /**
+     * @return If the cache is enabled. A cache that is enabled may still
+     *         turn out not to be usable, in which case nothing is cached.
+     */
+    public boolean isEnabled() {
+        return root != null;
+    }
+
+    /**
+     * @return The cache folder, or null if disabled.
+     */
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * Make a new folder for the blobs of a single run, on the same file
+     * system as the cache if enabled.
+     *
+     * @param prefix Prefix of the folder name.
+     * @return The new folder.
+     * @throws IOException If unable to make the folder.
+     */
+    public Path newRunFolder(String prefix) throws IOException {
+        if (isUsable()) {
+            try {
+                var runs = Files.createDirectories(root.resolve("runs"));
+                return Files.createTempDirectory(runs, prefix);
+            } catch (IOException e) {
+                // Cache not usable, so use the default temp folder.
+                failed.set(true);
+            }
+        }
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Link a cached blob to a file.
+     *
+     * @param id   The blob ID.
+     * @param file The file to link.
+     * @return True if linked or copied from the cache, false if the blob is
+     *         not cached, or the cache is not usable.
+     * @throws IOException If the file already exists.
+     */
+    public boolean link(AnyObjectId id, Path file) throws IOException {
+        if (!isUsable()) {
+            return false;
+        }
+        var cached = path(id);
+        try {
+            Files.setLastModifiedTime(cached, FileTime.from(Instant.now()));
+            linkOrCopy(cached, file);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (NoSuchFileException e) {
+            // Not cached, or just evicted.
+            return false;
+        } catch (IOException e) {
+            // E.g. access denied, so extract the blob without the cache.
+            failed.set(true);
+            Files.deleteIfExists(file);
+            return false;
+        }
+    }
+
+    /**
+     * Add a blob to the cache, and link it to a file. If the blob could not
+     * be added, the cache is not used for the rest of the run, and the
+     * stream may have been partly read, so the blob must be read again to
+     * write the file.
+     *
+     * @param id   The blob ID.
+     * @param in   The blob content.
+     * @param file The file to link.
+     * @return True if added and linked, false if the cache is not usable.
+     * @throws IOException If the file already exists.
+     */
+    public boolean add(AnyObjectId id, InputStream in, Path file) throws IOException {
+        if (!isUsable()) {
+            return false;
+        }
+        var cached = path(id);
+        try {
+            var tmp = Files.createTempFile(Files.createDirectories(cached.getParent()), id.name(), ".tmp");
+            try {
+                try (var out = Files.newOutputStream(tmp)) {
+                    in.transferTo(out);
+                }
+                if (!tmp.toFile().setReadOnly()) {
+                    throw new IOException("Unable to make " + tmp + " read only");
+                }
+                // If written at the same time by someone else, the content is
+                // the same, so either can be kept.
+                Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            added.set(true);
+            linkOrCopy(cached, file);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException e) {
+            failed.set(true);
+            Files.deleteIfExists(file);
+            return false;
+        }
+    }
+
+    /**
+     * Delete the least recently used blobs until the cache is within its
+     * size limit. Only checked if blobs were added.
+     *
+     * @return Number of blobs deleted.
+     * @throws IOException If unable to list the cache.
+     */
+    public int evict() throws IOException {
+        if (!isUsable() || !added.getAndSet(false)) {
+            return 0;
+        }
+        var objects = root.resolve("objects");
+        var files = new ArrayList<Cached>();
+        long size = 0;
+        try (var paths = Files.walk(objects)) {
+            for (var path : paths.filter(p -> !p.toString().endsWith(".tmp")).toList()) {
+                try {
+                    var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        files.add(new Cached(path, attributes.lastModifiedTime(), attributes.size()));
+                        size += attributes.size();
+                    }
+                } catch (NoSuchFileException e) {
+                    // Evicted by someone else.
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        files.sort(Comparator.comparing(Cached::used));
+        int deleted = 0;
+        for (var file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (Files.deleteIfExists(file.path())) {
+                ++deleted;
+            }
+            size -= file.size();
+        }
+        return deleted;
+    }
+
+    // --------------
+
+    private record Cached(Path path, FileTime used, long size) {}
+
+    private boolean isUsable() {
+        if (root == null || failed.get()) {
+            return false;
+        }
+        if (usable == null) {
+            try {
+                privateFolder(root);
+                usable = true;
+            } catch (IOException e) {
+                usable = false;
+            }
+        }
+        return usable;
+    }
+
+    private Path path(AnyObjectId id) {
+        var name = id.name();
+        return root.resolve("objects").resolve(name.substring(0, 2)).resolve(name.substring(2));
+    }
+
+    private static void linkOrCopy(Path cached, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try {
+            Files.createLink(file, cached);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Other file system, or links not supported.
+            Files.copy(cached, file);
+        }
+    }
+
+    /**
+     * Make the cache folder only readable by the user, as blobs of private
+     * repositories are kept there. An existing folder must be a folder owned
+     * by the user, and with no access for anyone else, as the blobs in it
+     * are not checked against their IDs.
+     */
+    private static Path privateFolder(Path dir) throws IOException {
+        boolean posix = Files.getFileAttributeView(dir.getParent(), PosixFileAttributeView.class) != null;
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                Files.createDirectories(dir.getParent());
+                if (posix) {
+                    Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PRIVATE));
+                } else {
+                    Files.createDirectory(dir);
+                }
+            } catch (FileAlreadyExistsException e) {
+                // Made by someone else, checked below.
+            }
+        }
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(dir + " is not a folder");
+        }
+        var user = dir.getFileSystem()
+                      .getUserPrincipalLookupService()
+                      .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!user.equals(Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS))) {
+            throw new IOException(dir + " is not owned by " + user.getName());
+        }
+        if (posix && !Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS).equals(PRIVATE)) {
+            throw new IOException(dir + " is accessible by other users");
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write blobs to files on a pool of worker threads. The blobs are sorted
+ * by their position in the pack files, and each worker gets a contiguous
+ * range of them with its own object reader, so each reader reads forward
+ * through the packs. Blobs are streamed to the files, so large blobs are
+ * never held in memory whole. Blobs in the {@link BlobCache} are linked
+ * from there instead, and other blobs are added to it.
+ */
+public final class BlobExtractor implements Closeable {
+    /**
+     * A blob to write to a file.
+     *
+     * @param id   The blob ID.
+     * @param file The file to write.
+     */
+    public record Blob(ObjectId id, Path file) {}
+
+    private final ExecutorService    executor;
+    private final List<Future<Void>> tasks;
+
+    private BlobExtractor(ExecutorService executor) {
+        this.executor = executor;
+        this.tasks = new ArrayList<>();
+    }
+
+    /**
+     * Start writing the blobs, with one thread per processor.
+     *
+     * @param repository The repository to read from.
+     * @param metrics    The metrics to count I/O in.
+     * @param cache      The blob cache.
+     * @param blobs      The blobs to write.
+     * @return The running extraction.
+     */
+    public static BlobExtractor start(Repository repository, Metrics metrics, BlobCache cache, List<Blob> blobs) {
+        return start(repository, metrics, cache, blobs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Start writing the blobs with the given number of threads.
+     *
+     * @param repository The repository to read from.
+     * @param metrics    The metrics to count I/O in.
+     * @param cache      The blob cache.
+     * @param blobs      The blobs to write.
+     * @param threads    Number of threads to write with.
+     * @return The running extraction.
+     */
+    public static BlobExtractor start(Repository repository,
+                                      Metrics metrics,
+                                      BlobCache cache,
+                                      List<Blob> blobs,
+                                      int threads) {
+        var sorted = sortByPackPosition(repository, blobs);
+        var workers = Math.max(1, Math.min(threads, sorted.size()));
+        var count = new AtomicInteger();
+        var extractor = new BlobExtractor(Executors.newFixedThreadPool(workers, task -> {
+            var thread = new Thread(task, "gt-blob-extract-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }));
+        for (int i = 0; i < workers; ++i) {
+            var range = sorted.subList(sorted.size() * i / workers, sorted.size() * (i + 1) / workers);
+            extractor.tasks.add(extractor.executor.submit(() -> {
+                write(repository, metrics, cache, range);
+                return null;
+            }));
+        }
+        return extractor;
+    }
+
+    /**
+     * Wait for all blobs to be written.
+     *
+     * @throws IOException If unable to read a blob or write a file.
+     */
+    public void await() throws IOException {
+        try {
+            for (var task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting blobs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            } else if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Stop the extraction, if not already done.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // --------------
+
+    private static void write(Repository repository, Metrics metrics, BlobCache cache, List<Blob> blobs)
+            throws IOException {
+        try (var reader = metrics.reader(repository)) {
+            for (var blob : blobs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (cache.link(blob.id(), blob.file())) {
+                    metrics.increment(Metrics.Counter.BLOBS_CACHED);
+                    continue;
+                }
+                if (cache.isEnabled()) {
+                    try (var in = reader.open(blob.id(), Constants.OBJ_BLOB).openStream()) {
+                        if (cache.add(blob.id(), in, blob.file())) {
+                            continue;
+                        }
+                    }
+                    // Cache not usable, so read the blob again.
+                }
+                try (var in = reader.open(blob.id(), Constants.OBJ_BLOB).openStream()) {
+                    Files.createDirectories(blob.file().getParent());
+                    try (var out = Files.newOutputStream(blob.file())) {
+                        in.transferTo(out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the blobs by pack and offset within the pack. Loose objects, and
+     * objects in other kinds of object databases, are last.
+     */
+    private static List<Blob> sortByPackPosition(Repository repository, List<Blob> blobs) {
+        if (!(repository.getObjectDatabase() instanceof ObjectDirectory directory)) {
+            return blobs;
+        }
+        var packs = new ArrayList<>(directory.getPacks());
+        var positioned = new ArrayList<Positioned>(blobs.size());
+        for (var blob : blobs) {
+            var position = new Positioned(blob, packs.size(), 0);
+            for (int i = 0; i < packs.size(); ++i) {
+                try {
+                    var offset = packs.get(i).getIndex().findOffset(blob.id());
+                    if (offset >= 0) {
+                        position = new Positioned(blob, i, offset);
+                        break;
+                    }
+                } catch (IOException e) {
+                    // Unreadable index, read the blob in any order.
+                }
+            }
+            positioned.add(position);
+        }
+        positioned.sort(Comparator.comparingInt(Positioned::pack).thenComparingLong(Positioned::offset));
+        return positioned.stream().map(Positioned::blob).toList();
+    }
+
+    private record Positioned(Blob blob, int pack, long offset) {}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hand blobs to an external tool through named pipes instead of files.
+ * Each blob gets a FIFO, and a thread that waits for the tool to open it,
+ * and only then reads the blob and streams it into the pipe. Blobs the
+ * tool never opens are never read, and nothing is written to disk. The
+ * blob is streamed again each time the pipe is opened, as some tools read
+ * a file more than once. The blob cache is not used, as the blobs are not
+ * written anywhere. Needs {@code mkfifo}, so not available on Windows.
+ * <p>
+ * A pipe can not tell when the tool is done with it, only when it is
+ * closed. So after the end of the blob, the pipe is only served again
+ * after the reopen delay, and a tool opening it again in the meantime waits
+ * for that. A tool that keeps the pipe open for longer than the delay after
+ * reading to the end, and then reads on, gets all or part of the blob
+ * again after the first copy. The delay is set with
+ * 'gt.diffPipesReopenDelay'.
+ */
+public final class BlobPipes implements Closeable {
+    /** Most pipes to make for one run, as each has its own waiting thread. */
+    public static final int MAX_PIPES = 1000;
+
+    /**
+     * Default time for the tool to close the pipe after the end of the blob,
+     * before the pipe is served again.
+     */
+    public static final long DEFAULT_REOPEN_DELAY_MS = 200;
+
+    // Pipes made per mkfifo call, to keep the command line short.
+    private static final int  BATCH_SIZE = 256;
+    private static final long STACK_SIZE = 256 * 1024;
+
+    private final Repository   repository;
+    private final Metrics      metrics;
+    private final long         reopenDelayMs;
+    private final List<Path>   pipes;
+    private final List<Thread> threads;
+
+    private volatile boolean closed;
+
+    private BlobPipes(Repository repository, Metrics metrics, long reopenDelayMs) {
+        this.repository = repository;
+        this.metrics = metrics;
+        this.reopenDelayMs = reopenDelayMs;
+        this.pipes = new ArrayList<>();
+        this.threads = new ArrayList<>();
+    }
+
+    /**
+     * Make a named pipe for each blob, and start streaming the blobs as the
+     * pipes are opened. If unable to make the pipes, none are left behind.
+     *
+     * @param repository The repository to read from.
+     * @param metrics    The metrics to count I/O in.
+     * @param blobs      The blobs to hand off, at most {@link #MAX_PIPES}.
+     * @return The open pipes.
+     * @throws IOException If unable to make the pipes.
+     */
+    public static BlobPipes create(Repository repository, Metrics metrics, List<BlobExtractor.Blob> blobs)
+            throws IOException {
+        return create(repository, metrics, blobs, DEFAULT_REOPEN_DELAY_MS);
+    }
+
+    /**
+     * Make a named pipe for each blob, with the given reopen delay.
+     *
+     * @param repository    The repository to read from.
+     * @param metrics       The metrics to count I/O in.
+     * @param blobs         The blobs to hand off, at most {@link #MAX_PIPES}.
+     * @param reopenDelayMs Time in milliseconds after the end of a blob
+     *                      before its pipe is served again.
+     * @return The open pipes.
+     * @throws IOException If unable to make the pipes.
+     */
+    public static BlobPipes create(Repository repository,
+                                   Metrics metrics,
+                                   List<BlobExtractor.Blob> blobs,
+                                   long reopenDelayMs) throws IOException {
+        if (blobs.size() > MAX_PIPES) {
+            throw new IOException("Too many blobs for pipes: " + blobs.size() + " > " + MAX_PIPES);
+        }
+        var pipes = new BlobPipes(repository, metrics, Math.max(0, reopenDelayMs));
+        try {
+            for (int i = 0; i < blobs.size(); i += BATCH_SIZE) {
+                mkfifo(blobs.subList(i, Math.min(blobs.size(), i + BATCH_SIZE)), pipes.pipes);
+            }
+        } catch (IOException e) {
+            for (var pipe : pipes.pipes) {
+                Files.deleteIfExists(pipe);
+            }
+            throw e;
+        }
+        var count = new AtomicInteger();
+        for (var blob : blobs) {
+            var thread = new Thread(null,
+                                    () -> pipes.serve(blob),
+                                    "gt-blob-pipe-" + count.getAndIncrement(),
+                                    STACK_SIZE);
+            thread.setDaemon(true);
+            thread.start();
+            pipes.threads.add(thread);
+        }
+        return pipes;
+    }
+
+    /**
+     * Stop streaming to the pipes. Call when the tool is done. The pipes
+     * themselves are left for the caller to delete with their folder.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (var pipe : pipes) {
+            // Opening a FIFO for both reading and writing does not block, and
+            // lets a thread still waiting for the tool see that it is closed.
+            try (var ignore = new RandomAccessFile(pipe.toFile(), "rw")) {
+                // Nothing to read.
+            } catch (IOException e) {
+                // Already deleted.
+            }
+        }
+        for (var thread : threads) {
+            thread.interrupt();
+            try {
+                thread.join(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // --------------
+
+    private void serve(BlobExtractor.Blob blob) {
+        while (!closed) {
+            OutputStream out;
+            try {
+                // Blocks until the pipe is opened for reading.
+                out = Files.newOutputStream(blob.file(), StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                // The pipe is gone.
+                return;
+            }
+            try (out) {
+                if (closed) {
+                    return;
+                }
+                try (var reader = metrics.reader(repository);
+                     var in = reader.open(blob.id(), Constants.OBJ_BLOB).openStream()) {
+                    in.transferTo(out);
+                }
+                metrics.increment(Metrics.Counter.BLOBS_STREAMED);
+            } catch (IOException e) {
+                // The tool closed the pipe before reading all of it. Streamed
+                // again if opened again.
+            }
+            try {
+                Thread.sleep(reopenDelayMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void mkfifo(List<BlobExtractor.Blob> blobs, List<Path> made) throws IOException {
+        var args = new ArrayList<String>();
+        args.add("mkfifo");
+        args.add("-m");
+        args.add("600");
+        args.add("--");
+        for (var blob : blobs) {
+            Files.createDirectories(blob.file().getParent());
+            args.add(blob.file().toString());
+        }
+        var process = new ProcessBuilder(args).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        String error;
+        int exitCode;
+        try {
+            error = new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new IOException("Interrupted while making pipes", e);
+        } finally {
+            for (var blob : blobs) {
+                if (Files.exists(blob.file())) {
+                    made.add(blob.file());
+                }
+            }
+        }
+        if (exitCode != 0) {
+            throw new IOException("mkfifo failed: " + error);
+        }
+    }
+}
@@ -22,12 +22,10 @@ package net.morimekta.gittool.util;
 
 import net.morimekta.gittool.GitTool;
 import net.morimekta.strings.chr.Color;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -39,7 +37,6 @@ import static net.morimekta.gittool.util.Colors.RED_BOLD;
 import static net.morimekta.gittool.util.Colors.YELLOW_DIM;
 import static net.morimekta.gittool.util.Utils.addsAndDeletes;
 import static net.morimekta.gittool.util.Utils.clr;
-import static net.morimekta.gittool.util.Utils.countIter;
 import static net.morimekta.strings.StringUtil.rightPad;
 import static net.morimekta.strings.chr.Color.*;
 
@@ -55,14 +52,12 @@ public class BranchInfo implements Comparable<BranchInfo> {
     private final Supplier<Boolean>             diffBaseIsDefault;
     private final Supplier<Optional<Ref>>       diffBaseRef;
     private final Supplier<Optional<RevCommit>> diffBaseCommit;
-    private final Supplier<Integer>             diffBaseLocalCommits;
-    private final Supplier<Integer>             diffBaseMissingCommits;
+    private final Supplier<AheadBehind>         diffBaseAheadBehind;
 
     private final Supplier<Optional<String>> remote;
     private final Supplier<Boolean>          remoteIsGone;
     private final Supplier<Optional<Ref>>    remoteRef;
-    private final Supplier<Integer>          remoteLocalCommits;
-    private final Supplier<Integer>          remoteMissingCommits;
+    private final Supplier<AheadBehind>      remoteAheadBehind;
 
     public BranchInfo(Ref currentRef, GitTool gt) {
         this.name = currentRef
@@ -86,11 +81,7 @@ public class BranchInfo implements Comparable<BranchInfo> {
         });
         this.commit = lazyCache(() -> {
             try {
-                try (RevWalk revWalk = new RevWalk(gt.getRepository())) {
-                    return revWalk.parseCommit(currentRef.getObjectId());
-                } catch (MissingObjectException e) {
-                    throw new UncheckedIOException(e);
-                }
+                return gt.getSession().commit(currentRef.getObjectId());
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -123,40 +114,18 @@ public class BranchInfo implements Comparable<BranchInfo> {
         });
         this.diffBaseCommit = lazyCache(() -> diffBaseRef.get().map(ref -> {
             try {
-                try (RevWalk revWalk = new RevWalk(gt.getRepository())) {
-                    return revWalk.parseCommit(ref.getObjectId());
-                } catch (MissingObjectException e) {
-                    return null;
-                }
+                return gt.getSession().commit(ref.getObjectId());
+            } catch (MissingObjectException e) {
+                return null;
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
         }));
-        this.diffBaseLocalCommits = lazyCache(() -> {
-            if (diffBase().equals(name)) return 0;
-            ObjectId currentHead = currentRef.getObjectId();
-            ObjectId diffWithHead = diffBaseRef.get().map(Ref::getObjectId).orElse(null);
-            if (diffWithHead == null || diffWithHead.equals(currentHead)) {
-                return 0;
-            }
-            try {
-                return countIter(gt.getGit().log().addRange(diffWithHead, currentHead).call());
-            } catch (GitAPIException | IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        this.diffBaseMissingCommits = lazyCache(() -> {
-            if (diffBase().equals(name)) return 0;
-            ObjectId currentHead = currentRef.getObjectId();
-            ObjectId diffWithHead = diffBaseRef.get().map(Ref::getObjectId).orElse(null);
-            if (diffWithHead == null || diffWithHead.equals(currentHead)) {
-                return 0;
-            }
-            try {
-                return countIter(gt.getGit().log().addRange(currentHead, diffWithHead).call());
-            } catch (GitAPIException | IOException e) {
-                throw new RuntimeException(e);
+        this.diffBaseAheadBehind = lazyCache(() -> {
+            if (diffBase().equals(name)) {
+                return AheadBehind.NONE;
             }
+            return aheadBehind(gt, currentRef, diffBaseRef.get());
         });
 
         // -----------------
@@ -186,30 +155,20 @@ public class BranchInfo implements Comparable<BranchInfo> {
             }
         }));
         this.remoteIsGone = lazyCache(() -> remoteRef.get().isEmpty());
-        this.remoteLocalCommits = lazyCache(() -> {
-            ObjectId currentHead = currentRef.getObjectId();
-            ObjectId diffWithHead = remoteRef.get().map(Ref::getObjectId).orElse(null);
-            if (diffWithHead == null || diffWithHead.equals(currentHead)) {
-                return 0;
-            }
-            try {
-                return countIter(gt.getGit().log().addRange(diffWithHead, currentHead).call());
-            } catch (GitAPIException | IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        this.remoteMissingCommits = lazyCache(() -> {
-            ObjectId currentHead = currentRef.getObjectId();
-            ObjectId diffWithHead = remoteRef.get().map(Ref::getObjectId).orElse(null);
-            if (diffWithHead == null || diffWithHead.equals(currentHead)) {
-                return 0;
-            }
-            try {
-                return countIter(gt.getGit().log().addRange(currentHead, diffWithHead).call());
-            } catch (GitAPIException | IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        this.remoteAheadBehind = lazyCache(() -> aheadBehind(gt, currentRef, remoteRef.get()));
+    }
+
+    private static AheadBehind aheadBehind(GitTool gt, Ref currentRef, Optional<Ref> otherRef) {
+        ObjectId currentHead = currentRef.getObjectId();
+        ObjectId otherHead = otherRef.map(Ref::getObjectId).orElse(null);
+        if (otherHead == null || otherHead.equals(currentHead)) {
+            return AheadBehind.NONE;
+        }
+        try {
+            return gt.getHistoryCache().aheadBehind(gt.getSession().walk(), currentHead, otherHead);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public String name() {
@@ -251,15 +210,30 @@ public class BranchInfo implements Comparable<BranchInfo> {
     // --------------
 
     public int localCommits() {
-        return diffBaseLocalCommits.get();
+        return diffBaseAheadBehind.get().ahead();
     }
 
     public int missingCommits() {
-        return diffBaseMissingCommits.get();
+        return diffBaseAheadBehind.get().behind();
     }
 
     // --------------
 
+    /**
+     * Load everything needed to make the branch line. History is read with
+     * the session walk for the calling thread, so branches can be loaded
+     * on separate threads.
+     */
+    public void preload() {
+        commit();
+        hasUncommitted();
+        diffBaseIsDefault.get();
+        diffBaseAheadBehind.get();
+        remote();
+        remoteIsGone.get();
+        remoteAheadBehind.get();
+    }
+
     public String branchLine(Color baseColor, int longestBranchName) {
         StringBuilder builder = new StringBuilder();
         if (baseColor != null) {
@@ -294,11 +268,10 @@ public class BranchInfo implements Comparable<BranchInfo> {
             }
             builder.append(remote());
             clr(builder, baseColor);
-            var local = remoteLocalCommits.get();
-            var missing = remoteMissingCommits.get();
-            if (local > 0 || missing > 0) {
+            var remoteDiff = remoteAheadBehind.get();
+            if (remoteDiff.ahead() > 0 || remoteDiff.behind() > 0) {
                 builder.append(" ")
-                       .append(addsAndDeletes(local, missing, baseColor));
+                       .append(addsAndDeletes(remoteDiff.ahead(), remoteDiff.behind(), baseColor));
             }
         } else if (!diffBaseIsDefault.get()) {
             builder.append(" d: ");
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator.FileEntry;
+import org.eclipse.jgit.treewalk.FileTreeIterator.FileModeStrategy;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.SystemReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Work tree iterator that uses the {@link UntrackedCache} for folders that
+ * have not changed since they were last listed. The entries of a cached
+ * folder are the files in the index and the cached untracked files, each
+ * read with a single stat call. Ignored files in it are not seen at all,
+ * just as the status scan would skip them. Otherwise the same as
+ * {@link FileTreeIterator}.
+ */
+final class CachedTreeIterator extends WorkingTreeIterator {
+    /**
+     * What is shared by all the iterators of a single walk.
+     */
+    record Context(FS fs, FileModeStrategy strategy, DirCache index, UntrackedCache cache, Metrics metrics) {}
+
+    private final Context context;
+    private final File    directory;
+    private final String  folder;
+
+    // Hash of the ignore rules for the folder, including all parents.
+    private ObjectId ignores;
+
+    /**
+     * Make an iterator for the work tree root.
+     *
+     * @param repository The repository.
+     * @param context    The shared context.
+     * @param ignores    Hash of the ignore rules from outside the work tree.
+     * @throws IOException If unable to read the folder.
+     */
+    CachedTreeIterator(Repository repository, Context context, ObjectId ignores) throws IOException {
+        super(repository.getConfig().get(WorkingTreeOptions.KEY));
+        this.context = context;
+        this.directory = repository.getWorkTree();
+        this.folder = "";
+        initRootIterator(repository);
+        load(ignores);
+    }
+
+    private CachedTreeIterator(CachedTreeIterator parent, File directory) throws IOException {
+        super(parent);
+        this.context = parent.context;
+        this.directory = directory;
+        this.folder = RawParseUtils.decode(UTF_8, path, 0, pathOffset - 1);
+        load(parent.ignores);
+    }
+
+    /**
+     * Hash the ignore rules from outside the work tree: the repository
+     * exclude file and the user exclude files.
+     *
+     * @param repository The repository.
+     * @return The ignore rules hash.
+     * @throws IOException If unable to read an exclude file.
+     */
+    static ObjectId rootIgnores(Repository repository) throws IOException {
+        var fs = repository.getFS();
+        var hash = ignores(ObjectId.zeroId(), new File(repository.getDirectory(), Constants.INFO_EXCLUDE));
+        var excludesFile = repository.getConfig().get(CoreConfig.KEY).getExcludesFile();
+        if (excludesFile != null) {
+            if (excludesFile.startsWith("~/")) {
+                hash = ignores(hash, fs.resolve(fs.userHome(), excludesFile.substring(2)));
+            } else {
+                hash = ignores(hash, fs.resolve(null, excludesFile));
+            }
+        }
+        var xdg = SystemReader.getInstance().getenv("XDG_CONFIG_HOME");
+        var config = xdg == null || xdg.isEmpty() ? new File(fs.userHome(), ".config") : new File(xdg);
+        return ignores(hash, new File(config, "git/ignore"));
+    }
+
+    @Override
+    public AbstractTreeIterator createSubtreeIterator(ObjectReader reader) throws IOException {
+        return new CachedTreeIterator(this, getEntryFile());
+    }
+
+    @Override
+    protected byte[] idSubmodule(Entry entry) {
+        return idSubmodule(directory, entry);
+    }
+
+    @Override
+    protected String readSymlinkTarget(Entry entry) throws IOException {
+        return context.fs().readSymLink(getEntryFile());
+    }
+
+    /**
+     * @return The file of the current entry.
+     */
+    public File getEntryFile() {
+        return ((FileEntry) current()).getFile();
+    }
+
+    // --------------
+
+    private void load(ObjectId parentIgnores) throws IOException {
+        this.ignores = ignores(parentIgnores, new File(directory, Constants.DOT_GIT_IGNORE));
+        var modified = context.fs().lastModifiedInstant(directory);
+        // Files added to or removed from the index do not change the folder,
+        // but do change what is untracked in it.
+        var tracked = indexNames();
+        var key = key(ignores, tracked);
+        var untracked = context.cache().get(folder, modified, key);
+        if (untracked != null) {
+            context.metrics().increment(Metrics.Counter.DIRS_CACHED);
+            var entries = new ArrayList<Entry>();
+            for (var name : tracked) {
+                addIfExists(entries, name);
+            }
+            for (var name : untracked) {
+                addIfExists(entries, name);
+            }
+            init(entries.toArray(new Entry[0]));
+            return;
+        }
+
+        context.metrics().increment(Metrics.Counter.DIRS_LISTED);
+        var listed = Instant.now();
+        init(context.fs().list(directory, context.strategy()));
+        if (context.cache().isEnabled()) {
+            context.cache().put(folder, modified, key, findUntracked(), listed);
+        }
+    }
+
+    private void addIfExists(List<Entry> entries, String name) {
+        var file = new File(directory, name);
+        var attributes = context.fs().getAttributes(file);
+        if (attributes.isRegularFile() || attributes.isDirectory() || attributes.isSymbolicLink()) {
+            entries.add(new FileEntry(file, context.fs(), attributes, context.strategy()));
+        }
+    }
+
+    /**
+     * Find the entries not in the index and not ignored, then go back to
+     * the first entry.
+     */
+    private List<String> findUntracked() throws IOException {
+        var untracked = new ArrayList<String>();
+        var prefix = folder.isEmpty() ? "" : folder + "/";
+        for (; !eof(); next(1)) {
+            var name = current().getName();
+            if (!inIndex(prefix + name) && !isEntryIgnored()) {
+                untracked.add(name);
+            }
+        }
+        reset();
+        return untracked;
+    }
+
+    /**
+     * @return If the index has the file, or any file in the folder.
+     */
+    private boolean inIndex(String path) {
+        var index = context.index();
+        if (index.findEntry(path) >= 0) {
+            return true;
+        }
+        var next = position(index, path + "/");
+        return next < index.getEntryCount() && index.getEntry(next).getPathString().startsWith(path + "/");
+    }
+
+    /**
+     * @return Names of the files and folders in the index directly in this
+     *         folder.
+     */
+    private List<String> indexNames() {
+        var index = context.index();
+        var prefix = folder.isEmpty() ? "" : folder + "/";
+        var names = new ArrayList<String>();
+        var i = prefix.isEmpty() ? 0 : position(index, prefix);
+        while (i < index.getEntryCount()) {
+            var path = index.getEntry(i).getPathString();
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            var slash = path.indexOf('/', prefix.length());
+            if (slash < 0) {
+                names.add(path.substring(prefix.length()));
+                i = index.nextEntry(i);
+            } else {
+                // Skip past the whole sub-folder, '0' sorts right after '/'.
+                names.add(path.substring(prefix.length(), slash));
+                i = position(index, path.substring(0, slash) + "0");
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return Position of the path in the index, or where it would be if not
+     *         in it.
+     */
+    private static int position(DirCache index, String path) {
+        int r = index.findEntry(path);
+        return r >= 0 ? r : -(r + 1);
+    }
+
+    private static ObjectId key(ObjectId ignores, List<String> tracked) {
+        var digest = Constants.newMessageDigest();
+        var raw = new byte[Constants.OBJECT_ID_LENGTH];
+        ignores.copyRawTo(raw, 0);
+        digest.update(raw);
+        for (var name : tracked) {
+            digest.update(name.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        return ObjectId.fromRaw(digest.digest());
+    }
+
+    private static ObjectId ignores(ObjectId parent, File gitignore) throws IOException {
+        var digest = Constants.newMessageDigest();
+        var raw = new byte[Constants.OBJECT_ID_LENGTH];
+        parent.copyRawTo(raw, 0);
+        digest.update(raw);
+        try {
+            digest.update(Files.readAllBytes(gitignore.toPath()));
+        } catch (NoSuchFileException e) {
+            digest.update((byte) 0);
+        } catch (IOException e) {
+            if (gitignore.exists()) {
+                throw e;
+            }
+            digest.update((byte) 0);
+        }
+        return ObjectId.fromRaw(digest.digest());
+    }
+}
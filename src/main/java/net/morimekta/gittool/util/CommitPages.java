@@ -0,0 +1,195 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The commits reachable from one commit but not from another, newest first,
+ * read from a live walk one page at a time as they are accessed. When the
+ * last loaded page is reached, the next page is loaded in the background,
+ * so scrolling through the list does not wait for the walk. Loaded commits
+ * can be read while the next page is loading.
+ * <p>
+ * Only the first page is read up front, so the range is never walked to
+ * the end just to show it. Until the walk has reached the end, the size is
+ * the number of commits loaded, plus one for the commits still to come.
+ */
+public class CommitPages extends AbstractList<RevCommit> implements Closeable {
+    private final ObjectReader    reader;
+    private final HistoryWalk     walk;
+    private final int             pageSize;
+    private final List<RevCommit> loaded;
+    private final ExecutorService prefetch;
+
+    // Written with the walk lock held, after adding to the loaded list.
+    private volatile int     count = 0;
+    private volatile boolean ended = false;
+
+    // Guarded by this.
+    private boolean prefetching = false;
+    // Guarded by the walk.
+    private boolean closed = false;
+
+    /**
+     * @param reader   The object reader to walk with. Closed with the pages.
+     * @param since    The commit to list commits since, e.g. the diffbase.
+     * @param until    The commit to list commits until, e.g. the branch head.
+     * @param pageSize The number of commits to load at a time.
+     * @throws IOException If unable to read the first page.
+     */
+    public CommitPages(ObjectReader reader, ObjectId since, ObjectId until, int pageSize) throws IOException {
+        this.reader = reader;
+        this.walk = new HistoryWalk(reader);
+        this.pageSize = pageSize;
+        this.loaded = new ArrayList<>();
+        this.prefetch = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "gt-log-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            walk.markStart(walk.parseCommit(until));
+            walk.markUninteresting(walk.parseCommit(since));
+            synchronized (walk) {
+                loadPage();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public RevCommit get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+        }
+        while (true) {
+            synchronized (this) {
+                if (index < loaded.size()) {
+                    if (index + pageSize / 2 >= loaded.size() && !ended && !prefetching) {
+                        prefetching = true;
+                        prefetch.execute(this::prefetch);
+                    }
+                    return loaded.get(index);
+                }
+            }
+            if (!loadUntil(index)) {
+                throw new IndexOutOfBoundsException("No commit " + index + ", range ended at " + count);
+            }
+        }
+    }
+
+    /**
+     * @return The number of commits in the range if the walk has reached
+     *         the end, otherwise the number loaded plus one.
+     */
+    @Override
+    public int size() {
+        // The count is final once ended is set.
+        boolean done = ended;
+        int loadedCount = count;
+        return done ? loadedCount : loadedCount + 1;
+    }
+
+    @Override
+    public void close() {
+        prefetch.shutdownNow();
+        synchronized (walk) {
+            closed = true;
+            walk.close();
+            reader.close();
+        }
+    }
+
+    // --------------
+
+    private void prefetch() {
+        try {
+            synchronized (walk) {
+                if (!ended && !closed) {
+                    loadPage();
+                }
+            }
+        } catch (IOException e) {
+            // Read again, and the error thrown, when the page is accessed.
+        } finally {
+            synchronized (this) {
+                prefetching = false;
+            }
+        }
+    }
+
+    /**
+     * Load pages until the commit at the index is loaded, waiting for a
+     * prefetch in progress first.
+     *
+     * @return False if the range ended before the index.
+     */
+    private boolean loadUntil(int index) {
+        synchronized (walk) {
+            try {
+                while (count <= index) {
+                    if (ended || closed) {
+                        return false;
+                    }
+                    loadPage();
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Load the next page of commits, with messages, so they can be shown.
+     * Must be called with the walk lock held. Only the loaded list is
+     * locked, and only while adding the page to it.
+     */
+    private void loadPage() throws IOException {
+        var page = new ArrayList<RevCommit>(pageSize);
+        RevCommit commit;
+        while (page.size() < pageSize && (commit = walk.next()) != null) {
+            walk.parseBody(commit);
+            page.add(commit);
+        }
+        synchronized (this) {
+            loaded.addAll(page);
+            count = loaded.size();
+        }
+        if (page.size() < pageSize) {
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Content of one side of a file diff. Files larger than the size limit are
+ * not read, and binary files are detected from the first bytes, the same
+ * way git does, and the rest is not read.
+ *
+ * @param bytes    The content, or null if binary or too large.
+ * @param binary   If the content is binary.
+ * @param tooLarge If the content is larger than the size limit.
+ */
+record DiffContent(byte[] bytes, boolean binary, boolean tooLarge) {
+    static final DiffContent EMPTY     = new DiffContent(new byte[0], false, false);
+    static final DiffContent BINARY    = new DiffContent(null, true, false);
+    static final DiffContent TOO_LARGE = new DiffContent(null, false, true);
+
+    // Bytes looked at to detect binary files, same as git.
+    private static final int SNIFF_BYTES = 8000;
+
+    /**
+     * @return If the content can not be diffed as text.
+     */
+    boolean skipped() {
+        return binary || tooLarge;
+    }
+
+    static DiffContent readBlob(ObjectReader reader, ObjectId id, long maxSize) throws IOException {
+        var loader = reader.open(id, Constants.OBJ_BLOB);
+        if (loader.getSize() > maxSize) {
+            return TOO_LARGE;
+        }
+        if (!loader.isLarge()) {
+            var bytes = loader.getCachedBytes();
+            return new DiffContent(bytes, RawText.isBinary(bytes, Math.min(bytes.length, SNIFF_BYTES)), false);
+        }
+        try (var in = loader.openStream()) {
+            var head = in.readNBytes(SNIFF_BYTES);
+            if (RawText.isBinary(head, head.length)) {
+                return BINARY;
+            }
+            return new DiffContent(concat(head, in.readAllBytes()), false, false);
+        }
+    }
+
+    /**
+     * Read a work tree file the way it would be added to the index, i.e.
+     * with line endings converted and clean filters applied as set by
+     * 'core.autocrlf' and the git attributes, so it compares with the blobs.
+     * The size limit is for the file before filtering.
+     */
+    static DiffContent readFile(Repository repository, Path file, long maxSize) throws IOException {
+        if (Files.isSymbolicLink(file)) {
+            // Same as the blob of a symlink.
+            return new DiffContent(Files.readSymbolicLink(file).toString().getBytes(UTF_8), false, false);
+        }
+        if (Files.size(file) > maxSize) {
+            return TOO_LARGE;
+        }
+        var path = repository.getWorkTree().toPath().relativize(file);
+        if (path.isAbsolute() || path.startsWith("..")) {
+            // Not in the work tree, so no filters apply.
+            try (var in = Files.newInputStream(file)) {
+                return read(in);
+            }
+        }
+        var gitPath = path.toString().replace(File.separatorChar, '/');
+        try (var walk = new TreeWalk(repository)) {
+            walk.setOperationType(OperationType.CHECKIN_OP);
+            walk.addTree(new FileTreeIterator(repository));
+            walk.setFilter(PathFilter.create(gitPath));
+            walk.setRecursive(true);
+            while (walk.next()) {
+                if (walk.getPathString().equals(gitPath)) {
+                    try (var in = walk.getTree(0, WorkingTreeIterator.class).openEntryStream()) {
+                        return read(in);
+                    }
+                }
+            }
+        }
+        throw new NoSuchFileException(file.toString());
+    }
+
+    private static DiffContent read(InputStream in) throws IOException {
+        var head = in.readNBytes(SNIFF_BYTES);
+        if (RawText.isBinary(head, head.length)) {
+            return BINARY;
+        }
+        return new DiffContent(concat(head, in.readAllBytes()), false, false);
+    }
+
+    private static byte[] concat(byte[] head, byte[] rest) {
+        if (rest.length == 0) {
+            return head;
+        }
+        var out = new byte[head.length + rest.length];
+        System.arraycopy(head, 0, out, 0, head.length);
+        System.arraycopy(rest, 0, out, head.length, rest.length);
+        return out;
+    }
+}
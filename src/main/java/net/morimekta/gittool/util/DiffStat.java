@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm.HISTOGRAM;
+
+/**
+ * Count lines added and removed per file, on a pool of worker threads.
+ * Each side of a file diff is either a blob, a work tree file or nothing.
+ * Sides with the same blob are not read at all, and each pair of sides is
+ * only counted once, so the same change seen in several layers, e.g. both
+ * committed and staged, is reused. Binary files are detected from the first
+ * bytes, and files larger than the size limit are counted as binary, same
+ * as git does.
+ */
+public final class DiffStat implements Closeable {
+    /**
+     * One side of a file diff.
+     *
+     * @param id   The blob ID, or null if not a blob.
+     * @param file The work tree file, or null if not a file.
+     */
+    public record Side(ObjectId id, Path file) {
+        /** The side of an added or deleted file. */
+        public static final Side NONE = new Side(null, null);
+
+        public static Side blob(ObjectId id) {
+            return id == null ? NONE : new Side(id.copy(), null);
+        }
+
+        public static Side file(Path file) {
+            return new Side(null, file);
+        }
+    }
+
+    /**
+     * Lines added and removed in a file.
+     *
+     * @param added   Number of lines added.
+     * @param removed Number of lines removed.
+     * @param binary  If the file is binary, or too large to count.
+     */
+    public record Stat(int added, int removed, boolean binary) {
+        /** No change. */
+        public static final Stat NONE = new Stat(0, 0, false);
+
+        /**
+         * @param other Stat to add.
+         * @return The sum of both stats.
+         */
+        public Stat plus(Stat other) {
+            return new Stat(added + other.added, removed + other.removed, binary || other.binary);
+        }
+
+        /**
+         * @return Lines added and removed.
+         */
+        public int changes() {
+            return added + removed;
+        }
+    }
+
+    private record Pair(Side from, Side to) {}
+
+    // Time to wait for running counts to stop on close. Reading a blob can
+    // not be interrupted, so they stop after the blob they are reading.
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final Repository                repository;
+    private final long                      maxSize;
+    private final ExecutorService           executor;
+    private final Map<Pair, Future<Stat>>   stats;
+    private final ThreadLocal<ObjectReader> reader;
+    private final Queue<ObjectReader>       readers;
+
+    /**
+     * Make a diff stat with one thread per processor.
+     *
+     * @param repository The repository to read blobs from.
+     * @param metrics    The metrics to count I/O in.
+     */
+    public DiffStat(Repository repository, Metrics metrics) {
+        this(repository, metrics, Runtime.getRuntime().availableProcessors(), TerminalDiff.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Make a diff stat.
+     *
+     * @param repository The repository to read blobs from.
+     * @param metrics    The metrics to count I/O in.
+     * @param threads    Number of threads to count with.
+     * @param maxSize    Files larger than this are counted as binary.
+     */
+    public DiffStat(Repository repository, Metrics metrics, int threads, long maxSize) {
+        this.repository = repository;
+        this.maxSize = maxSize;
+        this.stats = new ConcurrentHashMap<>();
+        this.readers = new ConcurrentLinkedQueue<>();
+        this.reader = ThreadLocal.withInitial(() -> {
+            var objectReader = metrics.reader(this.repository);
+            readers.add(objectReader);
+            return objectReader;
+        });
+        var count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            var thread = new Thread(task, "gt-diff-stat-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start counting the lines changed between two sides, if not already
+     * started.
+     *
+     * @param from The old side.
+     * @param to   The new side.
+     * @return The stat, when done.
+     */
+    public Future<Stat> start(Side from, Side to) {
+        if (from.id() != null && from.equals(to)) {
+            return CompletableFuture.completedFuture(Stat.NONE);
+        }
+        return stats.computeIfAbsent(new Pair(from, to), pair -> executor.submit(() -> count(pair)));
+    }
+
+    /**
+     * Count the lines changed between two sides.
+     *
+     * @param from The old side.
+     * @param to   The new side.
+     * @return The stat.
+     * @throws IOException If unable to read either side.
+     */
+    public Stat get(Side from, Side to) throws IOException {
+        return get(start(from, to));
+    }
+
+    /**
+     * Wait for a started stat.
+     *
+     * @param stat The started stat.
+     * @return The stat.
+     * @throws IOException If unable to read either side.
+     */
+    public static Stat get(Future<Stat> stat) throws IOException {
+        try {
+            return stat.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting lines", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            } else if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Stop counting, and close the readers once the workers are done with
+     * them. Readers still in use when giving up waiting are left unclosed.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (var objectReader : readers) {
+            objectReader.close();
+        }
+    }
+
+    // --------------
+
+    private Stat count(Pair pair) throws IOException {
+        var from = read(pair.from());
+        if (from.skipped()) {
+            // No need to read the other side.
+            return new Stat(0, 0, true);
+        }
+        var to = read(pair.to());
+        if (to.skipped()) {
+            return new Stat(0, 0, true);
+        }
+        var oldText = new RawText(from.bytes());
+        var newText = new RawText(to.bytes());
+        int added = 0;
+        int removed = 0;
+        for (Edit edit : DiffAlgorithm.getAlgorithm(HISTOGRAM).diff(RawTextComparator.DEFAULT, oldText, newText)) {
+            added += edit.getLengthB();
+            removed += edit.getLengthA();
+        }
+        return new Stat(added, removed, false);
+    }
+
+    private DiffContent read(Side side) throws IOException {
+        if (side.id() != null) {
+            return DiffContent.readBlob(reader.get(), side.id(), maxSize);
+        } else if (side.file() != null) {
+            return DiffContent.readFile(repository, side.file(), maxSize);
+        }
+        return DiffContent.EMPTY;
+    }
+}
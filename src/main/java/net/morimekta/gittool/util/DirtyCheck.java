@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+
+/**
+ * Check for uncommitted changes with a {@link WorktreeStatus} scan,
+ * stopping at the first change found. This gives the same answer as a
+ * cached and an uncached name-status diff, without listing every change,
+ * and without hashing work tree files whose stat info matches the index.
+ * <p>
+ * With a single thread, nothing after the first change is scanned. A
+ * parallel scan forks tasks for the top folders before the first change
+ * is seen, but all of them stop as soon as any of them finds one.
+ */
+public final class DirtyCheck {
+    /**
+     * Check if the repository has any uncommitted changes, staged or not,
+     * including untracked files that are not ignored.
+     *
+     * @param repository The repository to check.
+     * @return True if there is any uncommitted change.
+     * @throws IOException If unable to read the index, trees or files.
+     */
+    public static boolean hasUncommitted(Repository repository) throws IOException {
+        return hasUncommitted(repository, new Metrics(false));
+    }
+
+    /**
+     * Check if the repository has any uncommitted changes, counting the
+     * objects read and work tree files compared.
+     *
+     * @param repository The repository to check.
+     * @param metrics    The metrics to count I/O in.
+     * @return True if there is any uncommitted change.
+     * @throws IOException If unable to read the index, trees or files.
+     */
+    public static boolean hasUncommitted(Repository repository, Metrics metrics) throws IOException {
+        return hasUncommitted(repository, metrics, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Check if the repository has any uncommitted changes, scanning the
+     * work tree with the given number of threads.
+     *
+     * @param repository The repository to check.
+     * @param metrics    The metrics to count I/O in.
+     * @param threads    Number of threads to scan the work tree with.
+     * @return True if there is any uncommitted change.
+     * @throws IOException If unable to read the index, trees or files.
+     */
+    public static boolean hasUncommitted(Repository repository, Metrics metrics, int threads) throws IOException {
+        return WorktreeStatus.hasChanges(repository, metrics, threads);
+    }
+
+    private DirtyCheck() {}
+}
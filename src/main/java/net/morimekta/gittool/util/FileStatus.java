@@ -21,11 +21,11 @@
 package net.morimekta.gittool.util;
 
 import net.morimekta.strings.chr.Color;
-import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.ObjectId;
 
-import java.nio.file.Path;
+import java.util.function.UnaryOperator;
 
-import static net.morimekta.gittool.GitTool.pwd;
 import static net.morimekta.strings.chr.Color.BOLD;
 import static net.morimekta.strings.chr.Color.CLEAR;
 import static net.morimekta.strings.chr.Color.DIM;
@@ -34,56 +34,38 @@ import static net.morimekta.strings.chr.Color.RED;
 import static net.morimekta.strings.chr.Color.YELLOW;
 
 /**
- * The status of a single change in diff.
+ * The uncommitted status of a single file.
  * <p>
- * - staged git
- * - unstaged git
+ * - staged: change from HEAD to the index.
+ * - unstaged: change from the index to the work tree. Untracked files are
+ *   unstaged additions.
+ *
+ * @param path     The file path, relative to the repository root.
+ * @param staged   The staged change, or null if none.
+ * @param unstaged The unstaged change, or null if none.
+ * @param head     The file object in HEAD, or null if not in HEAD.
+ * @param index    The file object in the index, or null if not in the index.
  */
-public class FileStatus {
-    private final Path    root;
-    private final boolean relative;
-
-    private DiffEntry staged;
-    private DiffEntry unstaged;
-
-    public FileStatus(boolean relative, Path root, DiffEntry un) {
-        this.relative = relative;
-        this.root = root;
-        this.unstaged = un;
-    }
-
-    public FileStatus setStaged(DiffEntry staged) {
-        this.staged = staged;
-        return this;
-    }
-
-    public DiffEntry.ChangeType getOverallChange() {
+public record FileStatus(String path, ChangeType staged, ChangeType unstaged, ObjectId head, ObjectId index) {
+    public ChangeType getOverallChange() {
         if (staged == null) {
-            return unstaged.getChangeType();
+            return unstaged;
         } else if (unstaged == null) {
-            return staged.getChangeType();
+            return staged;
         } else {
-            if (unstaged.getChangeType() == DiffEntry.ChangeType.DELETE) {
-                return DiffEntry.ChangeType.DELETE;
-            }
-            if (staged.getChangeType() == DiffEntry.ChangeType.ADD) {
-                return DiffEntry.ChangeType.ADD;
+            if (unstaged == ChangeType.DELETE) {
+                return ChangeType.DELETE;
             }
-            if (getNewestPath().equals(getOldestPath())) {
-                return DiffEntry.ChangeType.MODIFY;
+            if (staged == ChangeType.ADD) {
+                return ChangeType.ADD;
             }
-            // With if the file was copies at least *once*, then it is copied.
-            if (staged.getChangeType() == DiffEntry.ChangeType.COPY ||
-                unstaged.getChangeType() == DiffEntry.ChangeType.COPY) {
-                return DiffEntry.ChangeType.COPY;
-            }
-            return DiffEntry.ChangeType.RENAME;
+            return ChangeType.MODIFY;
         }
     }
 
     public String stagedMod() {
         if (staged == null) {
-            return switch (unstaged.getChangeType()) {
+            return switch (unstaged) {
                 case COPY -> " C";
                 case DELETE -> " D";
                 case ADD -> "??";  // untracked
@@ -91,7 +73,7 @@ public class FileStatus {
                 case MODIFY -> " M";
             };
         } else if (unstaged == null) {
-            return switch (staged.getChangeType()) {
+            return switch (staged) {
                 case COPY -> "C ";
                 case DELETE -> "D ";
                 case ADD -> "A ";
@@ -99,13 +81,13 @@ public class FileStatus {
                 case MODIFY -> "  ";
             };
         } else {
-            return "" + stageChangeLetter(staged.getChangeType())
-                   + stageChangeLetter(unstaged.getChangeType());
+            return "" + stageChangeLetter(staged)
+                   + stageChangeLetter(unstaged);
         }
     }
 
-    private char stageChangeLetter(DiffEntry.ChangeType unstaged) {
-        return switch (unstaged) {
+    private char stageChangeLetter(ChangeType change) {
+        return switch (change) {
             case COPY -> 'C';
             case DELETE -> 'D';
             case ADD -> 'A';
@@ -114,37 +96,11 @@ public class FileStatus {
         };
     }
 
-    private static boolean notNullPath(String path) {
-        return path != null && !"/dev/null".equals(path);
-    }
-
-    public String getOldestPath() {
-        if (this.staged != null) {
-            if (notNullPath(this.staged.getOldPath())) {
-                return this.staged.getOldPath();
-            }
-            return this.staged.getNewPath();
-        }
-        if (notNullPath(this.unstaged.getOldPath())) {
-            return this.unstaged.getOldPath();
-        }
-        return this.unstaged.getNewPath();
-    }
-
-    public String getNewestPath() {
-        if (this.unstaged != null) {
-            if (notNullPath(this.unstaged.getNewPath())) {
-                return this.unstaged.getNewPath();
-            }
-            return this.unstaged.getOldPath();
-        }
-        if (notNullPath(this.staged.getNewPath())) {
-            return this.staged.getNewPath();
-        }
-        return this.staged.getOldPath();
-    }
-
-    public String statusLine() {
+    /**
+     * @param display Makes the path to show from the repository path.
+     * @return The status line to show.
+     */
+    public String statusLine(UnaryOperator<String> display) {
         StringBuilder builder = new StringBuilder();
         builder.append(stagedMod());
         builder.append(' ');
@@ -164,28 +120,8 @@ public class FileStatus {
                 builder.append(YELLOW);
                 break;
         }
-
-        if (getOverallChange() == DiffEntry.ChangeType.DELETE) {
-            builder.append(path(getOldestPath()));
-            builder.append(CLEAR);
-        } else {
-            builder.append(path(getNewestPath()));
-            builder.append(CLEAR);
-            if (!getNewestPath().equals(getOldestPath())) {
-                builder.append(" <- ");
-                builder.append(DIM);
-                builder.append(path(getOldestPath()));
-                builder.append(CLEAR);
-            }
-        }
-
+        builder.append(display.apply(path));
+        builder.append(CLEAR);
         return builder.toString();
     }
-
-    private String path(String path) {
-        if (relative) {
-            return pwd.relativize(root.resolve(path)).toString();
-        }
-        return path;
-    }
 }
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Ask the 'core.fsmonitor' hook which paths changed since the last scan,
+ * using git's fsmonitor hook protocol. Version 2 hooks are called with the
+ * token from the last scan, and print a new token followed by the changed
+ * paths, all NUL terminated. Version 1 hooks are called with the time of
+ * the last scan in nanoseconds, and print only the paths. A path of "/"
+ * means anything may have changed.
+ * <p>
+ * The token is saved with the files that had unstaged changes, and a hash
+ * of the index entries in each folder. The next scan then only has to
+ * compare the changed paths, the paths that were dirty, and the files of
+ * folders with changed index entries with the work tree. Staged changes are
+ * still found by comparing HEAD and the index, which does not touch the
+ * work tree. Changed '.gitignore' files include their whole folder, and
+ * changed exclude files outside the work tree, a missing or unknown token,
+ * or a failing hook, give a full scan.
+ */
+public final class FsMonitor {
+    public static final String FILE_NAME = "gt-fsmonitor";
+
+    // Header of the state file, so format changes can be detected.
+    private static final String HEADER = "# gt fsmonitor v1";
+    // Token git uses when it has no token from the hook.
+    private static final String NO_TOKEN = "builtin:fake";
+
+    private final String  hook;
+    private final int     version;
+    private final boolean fallback;
+    private final File    workTree;
+    private final Path    file;
+
+    private String              token;
+    private ObjectId            ignores;
+    private Map<String, String> folders;
+    private Set<String>         dirty;
+
+    // Set when the hook is queried.
+    private String              newToken;
+    private Map<String, String> newFolders;
+
+    private FsMonitor(String hook, int version, boolean fallback, File workTree, Path file) {
+        this.hook = hook;
+        this.version = version;
+        this.fallback = fallback;
+        this.workTree = workTree;
+        this.file = file;
+    }
+
+    /**
+     * Load the fsmonitor state for the repository.
+     *
+     * @param repository The repository.
+     * @return The fsmonitor, or null if no hook is configured.
+     */
+    public static FsMonitor load(Repository repository) {
+        if (repository.isBare()) {
+            return null;
+        }
+        var config = repository.getConfig();
+        var hook = config.getString("core", null, "fsmonitor");
+        if (hook == null || hook.isBlank() || isBoolean(hook)) {
+            // The built-in fsmonitor daemon is not supported.
+            return null;
+        }
+        var version = config.getInt("core", null, "fsmonitorHookVersion", 0);
+        var monitor = new FsMonitor(hook.trim(),
+                                    version == 1 ? 1 : 2,
+                                    version == 0,
+                                    repository.getWorkTree(),
+                                    repository.getDirectory().toPath().resolve(FILE_NAME));
+        monitor.read();
+        return monitor;
+    }
+
+    /**
+     * Ask the hook what changed since the last scan.
+     *
+     * @param index     The index to scan against.
+     * @param ignores   Hash of the ignore rules from outside the work tree.
+     * @param head      The tree number of HEAD in the walk.
+     * @param indexTree The tree number of the index in the walk.
+     * @return Filter for the paths to scan, or null if everything must be
+     *         scanned.
+     */
+    public TreeFilter query(DirCache index, ObjectId ignores, int head, int indexTree) {
+        var sameIgnores = ignores.equals(this.ignores);
+        this.ignores = ignores;
+        newFolders = folderHashes(index);
+        var paths = run();
+        if (paths == null || paths.contains("/") || token == null || !sameIgnores) {
+            return null;
+        }
+        var scan = new TreeSet<>(dirty);
+        var recursive = new HashSet<String>();
+        for (var path : paths) {
+            if (path.endsWith("/")) {
+                recursive.add(path);
+                scan.add(path.substring(0, path.length() - 1));
+            } else {
+                scan.add(path);
+                if (path.equals(Constants.DOT_GIT_IGNORE)) {
+                    return null;
+                } else if (path.endsWith("/" + Constants.DOT_GIT_IGNORE)) {
+                    var folder = path.substring(0, path.length() - Constants.DOT_GIT_IGNORE.length());
+                    recursive.add(folder);
+                    scan.add(folder.substring(0, folder.length() - 1));
+                }
+            }
+        }
+        var changedFolders = new HashSet<String>();
+        for (var entry : newFolders.entrySet()) {
+            if (!entry.getValue().equals(folders.get(entry.getKey()))) {
+                changedFolders.add(entry.getKey());
+            }
+        }
+        for (var folder : folders.keySet()) {
+            if (!newFolders.containsKey(folder)) {
+                // No files left in the index, so check all of it.
+                recursive.add(folder.isEmpty() ? "" : folder + "/");
+                scan.add(folder);
+            }
+        }
+        if (recursive.contains("")) {
+            return null;
+        }
+        for (var folder : changedFolders) {
+            scan.add(folder);
+        }
+        return new Changed(scan, recursive, changedFolders, head, indexTree);
+    }
+
+    /**
+     * Save the new token, after a complete scan.
+     *
+     * @param unstaged Paths with unstaged changes, including untracked files.
+     * @throws IOException If unable to write the state file.
+     */
+    public void save(List<String> unstaged) throws IOException {
+        if (newToken == null || newToken.indexOf('\n') >= 0) {
+            return;
+        }
+        // If saved by someone else at the same time, their token is as new.
+        LockedFile.replace(file, writer -> {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write("t " + newToken);
+            writer.newLine();
+            writer.write("i " + ignores.name());
+            writer.newLine();
+            for (var entry : newFolders.entrySet()) {
+                writer.write("f " + entry.getValue() + " " + entry.getKey());
+                writer.newLine();
+            }
+            for (var path : unstaged) {
+                if (path.indexOf('\n') < 0) {
+                    writer.write("p " + path);
+                    writer.newLine();
+                }
+            }
+        });
+    }
+
+    // --------------
+
+    /**
+     * Matches the paths to scan: the changed paths, the folders above them,
+     * and everything below the recursive folders. Files of folders with
+     * changed index entries, unresolved conflicts and staged changes are
+     * also included.
+     */
+    private static final class Changed extends TreeFilter {
+        private final TreeSet<String> scan;
+        private final Set<String>     recursive;
+        private final Set<String>     folders;
+        private final int             head;
+        private final int             index;
+
+        private Changed(TreeSet<String> scan, Set<String> recursive, Set<String> folders, int head, int index) {
+            this.scan = scan;
+            this.recursive = recursive;
+            this.folders = folders;
+            this.head = head;
+            this.index = index;
+        }
+
+        @Override
+        public boolean include(TreeWalk walk) {
+            var path = walk.getPathString();
+            if (scan.contains(path)) {
+                return true;
+            }
+            var below = scan.ceiling(path + "/");
+            if (below != null && below.startsWith(path + "/")) {
+                return true;
+            }
+            var slash = path.lastIndexOf('/');
+            if (!walk.isSubtree() && folders.contains(slash < 0 ? "" : path.substring(0, slash))) {
+                return true;
+            }
+            for (slash = path.indexOf('/'); slash > 0; slash = path.indexOf('/', slash + 1)) {
+                if (recursive.contains(path.substring(0, slash + 1))) {
+                    return true;
+                }
+            }
+            if (walk.getRawMode(head) != walk.getRawMode(index) || !walk.idEqual(head, index)) {
+                // Staged changes, or a folder with staged changes in it. The
+                // index has no ID for folders with changes not yet committed.
+                return true;
+            }
+            var entry = walk.getTree(index, DirCacheIterator.class);
+            return entry != null && !walk.isSubtree() && entry.getDirCacheEntry().getStage() != 0;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+    private List<String> run() {
+        var paths = run(version);
+        if (paths == null && fallback) {
+            paths = run(1);
+        }
+        return paths;
+    }
+
+    private List<String> run(int version) {
+        String since;
+        String next = null;
+        if (version == 1) {
+            since = token != null && token.matches("[0-9]+") ? token : "0";
+            next = Long.toString(System.currentTimeMillis() * 1_000_000L);
+        } else {
+            since = token == null ? NO_TOKEN : token;
+        }
+        try {
+            var process = new ProcessBuilder("sh", "-c", hook + " \"$@\"", hook, Integer.toString(version), since)
+                    .directory(workTree)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            process.getOutputStream().close();
+            byte[] out;
+            try (var in = process.getInputStream()) {
+                out = in.readAllBytes();
+            }
+            if (process.waitFor() != 0) {
+                return null;
+            }
+            var paths = new ArrayList<String>();
+            int start = 0;
+            for (int i = 0; i < out.length; ++i) {
+                if (out[i] == 0) {
+                    paths.add(new String(out, start, i - start, UTF_8));
+                    start = i + 1;
+                }
+            }
+            if (start < out.length) {
+                paths.add(new String(out, start, out.length - start, UTF_8));
+            }
+            if (version == 2) {
+                if (paths.isEmpty()) {
+                    return null;
+                }
+                next = paths.remove(0);
+            }
+            newToken = next;
+            return paths;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Hash the index entries directly in each folder, with their mode,
+     * object ID, stage and skip-worktree flag.
+     */
+    private static Map<String, String> folderHashes(DirCache index) {
+        var digests = new HashMap<String, MessageDigest>();
+        for (int i = 0; i < index.getEntryCount(); ++i) {
+            var entry = index.getEntry(i);
+            var path = entry.getPathString();
+            var slash = path.lastIndexOf('/');
+            var digest = digests.computeIfAbsent(slash < 0 ? "" : path.substring(0, slash),
+                                                 folder -> Constants.newMessageDigest());
+            digest.update(path.getBytes(UTF_8));
+            var raw = new byte[Constants.OBJECT_ID_LENGTH];
+            entry.getObjectId().copyRawTo(raw, 0);
+            digest.update(raw);
+            digest.update(Integer.toString(entry.getRawMode()).getBytes(UTF_8));
+            digest.update((byte) entry.getStage());
+            digest.update((byte) (entry.isSkipWorkTree() ? 1 : 0));
+        }
+        var hashes = new HashMap<String, String>();
+        digests.forEach((folder, digest) -> hashes.put(folder, ObjectId.fromRaw(digest.digest()).name()));
+        return hashes;
+    }
+
+    private static boolean isBoolean(String value) {
+        switch (value.trim().toLowerCase()) {
+            case "true":
+            case "false":
+            case "yes":
+            case "no":
+            case "on":
+            case "off":
+            case "1":
+            case "0":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void read() {
+        folders = new HashMap<>();
+        dirty = new HashSet<>();
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                // Unknown format, will be replaced on save.
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("t ")) {
+                    token = line.substring(2);
+                } else if (line.startsWith("i ")) {
+                    ignores = ObjectId.fromString(line.substring(2));
+                } else if (line.startsWith("f ") && line.length() >= 43) {
+                    folders.put(line.substring(43), line.substring(2, 42));
+                } else if (line.startsWith("p ")) {
+                    dirty.add(line.substring(2));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Ignore, and do a full scan.
+            token = null;
+        }
+        if (ignores == null) {
+            token = null;
+        }
+    }
+}
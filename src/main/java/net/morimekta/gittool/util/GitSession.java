@@ -0,0 +1,220 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphLoader;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_COMMIT_GRAPH;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_COMMIT_GRAPH_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_READ_CHANGED_PATHS;
+
+/**
+ * Object pools for reading history for the duration of a single command.
+ * A rev walk and its object reader may only be used by one thread at a
+ * time, so each thread gets its own walk, kept until the session is
+ * closed. Commits looked up with {@link #commit(AnyObjectId)} are shared
+ * between all threads, so each commit is only parsed once.
+ */
+public class GitSession implements Closeable {
+    private final Repository               repository;
+    private final Metrics                  metrics;
+    private final ThreadLocal<HistoryWalk> walk;
+    private final ThreadLocal<RevWalk>     parser;
+    private final Queue<RevWalk>           walks;
+    private final Map<ObjectId, RevCommit> commits;
+
+    private volatile CommitGraph graph;
+
+    public GitSession(Repository repository) {
+        this(repository, new Metrics(false));
+    }
+
+    public GitSession(Repository repository, Metrics metrics) {
+        this.repository = repository;
+        this.metrics = metrics;
+        this.walks = new ConcurrentLinkedQueue<>();
+        this.commits = new ConcurrentHashMap<>();
+        this.walk = ThreadLocal.withInitial(() -> {
+            var revWalk = new HistoryWalk(reader());
+            walks.add(revWalk);
+            return revWalk;
+        });
+        // Walks that do not keep commit bodies drop the body of every commit
+        // they pass, so shared commits are parsed by a walk that is never
+        // used for walking.
+        this.parser = ThreadLocal.withInitial(() -> {
+            var revWalk = new RevWalk(reader());
+            walks.add(revWalk);
+            return revWalk;
+        });
+    }
+
+    /**
+     * Get a new object reader that reads history from the commit-graph of
+     * the session, for walks not made by the session. The caller must close
+     * the reader.
+     *
+     * @return The object reader.
+     */
+    public ObjectReader reader() {
+        return new GraphReader(metrics.reader(repository));
+    }
+
+    /**
+     * Get the rev walk for the current thread. The walk should be reset
+     * after use, so it can be used again by the next caller on the same
+     * thread.
+     *
+     * @return The rev walk.
+     */
+    public HistoryWalk walk() {
+        return walk.get();
+    }
+
+    /**
+     * Get a parsed commit, including its message. The same commit instance
+     * is returned for the same ID on every thread, so the commit must only
+     * be read from, not used as a start point for walks. Use
+     * {@link HistoryWalk#parseCommit(AnyObjectId)} on the thread's own walk for
+     * that. Walking history does not affect the returned commits.
+     *
+     * @param id The commit ID.
+     * @return The parsed commit.
+     * @throws IOException If unable to read the commit.
+     */
+    public RevCommit commit(AnyObjectId id) throws IOException {
+        var commit = commits.get(id);
+        if (commit == null) {
+            var revWalk = parser.get();
+            commit = revWalk.parseCommit(id);
+            revWalk.parseBody(commit);
+            metrics.increment(Metrics.Counter.COMMITS_PARSED);
+            var other = commits.putIfAbsent(commit.toObjectId(), commit);
+            if (other != null) {
+                // Parsed on another thread at the same time.
+                commit = other;
+            }
+        }
+        return commit;
+    }
+
+    private CommitGraph commitGraph() {
+        var loaded = graph;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = graph;
+                if (loaded == null) {
+                    loaded = loadCommitGraph(repository);
+                    graph = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Git reads the commit-graph file by default, and the changed-path Bloom
+     * filters in it, which let path limited walks skip the tree diff for
+     * commits that did not change the path. JGit only reads the file when
+     * 'core.commitGraph' is set, and the Bloom filters when
+     * 'commitGraph.readChangedPaths' is set in the process wide JGit config.
+     * So the session reads the file itself, with the same defaults as git,
+     * and only its own walks and readers use it. No config is changed.
+     * Commits not in the commit-graph, e.g. if it is out of date, are still
+     * read from the object database.
+     */
+    private static CommitGraph loadCommitGraph(Repository repository) {
+        var config = repository.getConfig();
+        if (!config.getBoolean(CONFIG_CORE_SECTION, null, CONFIG_COMMIT_GRAPH, true) ||
+            !(repository.getObjectDatabase() instanceof ObjectDirectory objects)) {
+            return CommitGraph.EMPTY;
+        }
+        boolean readChangedPaths = config.getBoolean(
+                CONFIG_COMMIT_GRAPH_SECTION, null, CONFIG_KEY_READ_CHANGED_PATHS, true);
+        var file = new File(objects.getDirectory(), Constants.INFO_COMMIT_GRAPH);
+        try (var in = new BufferedInputStream(new FileInputStream(file))) {
+            return CommitGraphLoader.read(in, readChangedPaths);
+        } catch (IOException e) {
+            // No commit-graph, or not able to read it, so walk without it.
+            return CommitGraph.EMPTY;
+        }
+    }
+
+    /**
+     * Object reader that reads history from the commit-graph of the session
+     * instead of the one JGit keeps with the repository.
+     */
+    private class GraphReader extends ObjectReader.Filter {
+        private final ObjectReader delegate;
+
+        private GraphReader(ObjectReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected ObjectReader delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return new GraphReader(delegate.newReader());
+        }
+
+        @Override
+        public Optional<CommitGraph> getCommitGraph() {
+            var loaded = commitGraph();
+            return loaded == CommitGraph.EMPTY ? Optional.empty() : Optional.of(loaded);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (var revWalk : walks) {
+            // The walks do not own their readers.
+            revWalk.getObjectReader().close();
+            revWalk.close();
+        }
+        walks.clear();
+        commits.clear();
+    }
+}
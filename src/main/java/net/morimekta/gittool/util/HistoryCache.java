@@ -0,0 +1,391 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Cache of merge bases and ahead / behind counts, keyed by the commit IDs
+ * they were computed from. Since commits never change, an entry is valid
+ * for as long as the commits exist. The cache is kept in memory while the
+ * command runs, and new entries are merged into the cache file on
+ * {@link #save()}.
+ * <p>
+ * The cache file is only ever replaced whole by an atomic rename, and
+ * only while holding a {@link LockedFile lock}, so concurrent processes may
+ * read it at any time, and writers will never lose each other's entries.
+ * If the lock is held by someone else, saving is just skipped.
+ */
+public class HistoryCache {
+    public static final String FILE_NAME = "gt-cache";
+
+    // Header of the cache file, so format changes can be detected.
+    private static final String HEADER = "# gt history cache v1";
+    // Max entries kept in the cache file. Oldest entries are dropped first.
+    private static final int MAX_ENTRIES = 20_000;
+    // Max number of new commits on a tip that is updated incrementally.
+    // Each step parses a commit, so a miss must not cost more than just
+    // counting would.
+    static final int MAX_FAST_FORWARD = 100;
+
+    private final Path                         file;
+    private final Map<Key, AheadBehind>        aheadBehind;
+    private final Set<ObjectId>                aheadBehindIds;
+    private final Map<Key, Optional<ObjectId>> mergeBase;
+    private final Map<Key, AheadBehind>        newAheadBehind;
+    private final Map<Key, Optional<ObjectId>> newMergeBase;
+
+    private HistoryCache(Path file) {
+        this.file = file;
+        this.aheadBehind = new ConcurrentHashMap<>();
+        this.aheadBehindIds = ConcurrentHashMap.newKeySet();
+        this.mergeBase = new ConcurrentHashMap<>();
+        this.newAheadBehind = new ConcurrentHashMap<>();
+        this.newMergeBase = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Load the cache from the git directory. If the cache file does not
+     * exist or is unreadable, an empty cache is made that will create the
+     * file on save.
+     *
+     * @param gitDir The repository git directory.
+     * @return The history cache.
+     */
+    public static HistoryCache load(Path gitDir) {
+        var cache = new HistoryCache(gitDir.resolve(FILE_NAME));
+        readInto(cache.file, cache.aheadBehind, cache.mergeBase);
+        cache.aheadBehind.keySet().forEach(cache::addIds);
+        return cache;
+    }
+
+    /**
+     * @return A cache that is never read from or saved to disk.
+     */
+    public static HistoryCache inMemory() {
+        return new HistoryCache(null);
+    }
+
+    /**
+     * @return The cache file, or null if the cache is memory only.
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * @return Number of cached ahead / behind counts.
+     */
+    public int aheadBehindSize() {
+        return aheadBehind.size();
+    }
+
+    /**
+     * @return Number of cached merge bases.
+     */
+    public int mergeBaseSize() {
+        return mergeBase.size();
+    }
+
+    /**
+     * Count commits ahead and behind, using the cache if possible. If not
+     * cached, but the cached count for an older local or other commit can
+     * be found by walking back a linear chain of new commits, only the new
+     * commits are counted and added to the cached count.
+     *
+     * @param walk  The rev walk to use.
+     * @param local The local commit.
+     * @param other The commit to compare with.
+     * @return The ahead / behind counts.
+     * @throws IOException If unable to read the commits.
+     */
+    public AheadBehind aheadBehind(HistoryWalk walk, AnyObjectId local, AnyObjectId other) throws IOException {
+        if (AnyObjectId.isEqual(local, other)) {
+            return AheadBehind.NONE;
+        }
+        var key = new Key(local, other);
+        var cached = aheadBehind.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var result = fastForward(walk, local, other, true);
+        if (result == null) {
+            var reverse = fastForward(walk, other, local, false);
+            if (reverse != null) {
+                result = new AheadBehind(reverse.behind(), reverse.ahead());
+            }
+        }
+        if (result == null) {
+            result = AheadBehind.count(walk, local, other);
+        }
+        aheadBehind.put(key, result);
+        newAheadBehind.put(key, result);
+        addIds(key);
+        return result;
+    }
+
+    /**
+     * Find the best merge base of the two commits, using the cache if
+     * possible.
+     *
+     * @param walk The rev walk to use.
+     * @param a    The first commit.
+     * @param b    The second commit.
+     * @return The merge base, or empty if the commits have no common history.
+     * @throws IOException If unable to read the commits.
+     * @see MergeBase#best(org.eclipse.jgit.revwalk.RevWalk, AnyObjectId, AnyObjectId)
+     */
+    public Optional<RevCommit> mergeBase(HistoryWalk walk, AnyObjectId a, AnyObjectId b) throws IOException {
+        // The merge base is the same both ways.
+        var key = a.compareTo(b) < 0 ? new Key(a, b) : new Key(b, a);
+        var cached = mergeBase.get(key);
+        if (cached != null) {
+            if (cached.isEmpty()) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(walk.parseCommit(cached.get()));
+            } catch (MissingObjectException e) {
+                // Pruned since it was cached, just look it up again.
+                mergeBase.remove(key);
+            }
+        }
+
+        var result = MergeBase.best(walk, a, b);
+        var id = result.map(RevCommit::toObjectId);
+        mergeBase.put(key, id);
+        newMergeBase.put(key, id);
+        return result;
+    }
+
+    /**
+     * Save new entries to the cache file. The file is re-read while holding
+     * the lock, so entries saved by other processes in the meantime are kept.
+     *
+     * @return True if saved, false if there was nothing to save or the cache
+     *         file is locked by another process.
+     * @throws IOException If unable to write the cache file.
+     */
+    public boolean save() throws IOException {
+        if (file == null || (newAheadBehind.isEmpty() && newMergeBase.isEmpty())) {
+            return false;
+        }
+        var saved = LockedFile.replace(file, writer -> {
+            var ab = new LinkedHashMap<Key, AheadBehind>();
+            var mb = new LinkedHashMap<Key, Optional<ObjectId>>();
+            readInto(file, ab, mb);
+            ab.putAll(newAheadBehind);
+            mb.putAll(newMergeBase);
+            trim(ab);
+            trim(mb);
+
+            writer.write(HEADER);
+            writer.newLine();
+            for (var entry : ab.entrySet()) {
+                writer.write("a " + entry.getKey().first.name() +
+                             " " + entry.getKey().second.name() +
+                             " " + entry.getValue().ahead() +
+                             " " + entry.getValue().behind());
+                writer.newLine();
+            }
+            for (var entry : mb.entrySet()) {
+                writer.write("m " + entry.getKey().first.name() +
+                             " " + entry.getKey().second.name() +
+                             " " + entry.getValue().map(ObjectId::name).orElse("-"));
+                writer.newLine();
+            }
+        });
+        if (saved) {
+            newAheadBehind.clear();
+            newMergeBase.clear();
+        }
+        return saved;
+    }
+
+    /**
+     * Clear the cache, and delete the cache file.
+     *
+     * @throws IOException If unable to delete the cache file.
+     */
+    public void clear() throws IOException {
+        aheadBehind.clear();
+        aheadBehindIds.clear();
+        mergeBase.clear();
+        newAheadBehind.clear();
+        newMergeBase.clear();
+        if (file != null) {
+            LockedFile.delete(file);
+        }
+    }
+
+    /**
+     * Delete the cache file of the git directory, if it exists. Used when
+     * the cache is disabled, and so not loaded.
+     *
+     * @param gitDir The repository git directory.
+     * @throws IOException If unable to delete the cache file.
+     */
+    public static void delete(Path gitDir) throws IOException {
+        LockedFile.delete(gitDir.resolve(FILE_NAME));
+    }
+
+    // --------------
+
+    /**
+     * If tip is a linear chain of new commits on top of a commit with a
+     * cached count against other, and none of the new commits are reachable
+     * from other, the new commits are all ahead, and behind is unchanged.
+     * The result is as seen from tip, so is swapped if tip is not the local
+     * side of the cached entries. Nothing is walked if no cached count has
+     * other in it, which is always the case with a cold cache.
+     */
+    private AheadBehind fastForward(HistoryWalk walk, AnyObjectId tip, AnyObjectId other, boolean tipIsLocal)
+            throws IOException {
+        if (!aheadBehindIds.contains(other.toObjectId())) {
+            return null;
+        }
+        var current = walk.parseCommit(tip);
+        RevCommit oldest = null;
+        for (int added = 1; added <= MAX_FAST_FORWARD; ++added) {
+            if (current.getParentCount() != 1) {
+                return null;
+            }
+            oldest = current;
+            current = current.getParent(0);
+            walk.parseHeaders(current);
+            if (AnyObjectId.isEqual(current, other)) {
+                // Plain fast-forward from other.
+                return new AheadBehind(added, 0);
+            }
+
+            var cached = tipIsLocal
+                         ? aheadBehind.get(new Key(current, other))
+                         : swap(aheadBehind.get(new Key(other, current)));
+            if (cached != null) {
+                if (isReachable(walk, oldest, current, other)) {
+                    return null;
+                }
+                return new AheadBehind(cached.ahead() + added, cached.behind());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if commit is reachable from tip. The commit is a child of base,
+     * so only commits reachable from tip but not from base need to be
+     * walked, which are the commits already counted as behind.
+     */
+    private static boolean isReachable(HistoryWalk walk, RevCommit commit, RevCommit base, AnyObjectId tip)
+            throws IOException {
+        try {
+            walk.reset();
+            walk.markStart(walk.parseCommit(tip));
+            walk.markUninteresting(base);
+            for (RevCommit c = walk.next(); c != null; c = walk.next()) {
+                if (c.equals(commit)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            walk.reset();
+        }
+    }
+
+    private void addIds(Key key) {
+        aheadBehindIds.add(key.first);
+        aheadBehindIds.add(key.second);
+    }
+
+    private static AheadBehind swap(AheadBehind ab) {
+        return ab == null ? null : new AheadBehind(ab.behind(), ab.ahead());
+    }
+
+    private static <V> void trim(LinkedHashMap<Key, V> map) {
+        var iterator = map.keySet().iterator();
+        while (map.size() > MAX_ENTRIES && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static void readInto(Path file,
+                                 Map<Key, AheadBehind> ab,
+                                 Map<Key, Optional<ObjectId>> mb) {
+        if (file == null || !Files.isRegularFile(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                // Unknown format, will be replaced on save.
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var parts = line.split(" ");
+                try {
+                    if (parts.length == 5 && parts[0].equals("a")) {
+                        ab.put(new Key(ObjectId.fromString(parts[1]), ObjectId.fromString(parts[2])),
+                               new AheadBehind(Integer.parseInt(parts[3]), Integer.parseInt(parts[4])));
+                    } else if (parts.length == 4 && parts[0].equals("m")) {
+                        mb.put(new Key(ObjectId.fromString(parts[1]), ObjectId.fromString(parts[2])),
+                               parts[3].equals("-")
+                               ? Optional.empty()
+                               : Optional.of(ObjectId.fromString(parts[3])));
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Skip broken lines, the cache is only an optimization.
+                }
+            }
+        } catch (IOException e) {
+            // Ignore, treat as empty cache.
+        }
+    }
+
+    private record Key(ObjectId first, ObjectId second) {
+        private Key {
+            // Never keep rev walk objects alive through the cache.
+            first = first.copy();
+            second = second.copy();
+        }
+
+        private Key(AnyObjectId first, AnyObjectId second) {
+            this(first.toObjectId(), second.toObjectId());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+
+import static org.eclipse.jgit.lib.Constants.COMMIT_GENERATION_NOT_COMPUTED;
+import static org.eclipse.jgit.lib.Constants.COMMIT_GENERATION_UNKNOWN;
+
+/**
+ * Rev walk for reading commit history, that can also look up commit
+ * generation numbers from the commit-graph file. Commit bodies are not
+ * kept, so must be loaded with {@link #parseBody(org.eclipse.jgit.revwalk.RevObject)}
+ * where needed. Finding a commit in the commit-graph costs about as
+ * much as walking it, so generation numbers are cached for as long as the
+ * walk is kept.
+ */
+public class HistoryWalk extends RevWalk {
+    private final ObjectIdOwnerMap<Generation> generations = new ObjectIdOwnerMap<>();
+
+    private CommitGraph graph = null;
+
+    public HistoryWalk(Repository repository) {
+        super(repository);
+        // Parents and commit times can then be read from the commit-graph
+        // without loading the commit itself. Use parseBody to get messages.
+        setRetainBody(false);
+    }
+
+    /**
+     * Create a walk using the given reader. The reader is not closed with
+     * the walk.
+     *
+     * @param reader The object reader to use.
+     */
+    public HistoryWalk(ObjectReader reader) {
+        super(reader);
+        setRetainBody(false);
+    }
+
+    /**
+     * Get the generation number of a commit. A commit always has a higher
+     * generation number than all of its ancestors.
+     *
+     * @param commit The commit to get generation number for.
+     * @return The generation number, or {@link #isKnown(int) unknown} if the
+     *         commit is not in the commit-graph, e.g. if it is out of date or
+     *         there is no commit-graph file.
+     * @throws IOException If unable to read the commit-graph.
+     */
+    public int generation(AnyObjectId commit) throws IOException {
+        if (graph == null) {
+            graph = getObjectReader().getCommitGraph().orElse(CommitGraph.EMPTY);
+        }
+        if (graph == CommitGraph.EMPTY) {
+            return COMMIT_GENERATION_UNKNOWN;
+        }
+        var cached = generations.get(commit);
+        if (cached == null) {
+            int generation = COMMIT_GENERATION_UNKNOWN;
+            int position = graph.findGraphPosition(commit);
+            if (position >= 0) {
+                generation = graph.getCommitData(position).getGeneration();
+                if (generation == COMMIT_GENERATION_NOT_COMPUTED) {
+                    generation = COMMIT_GENERATION_UNKNOWN;
+                }
+            }
+            cached = new Generation(commit, generation);
+            generations.add(cached);
+        }
+        return cached.generation;
+    }
+
+    /**
+     * @param generation A generation number.
+     * @return If the generation number is known.
+     */
+    public static boolean isKnown(int generation) {
+        return generation != COMMIT_GENERATION_UNKNOWN;
+    }
+
+    private static class Generation extends ObjectIdOwnerMap.Entry {
+        private final int generation;
+
+        private Generation(AnyObjectId id, int generation) {
+            super(id);
+            this.generation = generation;
+        }
+    }
+}
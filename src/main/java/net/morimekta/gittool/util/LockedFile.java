@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Replace files in the git folder that other gt processes may read and
+ * write at the same time. The file is only ever replaced whole, by an
+ * atomic rename of a temp file with a unique name, so readers always see
+ * a complete file, and writers never write to each other's temp files.
+ * Writers hold an OS file lock on a '.lock' file next to it while
+ * writing, which is released when the process ends, even if it crashed,
+ * so no stale lock has to be broken. The lock file itself is kept.
+ * Deleting the file waits for the lock, so it is never undone by a
+ * replace that was already writing.
+ */
+final class LockedFile {
+    /**
+     * Writes the content of the file, while holding the lock.
+     */
+    @FunctionalInterface
+    interface Content {
+        /**
+         * @param writer The writer for the new file content.
+         * @throws IOException If unable to write the content.
+         */
+        void write(BufferedWriter writer) throws IOException;
+    }
+
+    private LockedFile() {}
+
+    /**
+     * Replace the file with new content, unless someone else, in this or
+     * another process, is replacing it already.
+     *
+     * @param file    The file to replace.
+     * @param content Writes the new content.
+     * @return True if replaced, false if locked by someone else.
+     * @throws IOException If unable to write the file.
+     */
+    static boolean replace(Path file, Content content) throws IOException {
+        var lock = file.resolveSibling(file.getFileName() + ".lock");
+        try (var channel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            try {
+                if (channel.tryLock() == null) {
+                    return false;
+                }
+            } catch (OverlappingFileLockException e) {
+                // Held by another thread of this process.
+                return false;
+            }
+            // The lock is released when the channel is closed.
+            var tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+                    content.write(writer);
+                }
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Delete the file, waiting for anyone else replacing it to finish
+     * first.
+     *
+     * @param file The file to delete.
+     * @throws IOException If unable to delete the file.
+     */
+    static void delete(Path file) throws IOException {
+        if (!Files.isDirectory(file.getParent())) {
+            return;
+        }
+        var lock = file.resolveSibling(file.getFileName() + ".lock");
+        try (var channel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (true) {
+                try {
+                    channel.lock();
+                    break;
+                } catch (OverlappingFileLockException e) {
+                    // Held by another thread of this process, which the
+                    // OS lock does not wait for.
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for " + lock);
+                    }
+                }
+            }
+            // The lock is released when the channel is closed.
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.TreeRevFilter;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.AuthorRevFilter;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.MessageRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Filter for the commits shown in a log. The filters are run inside the
+ * history walk, cheapest first: The commit time bounds, then author and
+ * message, and last the paths, which need a tree diff against the parent
+ * for each commit. The 'since' bound also stops the walk at the first
+ * older commit, so older history is not read at all.
+ *
+ * @param author Author name or email pattern, or null for all.
+ * @param grep   Commit message pattern, or null for all.
+ * @param since  Only commits since this time, or null for all.
+ * @param until  Only commits until this time, or null for all.
+ * @param paths  Only commits changing these paths, relative to the
+ *               repository root. Empty for all.
+ */
+public record LogFilter(String author, String grep, Instant since, Instant until, List<String> paths) {
+    private static final Pattern RELATIVE = Pattern.compile("([0-9]+)[.]?(day|week)s?([.]ago)?");
+
+    public static final LogFilter ALL = new LogFilter(null, null, null, null, List.of());
+
+    public LogFilter {
+        paths = List.copyOf(paths);
+    }
+
+    /**
+     * @return If the filter lets all commits through.
+     */
+    public boolean isAll() {
+        return author == null && grep == null && since == null && until == null && paths.isEmpty();
+    }
+
+    /**
+     * Make the rev filter for the walk. Path filters are made into a rev
+     * filter here, instead of being set as the tree filter of the walk,
+     * as JGit would run them before the other filters. Commits with a
+     * changed-path Bloom filter in the commit-graph that did not change
+     * any of the paths are skipped without diffing the trees.
+     *
+     * @param walk The walk to filter.
+     * @return The rev filter.
+     */
+    public RevFilter revFilter(RevWalk walk) {
+        var filters = new ArrayList<RevFilter>();
+        if (since != null && until != null) {
+            filters.add(CommitTimeRevFilter.between(since, until));
+        } else if (since != null) {
+            filters.add(CommitTimeRevFilter.after(since));
+        } else if (until != null) {
+            filters.add(CommitTimeRevFilter.before(until));
+        }
+        if (author != null) {
+            filters.add(AuthorRevFilter.create(author));
+        }
+        if (grep != null) {
+            filters.add(MessageRevFilter.create(grep));
+        }
+        if (!paths.isEmpty()) {
+            filters.add(new TreeRevFilter(walk, new ChangedPaths(paths)));
+        }
+        if (filters.isEmpty()) {
+            return RevFilter.ALL;
+        } else if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        return AndRevFilter.create(filters.toArray(new RevFilter[0]));
+    }
+
+    /**
+     * Parse a date for 'since' or 'until'. Accepts ISO dates and date-times,
+     * with or without time zone, and relative dates like '2.weeks.ago'.
+     *
+     * @param date The date string.
+     * @return The parsed time.
+     * @throws IllegalArgumentException If not a valid date.
+     */
+    public static Instant parseDate(String date) {
+        var relative = RELATIVE.matcher(date.trim());
+        if (relative.matches()) {
+            var days = Long.parseLong(relative.group(1)) * (relative.group(2).equals("week") ? 7 : 1);
+            return Instant.now().minus(Duration.ofDays(days));
+        }
+        try {
+            if (date.length() == 10) {
+                return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant();
+            }
+            try {
+                return OffsetDateTime.parse(date).toInstant();
+            } catch (DateTimeParseException e) {
+                return LocalDateTime.parse(date).atZone(ZoneId.systemDefault()).toInstant();
+            }
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + date, e);
+        }
+    }
+
+    /**
+     * Tree filter for commits changing any of the paths. JGit only checks
+     * the changed-path Bloom filters when the tree filter knows its paths,
+     * which neither a single path group nor the 'any diff' filter does, so
+     * the paths are given here.
+     */
+    private static final class ChangedPaths extends TreeFilter {
+        private final TreeFilter  filter;
+        private final Set<byte[]> paths;
+
+        private ChangedPaths(List<String> paths) {
+            this(AndTreeFilter.create(PathFilterGroup.createFromStrings(paths), TreeFilter.ANY_DIFF), new HashSet<>());
+            for (var path : paths) {
+                this.paths.add(path.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private ChangedPaths(TreeFilter filter, Set<byte[]> paths) {
+            this.filter = filter;
+            this.paths = paths;
+        }
+
+        @Override
+        public boolean include(TreeWalk walker)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            return filter.include(walker);
+        }
+
+        @Override
+        public int matchFilter(TreeWalk walker)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            return filter.matchFilter(walker);
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return filter.shouldBeRecursive();
+        }
+
+        @Override
+        public Optional<Set<byte[]>> getPathsBestEffort() {
+            return Optional.of(paths);
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return new ChangedPaths(filter.clone(), paths);
+        }
+
+        @Override
+        public String toString() {
+            return filter.toString();
+        }
+    }
+}
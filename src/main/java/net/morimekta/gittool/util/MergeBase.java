@@ -0,0 +1,121 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import net.morimekta.collect.UnmodifiableList;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Merge base lookup using a single merge-base walk. Commits are resolved
+ * in the walk's own object pool, so anything already parsed by the walk is
+ * reused, and the walk is left reset and ready for other uses afterward.
+ */
+public final class MergeBase {
+    /**
+     * Find all merge bases of the two commits. On criss-cross histories
+     * there may be more than one merge base, and all of them are returned.
+     * Candidates that are ancestors of another candidate are removed, so
+     * only the best common ancestors remain.
+     *
+     * @param walk The rev walk to use.
+     * @param a    The first commit.
+     * @param b    The second commit.
+     * @return The list of merge bases, newest first. Empty if the commits
+     *         have no common history.
+     * @throws IOException If unable to read the commits.
+     */
+    public static List<RevCommit> all(RevWalk walk, AnyObjectId a, AnyObjectId b) throws IOException {
+        var ca = walk.parseCommit(a);
+        var cb = walk.parseCommit(b);
+        if (ca.equals(cb)) {
+            return List.of(ca);
+        }
+
+        var candidates = new ArrayList<RevCommit>();
+        try {
+            walk.reset();
+            walk.sort(RevSort.NONE);
+            walk.setTreeFilter(TreeFilter.ALL);
+            walk.setRevFilter(RevFilter.MERGE_BASE);
+            walk.markStart(ca);
+            walk.markStart(cb);
+            for (RevCommit c = walk.next(); c != null; c = walk.next()) {
+                candidates.add(c);
+            }
+        } finally {
+            walk.reset();
+            walk.setRevFilter(RevFilter.ALL);
+        }
+
+        if (candidates.size() > 1) {
+            // Drop any candidate reachable from another candidate.
+            var redundant = new ArrayList<RevCommit>();
+            for (var c : candidates) {
+                for (var o : candidates) {
+                    if (c != o && !redundant.contains(o) && walk.isMergedInto(c, o)) {
+                        redundant.add(c);
+                        break;
+                    }
+                }
+            }
+            candidates.removeAll(redundant);
+            walk.reset();
+        }
+        candidates.sort(NEWEST_FIRST);
+        return UnmodifiableList.asList(candidates);
+    }
+
+    /**
+     * Find the best merge base of the two commits. If there are multiple
+     * merge bases, the one with the newest commit time is chosen.
+     *
+     * @param walk The rev walk to use.
+     * @param a    The first commit.
+     * @param b    The second commit.
+     * @return The merge base, or empty if the commits have no common history.
+     * @throws IOException If unable to read the commits.
+     */
+    public static Optional<RevCommit> best(RevWalk walk, AnyObjectId a, AnyObjectId b) throws IOException {
+        var bases = all(walk, a, b);
+        if (bases.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(bases.get(0));
+    }
+
+    private static final Comparator<RevCommit> NEWEST_FIRST =
+            Comparator.comparingInt(RevCommit::getCommitTime)
+                      .reversed()
+                      .thenComparing(RevCommit::name);
+
+    private MergeBase() {}
+}
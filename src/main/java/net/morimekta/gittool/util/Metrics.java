@@ -0,0 +1,257 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * I/O counters for a single command. Objects are counted by the object
+ * readers made with {@link #reader(Repository)}, and JGit's window cache
+ * counters are taken as the change since the metrics were created. The
+ * window cache is shared by all repositories in the process, so commands
+ * must not run concurrently for those to be correct, which holds for both
+ * a plain gt run and the daemon.
+ * <p>
+ * JGit does not expose delta base cache counters, so those are not
+ * included.
+ */
+public class Metrics {
+    public enum Counter {
+        /** Commits read from the object database. */
+        COMMITS_OPENED,
+        /** Trees read from the object database. */
+        TREES_OPENED,
+        /** Blobs read from the object database. */
+        BLOBS_OPENED,
+        /** Annotated tags read from the object database. */
+        TAGS_OPENED,
+        /** Inflated size of all objects read. */
+        BYTES_INFLATED,
+        /** Commits parsed with message, to be shown. */
+        COMMITS_PARSED,
+        /** Work tree files compared with the index. */
+        FILES_STATED,
+        /** Work tree files hashed, as the stat info did not match the index. */
+        FILES_HASHED,
+        /** Work tree folders listed, as not in the untracked cache. */
+        DIRS_LISTED,
+        /** Work tree folders read from the untracked cache. */
+        DIRS_CACHED,
+        /** Blobs linked from the blob cache, instead of being extracted. */
+        BLOBS_CACHED,
+        /** Blobs streamed to a difftool through a named pipe. */
+        BLOBS_STREAMED,
+    }
+
+    private final boolean                 enabled;
+    private final Map<Counter, LongAdder> counters;
+    private final WindowCacheStats        windowCache;
+    private final long                    windowHits;
+    private final long                    windowMisses;
+    private final long                    windowEvictions;
+    private final long                    windowLoadNanos;
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+        this.counters = new EnumMap<>(Counter.class);
+        for (var counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+        this.windowCache = WindowCacheStats.getStats();
+        this.windowHits = windowCache.getHitCount();
+        this.windowMisses = windowCache.getMissCount();
+        this.windowEvictions = windowCache.getEvictionCount();
+        this.windowLoadNanos = windowCache.getTotalLoadTime();
+    }
+
+    /**
+     * @return If metrics are collected.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Count one of a counter.
+     *
+     * @param counter The counter.
+     */
+    public void increment(Counter counter) {
+        if (enabled) {
+            counters.get(counter).increment();
+        }
+    }
+
+    /**
+     * @param counter The counter.
+     * @return The current count.
+     */
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * Make an object reader for the repository, that counts the objects it
+     * reads if metrics are collected. The reader must be closed by the
+     * caller.
+     *
+     * @param repository The repository to read from.
+     * @return The object reader.
+     */
+    public ObjectReader reader(Repository repository) {
+        var reader = repository.newObjectReader();
+        if (!enabled) {
+            return reader;
+        }
+        return new CountingReader(reader);
+    }
+
+    /**
+     * Append the metrics as a single line JSON object to a file, so metrics
+     * from many commands can be collected in the same file.
+     *
+     * @param file       The file to append to.
+     * @param args       The command arguments.
+     * @param repository The repository root, or null if not in a repository.
+     * @param wallMillis Wall time of the command in milliseconds.
+     * @throws IOException If unable to write the file.
+     */
+    public void append(Path file, List<String> args, Path repository, long wallMillis) throws IOException {
+        var json = new StringBuilder();
+        json.append("{\"time\":").append(quote(Instant.now().toString()))
+            .append(",\"args\":[");
+        for (int i = 0; i < args.size(); ++i) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(quote(args.get(i)));
+        }
+        json.append("],\"repository\":").append(repository == null ? "null" : quote(repository.toString()))
+            .append(",\"wall_ms\":").append(wallMillis);
+        for (var counter : Counter.values()) {
+            json.append(",\"").append(counter.name().toLowerCase()).append("\":").append(get(counter));
+        }
+        json.append(",\"window_cache_hits\":").append(windowCache.getHitCount() - windowHits)
+            .append(",\"window_cache_misses\":").append(windowCache.getMissCount() - windowMisses)
+            .append(",\"window_cache_evictions\":").append(windowCache.getEvictionCount() - windowEvictions)
+            .append(",\"window_cache_load_ms\":").append((windowCache.getTotalLoadTime() - windowLoadNanos) / 1_000_000)
+            .append(",\"window_cache_open_files\":").append(windowCache.getOpenFileCount())
+            .append(",\"window_cache_open_bytes\":").append(windowCache.getOpenByteCount())
+            .append("}\n");
+        Files.writeString(file, json, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String quote(String str) {
+        var out = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private class CountingReader extends ObjectReader.Filter {
+        private final ObjectReader delegate;
+
+        private CountingReader(ObjectReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected ObjectReader delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return new CountingReader(delegate.newReader());
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId) throws IOException {
+            return count(delegate.open(objectId));
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId, int typeHint) throws MissingObjectException, IOException {
+            return count(delegate.open(objectId, typeHint));
+        }
+
+        private ObjectLoader count(ObjectLoader loader) {
+            switch (loader.getType()) {
+                case Constants.OBJ_COMMIT:
+                    increment(Counter.COMMITS_OPENED);
+                    break;
+                case Constants.OBJ_TREE:
+                    increment(Counter.TREES_OPENED);
+                    break;
+                case Constants.OBJ_BLOB:
+                    increment(Counter.BLOBS_OPENED);
+                    break;
+                case Constants.OBJ_TAG:
+                    increment(Counter.TAGS_OPENED);
+                    break;
+            }
+            counters.get(Counter.BYTES_INFLATED).add(loader.getSize());
+            return loader;
+        }
+    }
+}
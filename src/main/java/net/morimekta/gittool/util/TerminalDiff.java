@@ -0,0 +1,285 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import net.morimekta.strings.chr.Color;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static net.morimekta.strings.chr.Color.BOLD;
+import static net.morimekta.strings.chr.Color.CLEAR;
+import static net.morimekta.strings.chr.Color.CYAN;
+import static net.morimekta.strings.chr.Color.DIM;
+import static net.morimekta.strings.chr.Color.GREEN;
+import static net.morimekta.strings.chr.Color.RED;
+import static org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm.HISTOGRAM;
+import static org.eclipse.jgit.diff.DiffEntry.DEV_NULL;
+
+/**
+ * Show diffs as colored unified diffs in the terminal. Each file is diffed
+ * with the histogram diff on a pool of worker threads, and the diffs are
+ * written in the order of the files as soon as each is done, while the
+ * files after it are still being diffed. Files larger than the size limit
+ * are skipped, and binary files are detected from the first bytes, the
+ * same way git does, without reading the rest.
+ */
+public final class TerminalDiff {
+    /** Default size limit for files to diff. */
+    public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+
+    // Time to wait for running diffs to stop on close. Reading a blob can
+    // not be interrupted, so they stop after the blob they are reading.
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * A file to diff.
+     *
+     * @param oldPath The old path, or /dev/null if added.
+     * @param oldId   The old blob ID, or null if added.
+     * @param newPath The new path, or /dev/null if deleted.
+     * @param newFile The new work tree file, or null if deleted.
+     */
+    public record FileDiff(String oldPath, ObjectId oldId, String newPath, Path newFile) {}
+
+    private final Repository                repository;
+    private final long                      maxSize;
+    private final ThreadLocal<ObjectReader> reader;
+    private final Queue<ObjectReader>       readers;
+
+    private TerminalDiff(Repository repository, Metrics metrics, long maxSize) {
+        this.repository = repository;
+        this.maxSize = maxSize;
+        this.readers = new ConcurrentLinkedQueue<>();
+        this.reader = ThreadLocal.withInitial(() -> {
+            var objectReader = metrics.reader(this.repository);
+            readers.add(objectReader);
+            return objectReader;
+        });
+    }
+
+    /**
+     * Write the diffs of all the files, with one thread per processor.
+     *
+     * @param repository The repository to read blobs from.
+     * @param metrics    The metrics to count I/O in.
+     * @param files      The files to diff, in the order to show them.
+     * @param out        The output stream to write to.
+     * @throws IOException If unable to read a file or write the diff.
+     */
+    public static void write(Repository repository, Metrics metrics, List<FileDiff> files, OutputStream out)
+            throws IOException {
+        write(repository, metrics, files, out, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Write the diffs of all the files.
+     *
+     * @param repository The repository to read blobs from.
+     * @param metrics    The metrics to count I/O in.
+     * @param files      The files to diff, in the order to show them.
+     * @param out        The output stream to write to.
+     * @param threads    Number of threads to diff with.
+     * @param maxSize    Files larger than this are not diffed.
+     * @throws IOException If unable to read a file or write the diff.
+     */
+    public static void write(Repository repository,
+                             Metrics metrics,
+                             List<FileDiff> files,
+                             OutputStream out,
+                             int threads,
+                             long maxSize) throws IOException {
+        var diff = new TerminalDiff(repository, metrics, maxSize);
+        var count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            var thread = new Thread(task, "gt-diff-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Only diff a few files ahead of the one being written, so the
+            // memory used does not grow with the number of files.
+            var window = Math.max(1, threads) * 4;
+            var pending = new ArrayDeque<Future<byte[]>>();
+            var next = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                while (next < files.size() && pending.size() < window) {
+                    var file = files.get(next++);
+                    pending.add(executor.submit(() -> diff.format(file)));
+                }
+                out.write(get(pending.remove()));
+                out.flush();
+            }
+        } finally {
+            diff.close(executor);
+        }
+    }
+
+    // --------------
+
+    /**
+     * Stop the workers, and close the readers once the workers are done
+     * with them. Readers still in use when giving up waiting are left
+     * unclosed.
+     */
+    private void close(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (var objectReader : readers) {
+            objectReader.close();
+        }
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            } else if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private byte[] format(FileDiff file) throws IOException {
+        var out = new ByteArrayOutputStream();
+        var oldName = file.oldId() == null ? DEV_NULL : "a/" + file.oldPath();
+        var newName = file.newFile() == null ? DEV_NULL : "b/" + file.newPath();
+        var header = new StringBuilder();
+        header.append(BOLD)
+              .append("diff --git a/").append(file.oldId() == null ? file.newPath() : file.oldPath())
+              .append(" b/").append(file.newFile() == null ? file.oldPath() : file.newPath())
+              .append(CLEAR).append('\n');
+        if (file.oldId() == null) {
+            header.append(BOLD).append("new file").append(CLEAR).append('\n');
+        } else if (file.newFile() == null) {
+            header.append(BOLD).append("deleted file").append(CLEAR).append('\n');
+        }
+
+        var oldContent = file.oldId() == null
+                         ? DiffContent.EMPTY
+                         : DiffContent.readBlob(reader.get(), file.oldId(), maxSize);
+        var newContent = file.newFile() == null
+                         ? DiffContent.EMPTY
+                         : DiffContent.readFile(repository, file.newFile(), maxSize);
+        if (oldContent.tooLarge() || newContent.tooLarge()) {
+            header.append(DIM)
+                  .append("Not diffed, larger than ").append(maxSize).append(" bytes")
+                  .append(CLEAR).append('\n');
+            out.write(header.toString().getBytes(UTF_8));
+            return out.toByteArray();
+        }
+        if (oldContent.binary() || newContent.binary()) {
+            header.append("Binary files ").append(oldName).append(" and ").append(newName).append(" differ\n");
+            out.write(header.toString().getBytes(UTF_8));
+            return out.toByteArray();
+        }
+
+        var oldText = new RawText(oldContent.bytes());
+        var newText = new RawText(newContent.bytes());
+        var edits = DiffAlgorithm.getAlgorithm(HISTOGRAM).diff(RawTextComparator.DEFAULT, oldText, newText);
+        if (edits.isEmpty() && file.oldId() != null && file.newFile() != null) {
+            // Changed back to the old content.
+            return new byte[0];
+        }
+        header.append(BOLD).append("--- ").append(oldName).append(CLEAR).append('\n');
+        header.append(BOLD).append("+++ ").append(newName).append(CLEAR).append('\n');
+        out.write(header.toString().getBytes(UTF_8));
+        try (var formatter = new ColorFormatter(out)) {
+            formatter.format(edits, oldText, newText);
+            formatter.flush();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Unified diff hunks, with removed lines in red, added lines in green,
+     * and hunk headers in cyan.
+     */
+    private static final class ColorFormatter extends DiffFormatter {
+        private ColorFormatter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        protected void writeHunkHeader(int aStartLine, int aEndLine, int bStartLine, int bEndLine)
+                throws IOException {
+            write(CYAN);
+            super.writeHunkHeader(aStartLine, aEndLine, bStartLine, bEndLine);
+        }
+
+        @Override
+        protected void writeLine(char prefix, RawText text, int cur) throws IOException {
+            switch (prefix) {
+                case '-':
+                    write(RED);
+                    break;
+                case '+':
+                    write(GREEN);
+                    break;
+                default:
+                    write(CLEAR);
+                    break;
+            }
+            getOutputStream().write(prefix);
+            text.writeLine(getOutputStream(), cur);
+            write(CLEAR);
+            getOutputStream().write('\n');
+        }
+
+        private void write(Color color) throws IOException {
+            getOutputStream().write(color.toString().getBytes(UTF_8));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.morimekta.strings.StringUtil.rightPad;
+import static net.morimekta.strings.chr.Color.BOLD;
+import static net.morimekta.strings.chr.Color.CLEAR;
+import static net.morimekta.strings.chr.Color.DIM;
+
+/**
+ * Wall and CPU time spent in each phase of a command. Phases are nested
+ * by thread, so a phase started inside another phase on the same thread
+ * is shown below it. Phases with the same name under the same parent are
+ * added up. Every phase is also emitted as a JDK Flight Recorder event,
+ * whether the timings are collected or not, so a recording of real gt
+ * use can be inspected afterward.
+ */
+public class Timings {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final boolean                    enabled;
+    private final Node                       root;
+    private final ThreadLocal<Deque<Node>>   stack;
+
+    public Timings(boolean enabled) {
+        this.enabled = enabled;
+        this.root = new Node("gt");
+        this.stack = ThreadLocal.withInitial(ArrayDeque::new);
+    }
+
+    /**
+     * @return If timings are collected.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start a phase. The phase ends when the returned span is closed, which
+     * must be done on the same thread.
+     *
+     * @param name The phase name.
+     * @return The phase span.
+     */
+    public Span start(String name) {
+        var event = new PhaseEvent();
+        Node node = null;
+        if (enabled) {
+            var parent = stack.get().peek();
+            node = (parent == null ? root : parent).child(name);
+            stack.get().push(node);
+        }
+        return new Span(name, node, event);
+    }
+
+    /**
+     * Wrap a task to be run on another thread, so phases started by the task
+     * are nested under the phase that is current when wrapping.
+     *
+     * @param task The task to wrap.
+     * @return The wrapped task.
+     */
+    public Runnable inherit(Runnable task) {
+        if (!enabled) {
+            return task;
+        }
+        var parent = stack.get().peek();
+        if (parent == null) {
+            return task;
+        }
+        return () -> {
+            var threadStack = stack.get();
+            threadStack.push(parent);
+            try {
+                task.run();
+            } finally {
+                threadStack.pop();
+            }
+        };
+    }
+
+    /**
+     * Print the phase tree.
+     *
+     * @param out The stream to print to.
+     */
+    public void print(PrintStream out) {
+        var lines = new ArrayList<String[]>();
+        for (var child : root.children()) {
+            collect(child, "", lines);
+        }
+        int width = 0;
+        for (var line : lines) {
+            width = Math.max(width, line[0].length());
+        }
+        out.printf("%s%s%s %10s %10s %6s%n", BOLD, rightPad("Phase", width), CLEAR, "Wall ms", "CPU ms", "Count");
+        for (var line : lines) {
+            out.printf("%s %10s %s%10s %6s%s%n", rightPad(line[0], width), line[1], DIM, line[2], line[3], CLEAR);
+        }
+    }
+
+    private static void collect(Node node, String indent, List<String[]> lines) {
+        synchronized (node) {
+            lines.add(new String[]{
+                    indent + node.name,
+                    millis(node.wallNanos),
+                    millis(node.cpuNanos),
+                    String.valueOf(node.count)});
+        }
+        for (var child : node.children()) {
+            collect(child, indent + "  ", lines);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * A started phase, ended on close.
+     */
+    public class Span implements AutoCloseable {
+        private final String     name;
+        private final Node       node;
+        private final PhaseEvent event;
+        private final long       wallStart;
+        private final long       cpuStart;
+
+        private Span(String name, Node node, PhaseEvent event) {
+            this.name = name;
+            this.node = node;
+            this.event = event;
+            this.wallStart = node != null ? System.nanoTime() : 0;
+            this.cpuStart = node != null ? THREADS.getCurrentThreadCpuTime() : 0;
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.commit();
+            }
+            if (node != null) {
+                node.add(System.nanoTime() - wallStart, THREADS.getCurrentThreadCpuTime() - cpuStart);
+                stack.get().pop();
+            }
+        }
+    }
+
+    private static class Node {
+        private final String            name;
+        private final Map<String, Node> children = new LinkedHashMap<>();
+
+        private long wallNanos;
+        private long cpuNanos;
+        private int  count;
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        private synchronized Node child(String name) {
+            return children.computeIfAbsent(name, Node::new);
+        }
+
+        private synchronized List<Node> children() {
+            return List.copyOf(children.values());
+        }
+
+        private synchronized void add(long wall, long cpu) {
+            wallNanos += wall;
+            cpuNanos += cpu;
+            ++count;
+        }
+    }
+
+    @Name("net.morimekta.gittool.Phase")
+    @Label("gt Phase")
+    @Description("A phase of a gt command")
+    @Category("gt")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+}
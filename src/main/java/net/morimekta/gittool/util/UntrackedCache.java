@@ -0,0 +1,269 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Cache of the untracked files in each work tree folder, so folders that
+ * have not changed do not need to be listed, and their ignored files not
+ * matched against the ignore rules again. The untracked files are the
+ * files and folders that are neither in the index nor ignored.
+ * <p>
+ * Each folder is stored with its modification time and a key hashing all
+ * ignore rules that apply to it, and the names in the index in it. Files
+ * are only added, removed or renamed in a folder by changing its
+ * modification time, and changed ignore rules or index give a different
+ * key, so a folder is listed again whenever either changes.
+ * <p>
+ * Folders modified within the file system timestamp resolution of being
+ * listed are not cached, as a later change may not change the
+ * modification time. The cache file is replaced whole with a
+ * {@link LockedFile}, and not saved if locked.
+ */
+public class UntrackedCache {
+    public static final String FILE_NAME = "gt-untracked";
+
+    // Header of the cache file, so format changes can be detected.
+    private static final String HEADER = "# gt untracked cache v1";
+
+    /**
+     * A cached folder.
+     *
+     * @param modified  The folder modification time.
+     * @param key       Hash of the ignore rules and index for the folder.
+     * @param untracked Names of the untracked files and folders in it.
+     */
+    public record Folder(Instant modified, ObjectId key, List<String> untracked) {}
+
+    private final Path                file;
+    private final Duration            resolution;
+    private final Map<String, Folder> folders;
+    private final Map<String, Folder> used;
+
+    private volatile boolean changed;
+
+    private UntrackedCache(Path file, Duration resolution) {
+        this.file = file;
+        this.resolution = resolution;
+        this.folders = new ConcurrentHashMap<>();
+        this.used = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Load the cache for the repository. The cache is disabled with the
+     * 'gt.untrackedCache' config.
+     *
+     * @param repository The repository.
+     * @return The untracked cache.
+     */
+    public static UntrackedCache load(Repository repository) {
+        if (repository.isBare() || !repository.getConfig().getBoolean("gt", null, "untrackedCache", true)) {
+            return disabled();
+        }
+        var resolution = FS.FileStoreAttributes.get(repository.getWorkTree().toPath()).getFsTimestampResolution();
+        var cache = new UntrackedCache(repository.getDirectory().toPath().resolve(FILE_NAME), resolution);
+        readInto(cache.file, cache.folders);
+        return cache;
+    }
+
+    /**
+     * @return A cache that never caches anything.
+     */
+    public static UntrackedCache disabled() {
+        return new UntrackedCache(null, Duration.ZERO);
+    }
+
+    /**
+     * @return If the cache is enabled.
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * @return Number of cached folders.
+     */
+    public int size() {
+        return folders.size();
+    }
+
+    /**
+     * Get the untracked files of a folder, if the cached entry is still
+     * valid.
+     *
+     * @param path     The folder path relative to the work tree root, empty
+     *                 for the root.
+     * @param modified The current modification time of the folder.
+     * @param key      Hash of the ignore rules and index for the folder now.
+     * @return The untracked file names, or null if not cached.
+     */
+    public List<String> get(String path, Instant modified, ObjectId key) {
+        var folder = folders.get(path);
+        if (folder == null) {
+            return null;
+        }
+        if (!folder.modified().equals(modified) || !folder.key().equals(key)) {
+            folders.remove(path, folder);
+            changed = true;
+            return null;
+        }
+        used.put(path, folder);
+        return folder.untracked();
+    }
+
+    /**
+     * Cache the untracked files of a folder just listed.
+     *
+     * @param path      The folder path relative to the work tree root.
+     * @param modified  The folder modification time before it was listed.
+     * @param key       Hash of the ignore rules and index for the folder.
+     * @param untracked Names of the untracked files and folders.
+     * @param listed    When the folder was listed.
+     */
+    public void put(String path, Instant modified, ObjectId key, List<String> untracked, Instant listed) {
+        if (file == null || !modified.plus(resolution).isBefore(listed)) {
+            // Racily modified, changes right after listing may not be seen.
+            return;
+        }
+        for (var name : untracked) {
+            if (name.indexOf('\n') >= 0) {
+                return;
+            }
+        }
+        var folder = new Folder(modified, key, List.copyOf(untracked));
+        folders.put(path, folder);
+        used.put(path, folder);
+        changed = true;
+    }
+
+    /**
+     * Save the cache file if anything changed.
+     *
+     * @param complete If the whole work tree was scanned, in which case
+     *                 folders not seen are dropped from the cache.
+     * @return True if saved.
+     * @throws IOException If unable to write the cache file.
+     */
+    public boolean save(boolean complete) throws IOException {
+        if (file == null || !(changed || (complete && used.size() < folders.size()))) {
+            return false;
+        }
+        var saved = LockedFile.replace(file, writer -> {
+            writer.write(HEADER);
+            writer.newLine();
+            for (var entry : new TreeMap<>(complete ? used : folders).entrySet()) {
+                var folder = entry.getValue();
+                writer.write("d " + folder.modified() + " " + folder.key().name() + " " + entry.getKey());
+                writer.newLine();
+                for (var name : folder.untracked()) {
+                    writer.write("u " + name);
+                    writer.newLine();
+                }
+            }
+        });
+        if (saved) {
+            changed = false;
+        }
+        return saved;
+    }
+
+    /**
+     * Clear the cache, and delete the cache file.
+     *
+     * @throws IOException If unable to delete the cache file.
+     */
+    public void clear() throws IOException {
+        folders.clear();
+        used.clear();
+        if (file != null) {
+            LockedFile.delete(file);
+        }
+    }
+
+    /**
+     * Delete the cache file of the git directory, if it exists. Used when
+     * the cache is disabled, and so not loaded.
+     *
+     * @param gitDir The repository git directory.
+     * @throws IOException If unable to delete the cache file.
+     */
+    public static void delete(Path gitDir) throws IOException {
+        LockedFile.delete(gitDir.resolve(FILE_NAME));
+    }
+
+    // --------------
+
+    private static void readInto(Path file, Map<String, Folder> folders) {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                // Unknown format, will be replaced on save.
+                return;
+            }
+            String path = null;
+            Folder folder = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("d ")) {
+                    if (folder != null) {
+                        folders.put(path, folder);
+                    }
+                    var parts = line.split(" ", 4);
+                    try {
+                        path = parts[3];
+                        folder = new Folder(Instant.parse(parts[1]), ObjectId.fromString(parts[2]), new ArrayList<>());
+                    } catch (ArrayIndexOutOfBoundsException | DateTimeParseException | IllegalArgumentException e) {
+                        // Skip broken folders, the cache is only an optimization.
+                        folder = null;
+                    }
+                } else if (line.startsWith("u ") && folder != null) {
+                    folder.untracked().add(line.substring(2));
+                }
+            }
+            if (folder != null) {
+                folders.put(path, folder);
+            }
+        } catch (IOException e) {
+            // Ignore, treat as empty cache.
+            folders.clear();
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator.FileModeStrategy;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator.MetadataDiff;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Find uncommitted changes in a single pass over HEAD, the index and the
+ * work tree together. Each file gets its staged and unstaged change at
+ * once, in path order, same as a cached and an uncached name-status diff
+ * would give without rename detection. Work tree files are only hashed
+ * if their stat info does not match the index.
+ * <p>
+ * The work tree is scanned in parallel. The folders at the top levels are
+ * each scanned by their own task on a fork-join pool, using the same walk
+ * over HEAD, the index and the work tree, limited to the folder. Changes
+ * are still handed to the visitor in path order, on the calling thread.
+ * All folders are forked before the first change is seen, so a scan with
+ * a single thread is done without the pool, handing each change to the
+ * visitor as soon as it is found, so stopping ends the scan at once.
+ * When only checking if there are any changes, the first change found by
+ * any task stops all of them.
+ * <p>
+ * Folders that have not changed since the last scan are not listed, but
+ * read from the {@link UntrackedCache}. With a 'core.fsmonitor' hook, only
+ * the paths the {@link FsMonitor} reports as changed are compared with the
+ * work tree.
+ */
+public final class WorktreeStatus {
+    private static final int HEAD  = 0;
+    private static final int INDEX = 1;
+    private static final int WORK  = 2;
+
+    /**
+     * Folders down to this depth are scanned by their own task. Each task
+     * lists the folders above its own again, so deeper splits cost more
+     * than they gain.
+     */
+    private static final int SPLIT_DEPTH = 2;
+
+    /**
+     * Handles each changed file as it is found.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @param status The status of the changed file.
+         * @return True to continue, false to stop the scan.
+         * @throws IOException If unable to handle the status.
+         */
+        boolean visit(FileStatus status) throws IOException;
+    }
+
+    /**
+     * Scan for uncommitted changes, staged or not, including untracked
+     * files that are not ignored.
+     *
+     * @param repository The repository to scan.
+     * @param metrics    The metrics to count I/O in.
+     * @param visitor    Called for each changed file.
+     * @return True if stopped by the visitor.
+     * @throws IOException If unable to read the index, trees or files.
+     */
+    public static boolean scan(Repository repository, Metrics metrics, Visitor visitor) throws IOException {
+        return scan(repository, metrics, Runtime.getRuntime().availableProcessors(), visitor);
+    }
+
+    /**
+     * Scan for uncommitted changes with the given number of threads. With
+     * a single thread, the scan is done on the calling thread, and nothing
+     * more is scanned once the visitor stops it.
+     *
+     * @param repository The repository to scan.
+     * @param metrics    The metrics to count I/O in.
+     * @param threads    Number of threads to scan the work tree with.
+     * @param visitor    Called for each changed file.
+     * @return True if stopped by the visitor.
+     * @throws IOException If unable to read the index, trees or files.
+     */
+    public static boolean scan(Repository repository, Metrics metrics, int threads, Visitor visitor)
+            throws IOException {
+        return scan(repository, metrics, threads, visitor, false);
+    }
+
+    /**
+     * Check if there are any uncommitted changes, stopping the scan at the
+     * first change found.
+     *
+     * @param repository The repository to scan.
+     * @param metrics    The metrics to count I/O in.
+     * @param threads    Number of threads to scan the work tree with.
+     * @return True if there is any change.
+     * @throws IOException If unable to read the index, trees or files.
+     */
+    static boolean hasChanges(Repository repository, Metrics metrics, int threads) throws IOException {
+        return scan(repository, metrics, threads, status -> false, true);
+    }
+
+    private static boolean scan(Repository repository, Metrics metrics, int threads, Visitor visitor, boolean any)
+            throws IOException {
+        var scan = new WorktreeStatus(repository, metrics, any);
+        ForkJoinPool pool = null;
+        try {
+            boolean stopped;
+            if (threads <= 1) {
+                stopped = scan.new FolderScan("", 0, visitor).run();
+            } else {
+                pool = new ForkJoinPool(threads, forkJoinPool -> {
+                    var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                    thread.setName("gt-worktree-scan-" + thread.getPoolIndex());
+                    return thread;
+                }, null, false);
+                stopped = scan.visit(pool.invoke(scan.new FolderScan("", 0, null)), visitor);
+            }
+            try {
+                // With fsmonitor, only the reported folders were scanned,
+                // so the others are still valid.
+                scan.cache.save(!stopped && scan.changed == null);
+                if (scan.monitor != null && !stopped) {
+                    scan.monitor.save(scan.unstaged);
+                }
+            } catch (IOException e) {
+                // Ignore, the caches are only an optimization.
+            }
+            return stopped;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            scan.stopped = true;
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private final Repository repository;
+    private final Metrics    metrics;
+    private final Path       root;
+    private final ObjectId   head;
+    private final DirCache   index;
+    private final ObjectId   ignores;
+
+    private final UntrackedCache             cache;
+    private final CachedTreeIterator.Context context;
+    private final FsMonitor                  monitor;
+    private final TreeFilter                 changed;
+    private final List<String>               unstaged;
+    private final boolean                    any;
+
+    private volatile boolean stopped;
+
+    private WorktreeStatus(Repository repository, Metrics metrics, boolean any) throws IOException {
+        this.repository = repository;
+        this.metrics = metrics;
+        this.any = any;
+        this.root = repository.getWorkTree().toPath();
+        this.head = repository.resolve(Constants.HEAD + "^{tree}");
+        this.index = repository.readDirCache();
+        // Built on first use, so build it before the index is shared
+        // between threads.
+        this.index.getCacheTree(true);
+        this.ignores = CachedTreeIterator.rootIgnores(repository);
+        this.cache = UntrackedCache.load(repository);
+        var fs = repository.getFS();
+        FileModeStrategy strategy = repository.getConfig().get(WorkingTreeOptions.KEY).isDirNoGitLinks()
+                                    ? FileTreeIterator.NoGitlinksStrategy.INSTANCE
+                                    : FileTreeIterator.DefaultFileModeStrategy.INSTANCE;
+        this.context = new CachedTreeIterator.Context(fs, strategy, index, cache, metrics);
+        this.monitor = FsMonitor.load(repository);
+        this.changed = monitor == null ? null : monitor.query(index, ignores, HEAD, INDEX);
+        this.unstaged = new ArrayList<>();
+    }
+
+    /**
+     * Hand the changes found to the visitor in order, waiting for each
+     * folder task in turn.
+     */
+    private boolean visit(List<Object> changes, Visitor visitor) throws IOException {
+        for (var change : changes) {
+            if (change instanceof FolderScan folder) {
+                if (visit(folder.join(), visitor)) {
+                    return true;
+                }
+            } else if (!visit((FileStatus) change, visitor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand a single change to the visitor.
+     *
+     * @return False if the visitor stopped the scan.
+     */
+    private boolean visit(FileStatus status, Visitor visitor) throws IOException {
+        if (status.unstaged() != null) {
+            unstaged.add(status.path());
+        }
+        if (!visitor.visit(status)) {
+            stopped = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scans the files of a single folder, and all folders below it. Folders
+     * above the split depth are forked as separate tasks, and are left in
+     * the list of changes in their place. With a visitor, nothing is forked,
+     * and the changes are handed to the visitor as they are found.
+     */
+    private final class FolderScan extends RecursiveTask<List<Object>> {
+        private final String  path;
+        private final int     depth;
+        private final Visitor visitor;
+
+        private FolderScan(String path, int depth, Visitor visitor) {
+            this.path = path;
+            this.depth = depth;
+            this.visitor = visitor;
+        }
+
+        /**
+         * Scan on the calling thread, handing changes to the visitor.
+         *
+         * @return True if stopped by the visitor.
+         */
+        private boolean run() throws IOException {
+            try (var reader = metrics.reader(repository);
+                 var walk = new TreeWalk(repository, reader)) {
+                scan(reader, walk);
+            }
+            return stopped;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            try (var reader = metrics.reader(repository);
+                 var walk = new TreeWalk(repository, reader)) {
+                return scan(reader, walk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e.getMessage(), e);
+            }
+        }
+
+        private List<Object> scan(ObjectReader reader, TreeWalk walk) throws IOException {
+            if (head != null) {
+                var headTree = new CanonicalTreeParser();
+                headTree.reset(reader, head);
+                walk.addTree(headTree);
+            } else {
+                walk.addTree(new EmptyTreeIterator());
+            }
+            walk.addTree(new DirCacheIterator(index));
+            var workTree = new CachedTreeIterator(repository, context, ignores);
+            walk.addTree(workTree);
+            workTree.setDirCacheIterator(walk, INDEX);
+            if (!path.isEmpty() && changed != null) {
+                walk.setFilter(AndTreeFilter.create(PathFilter.create(path), changed));
+            } else if (!path.isEmpty()) {
+                walk.setFilter(PathFilter.create(path));
+            } else if (changed != null) {
+                walk.setFilter(changed);
+            }
+
+            var changes = new ArrayList<Object>();
+            String conflict = null;
+            while (!stopped && walk.next()) {
+                var indexEntry = walk.getTree(INDEX, DirCacheIterator.class);
+                var work = walk.getTree(WORK, WorkingTreeIterator.class);
+                if (walk.isSubtree()) {
+                    if (walk.getDepth() < depth) {
+                        // Above this folder.
+                        walk.enterSubtree();
+                        continue;
+                    }
+                    if (indexEntry == null && walk.getRawMode(HEAD) == FileMode.TYPE_MISSING) {
+                        // Untracked folder, skip if ignored.
+                        if (work.isEntryIgnored()) {
+                            continue;
+                        }
+                    }
+                    if (visitor == null && depth < SPLIT_DEPTH && walk.getDepth() == depth) {
+                        var folder = new FolderScan(walk.getPathString(), depth + 1, null);
+                        folder.fork();
+                        changes.add(folder);
+                    } else {
+                        walk.enterSubtree();
+                    }
+                    continue;
+                }
+
+                var filePath = walk.getPathString();
+                if (filePath.equals(conflict)) {
+                    // The other stages of an unresolved conflict.
+                    continue;
+                }
+
+                var staged = change(walk.getRawMode(HEAD), walk.getRawMode(INDEX), walk.idEqual(HEAD, INDEX));
+                ChangeType unstaged = null;
+                if (indexEntry == null) {
+                    if (work != null && !work.isEntryIgnored()) {
+                        // Untracked file.
+                        unstaged = ChangeType.ADD;
+                    }
+                } else {
+                    var entry = indexEntry.getDirCacheEntry();
+                    if (entry.getStage() != 0) {
+                        // Unresolved conflict, the index has one entry per
+                        // stage for the same path.
+                        conflict = filePath;
+                        staged = ChangeType.MODIFY;
+                        unstaged = ChangeType.MODIFY;
+                    } else if (entry.isSkipWorkTree()) {
+                        // Not checked out.
+                    } else if (work == null) {
+                        // Weirdness where empty folders that are checked in as a
+                        // folder are seen as deleted files.
+                        if (!Files.isDirectory(root.resolve(filePath))) {
+                            unstaged = ChangeType.DELETE;
+                        }
+                    } else {
+                        metrics.increment(Metrics.Counter.FILES_STATED);
+                        if (metrics.isEnabled()) {
+                            var metadata = work.compareMetadata(entry);
+                            if (metadata == MetadataDiff.SMUDGED || metadata == MetadataDiff.DIFFER_BY_TIMESTAMP) {
+                                // Only then is the content compared.
+                                metrics.increment(Metrics.Counter.FILES_HASHED);
+                            }
+                        }
+                        if (work.isModified(entry, true, reader)) {
+                            unstaged = ChangeType.MODIFY;
+                        }
+                    }
+                }
+
+                if (staged != null || unstaged != null) {
+                    var status = new FileStatus(filePath, staged, unstaged,
+                                                objectId(walk, HEAD), objectId(walk, INDEX));
+                    if (visitor == null) {
+                        changes.add(status);
+                        if (any) {
+                            // Any change will do, so stop the other tasks.
+                            stopped = true;
+                            break;
+                        }
+                    } else if (!visit(status, visitor)) {
+                        break;
+                    }
+                }
+            }
+            return changes;
+        }
+    }
+
+    private static ObjectId objectId(TreeWalk walk, int tree) {
+        return walk.getRawMode(tree) == FileMode.TYPE_MISSING ? null : walk.getObjectId(tree);
+    }
+
+    private static ChangeType change(int oldMode, int newMode, boolean sameId) {
+        if (oldMode == FileMode.TYPE_MISSING) {
+            return newMode == FileMode.TYPE_MISSING ? null : ChangeType.ADD;
+        } else if (newMode == FileMode.TYPE_MISSING) {
+            return ChangeType.DELETE;
+        } else if (oldMode != newMode || !sameId) {
+            return ChangeType.MODIFY;
+        }
+        return null;
+    }
+}
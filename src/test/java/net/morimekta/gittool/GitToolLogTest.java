@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool;
+
+import net.morimekta.gittool.util.LogFilter;
+import net.morimekta.gittool.util.SyntheticRepo;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GitToolLogTest {
+    private SyntheticRepo repo;
+    private GitTool       gt;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        repo = SyntheticRepo.create(tmp);
+        gt = new GitTool(null, Map.of("PWD", tmp.toString())) {
+            @Override
+            protected Repository openRepository(Path gitDir) {
+                return repo.repository();
+            }
+        };
+    }
+
+    @AfterEach
+    public void tearDown() {
+        repo.close();
+    }
+
+    @Test
+    public void testMaxCountKeepsNewest() throws Exception {
+        var root = repo.chain("root", null, 1);
+        var tip = repo.chain("a", root, 5);
+
+        // Same commits as 'git log -n 2', shown oldest first.
+        var out = new ArrayList<String>();
+        assertThat(gt.log(root, tip, LogFilter.ALL, 2, c -> out.add(c.getShortMessage())), is(5));
+        assertThat(out, is(List.of("a 3", "a 4")));
+
+        out.clear();
+        assertThat(gt.log(root, tip, LogFilter.ALL, Integer.MAX_VALUE, c -> out.add(c.getShortMessage())), is(5));
+        assertThat(out, is(List.of("a 0", "a 1", "a 2", "a 3", "a 4")));
+    }
+
+    @Test
+    public void testMaxCountWithFilter() throws Exception {
+        var root = repo.chain("root", null, 1);
+        var tip = repo.chain("a", root, 10);
+
+        var out = new ArrayList<String>();
+        var filter = new LogFilter(null, "a [0-4]$", null, null, List.of());
+        assertThat(gt.log(root, tip, filter, 3, c -> out.add(c.getShortMessage())), is(5));
+        assertThat(out, is(List.of("a 2", "a 3", "a 4")));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool;
+
+import net.morimekta.file.FileUtil;
+import net.morimekta.gittool.util.SyntheticRepo;
+import net.morimekta.io.tty.TTY;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Runs gt commands on a generated large repository, and fails if the
+ * median time of a command is over its time budget. Enabled with the
+ * 'scale' maven profile, or '-Dgt.scale=true'. The repository size and
+ * budgets are set with system properties:
+ * <ul>
+ *     <li>'gt.scale.commits', 'gt.scale.branches', 'gt.scale.files' and
+ *         'gt.scale.divergence' for the repository shape.</li>
+ *     <li>'gt.scale.budget.[scenario]' for the time budget in milliseconds.</li>
+ *     <li>'gt.scale.runs' for the number of timed runs of each command.</li>
+ * </ul>
+ * The generated repository is kept in 'target/gt-scale' and reused by
+ * later runs with the same shape. The history cache is disabled, so each
+ * run does the full history walks.
+ */
+@EnabledIfSystemProperty(named = "gt.scale", matches = "true")
+public class GitToolScaleTest {
+    private static Path root;
+    private static int  runs;
+
+    @BeforeAll
+    public static void setUpAll() throws IOException, GitAPIException {
+        var shape = new SyntheticRepo.Shape(
+                Integer.getInteger("gt.scale.commits", 100_000),
+                Integer.getInteger("gt.scale.branches", 1000),
+                Integer.getInteger("gt.scale.files", 100_000),
+                Integer.getInteger("gt.scale.divergence", 10));
+        runs = Integer.getInteger("gt.scale.runs", 3);
+        root = Path.of(System.getProperty("gt.scale.dir", "target/gt-scale"))
+                   .resolve("repo-%d-%d-%d-%d".formatted(
+                           shape.commits(), shape.branches(), shape.files(), shape.divergence()))
+                   .toAbsolutePath();
+
+        var done = root.resolve(".git").resolve("gt-scale-done");
+        if (Files.exists(done)) {
+            return;
+        }
+        if (Files.exists(root)) {
+            FileUtil.deleteRecursively(root);
+        }
+        Files.createDirectories(root);
+
+        var start = System.nanoTime();
+        try (var repo = SyntheticRepo.create(root)) {
+            repo.generate(shape, shape.commits());
+            var config = repo.repository().getConfig();
+            config.setBoolean("gt", null, "cache", false);
+            config.setString("gt", null, "difftool", "true");
+            config.save();
+            repo.git().checkout().setName("branch-0").call();
+            repo.gc(true);
+            repo.refreshIndex();
+        }
+        Files.createFile(done);
+        System.err.printf("Generated %s in %d s%n", shape, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    @Test
+    public void testStatus() {
+        scenario("status", 5000, "st");
+    }
+
+    @Test
+    public void testLog() {
+        scenario("log", 5000, "l");
+    }
+
+    @Test
+    public void testDiff() {
+        scenario("diff", 5000, "d");
+    }
+
+    @Test
+    public void testBranchList() {
+        scenario("branch", 20000, "b", "--list");
+    }
+
+    private static void scenario(String name, long defaultBudgetMs, String... args) {
+        var budget = Long.getLong("gt.scale.budget." + name, defaultBudgetMs);
+        // Warm up, so class loading is not counted.
+        assertThat(run(args).isEmpty(), is(false));
+
+        var times = new long[runs];
+        long peakHeap = 0;
+        for (int i = 0; i < runs; ++i) {
+            System.gc();
+            var pools = ManagementFactory.getMemoryPoolMXBeans()
+                                         .stream()
+                                         .filter(pool -> pool.getType() == MemoryType.HEAP)
+                                         .toList();
+            pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            var start = System.nanoTime();
+            run(args);
+            times[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            peakHeap = Math.max(peakHeap, pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum());
+        }
+        Arrays.sort(times);
+        var median = times[runs / 2];
+        System.err.printf("gt %s: %d ms (budget %d ms), peak heap %d MB, runs %s%n",
+                          String.join(" ", args), median, budget, peakHeap >> 20, Arrays.toString(times));
+        assertThat("gt " + String.join(" ", args) + " took " + median + " ms, budget " + budget + " ms",
+                   median <= budget, is(true));
+    }
+
+    private static String run(String... args) {
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.put("PWD", root.toString());
+
+        var out = new ByteArrayOutputStream();
+        var stdout = System.out;
+        var stderr = System.err;
+        try (var print = new PrintStream(out, true, StandardCharsets.UTF_8)) {
+            System.setOut(print);
+            System.setErr(print);
+            new GitTool(new TTY(), env) {
+                @Override
+                protected void errorExit() {
+                    throw new AssertionError("gt " + String.join(" ", args) + " failed:\n" + out);
+                }
+            }.execute(args);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
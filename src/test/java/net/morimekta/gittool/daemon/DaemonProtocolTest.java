@@ -0,0 +1,100 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.daemon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DaemonProtocolTest {
+    @Test
+    public void testRequest() throws IOException {
+        var request = new DaemonProtocol.Request(
+                List.of("st", "-b", "feature"), Map.of("PWD", "/tmp/repo", "EMPTY", ""), 120, true);
+        var bytes = new ByteArrayOutputStream();
+        request.write(new DataOutputStream(bytes));
+
+        var read = DaemonProtocol.Request.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat(read, is(request));
+    }
+
+    @Test
+    public void testFrames() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var data = new DataOutputStream(bytes);
+        var out = new DaemonProtocol.FrameOutputStream(data, DaemonProtocol.STDOUT);
+        out.write("hello".getBytes(StandardCharsets.UTF_8));
+        out.write(new byte[0]);
+        out.write('!');
+
+        var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThat(in.readByte(), is(DaemonProtocol.STDOUT));
+        assertThat(new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8), is("hello"));
+        assertThat(in.readByte(), is(DaemonProtocol.STDOUT));
+        assertThat(new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8), is("!"));
+        assertThat(in.available(), is(0));
+    }
+
+    @Test
+    public void testClient(@TempDir Path tmp) throws Exception {
+        var socket = tmp.resolve("gt.sock");
+        assertThat(DaemonClient.send(socket, new String[]{"st"}, Map.of()), is(nullValue()));
+
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            var received = CompletableFuture.supplyAsync(() -> {
+                try (var channel = server.accept()) {
+                    var in = new DataInputStream(Channels.newInputStream(channel));
+                    var out = new DataOutputStream(Channels.newOutputStream(channel));
+                    var request = DaemonProtocol.Request.read(in);
+                    out.writeByte(DaemonProtocol.EXIT);
+                    out.writeInt(3);
+                    out.flush();
+                    return request;
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+
+            assertThat(DaemonClient.send(socket, new String[]{"st"}, Map.of("PWD", "/tmp")), is(3));
+            assertThat(received.get().args(), is(List.of("st")));
+            assertThat(received.get().env(), is(Map.of("PWD", "/tmp")));
+        }
+    }
+}
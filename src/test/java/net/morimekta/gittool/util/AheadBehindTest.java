@@ -0,0 +1,208 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AheadBehindTest {
+    private SyntheticRepo repo;
+    private HistoryWalk   walk;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws IOException {
+        repo = SyntheticRepo.create(tmp);
+        walk = new HistoryWalk(repo.repository());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        walk.close();
+        repo.close();
+    }
+
+    @Test
+    public void testSame() throws IOException {
+        var a = repo.chain("a", null, 3);
+        assertThat(AheadBehind.count(walk, a, a), is(AheadBehind.NONE));
+    }
+
+    @Test
+    public void testLinear() throws IOException {
+        var a = repo.chain("a", null, 5);
+        var b = repo.chain("b", a, 3);
+
+        assertThat(AheadBehind.count(walk, b, a), is(new AheadBehind(3, 0)));
+        assertThat(AheadBehind.count(walk, a, b), is(new AheadBehind(0, 3)));
+    }
+
+    @Test
+    public void testFork() throws IOException {
+        var root = repo.chain("root", null, 10);
+        var main = repo.chain("main", root, 100);
+        var branch = repo.chain("branch", root, 2);
+
+        assertThat(AheadBehind.count(walk, branch, main), is(new AheadBehind(2, 100)));
+        assertThat(AheadBehind.count(walk, main, branch), is(new AheadBehind(100, 2)));
+    }
+
+    @Test
+    public void testMergedBack() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main1 = repo.chain("main", root, 3);
+        var branch1 = repo.chain("branch", root, 2);
+        var merge = repo.commit("merge main", branch1, main1);
+        var branch2 = repo.chain("branch more", merge, 2);
+        var main2 = repo.chain("main more", main1, 4);
+
+        // branch1 (2) + merge (1) + branch2 (2) vs. main2 (4)
+        assertThat(AheadBehind.count(walk, branch2, main2), is(new AheadBehind(5, 4)));
+    }
+
+    @Test
+    public void testUnrelated() throws IOException {
+        var a = repo.chain("a", null, 3);
+        var b = repo.chain("b", null, 4);
+
+        assertThat(AheadBehind.count(walk, a, b), is(new AheadBehind(3, 4)));
+    }
+
+    @Test
+    public void testClockSkew() throws IOException {
+        var tree = repo.emptyTree();
+        var root = repo.chain("root", null, 3);
+        // The base commit has a commit time far in the future, so it is
+        // walked before the branch commits on top of it.
+        var skewed = repo.commitAt(Instant.parse("2030-01-01T00:00:00Z"), tree, "skewed", root);
+        var main = repo.chain("main", skewed, 3);
+        var branch = repo.chain("branch", skewed, 2);
+
+        assertThat(AheadBehind.count(walk, branch, main), is(new AheadBehind(2, 3)));
+    }
+
+    @Test
+    public void testRandomHistory() throws IOException {
+        var random = new Random(4321);
+        var commits = new ArrayList<RevCommit>();
+        commits.add(repo.commit("root"));
+        for (int i = 0; i < 400; ++i) {
+            var p1 = commits.get(commits.size() - 1 - random.nextInt(Math.min(commits.size(), 20)));
+            if (random.nextInt(5) == 0) {
+                var p2 = commits.get(random.nextInt(commits.size()));
+                commits.add(p1.equals(p2)
+                            ? repo.commit("c" + i, p1)
+                            : repo.commit("m" + i, p1, p2));
+            } else {
+                commits.add(repo.commit("c" + i, p1));
+            }
+        }
+
+        for (int i = 0; i < 50; ++i) {
+            var a = commits.get(random.nextInt(commits.size()));
+            var b = commits.get(random.nextInt(commits.size()));
+            var expected = new AheadBehind(rangeCount(b, a), rangeCount(a, b));
+            assertThat(a.name() + " vs " + b.name(), AheadBehind.count(walk, a, b), is(expected));
+        }
+    }
+
+    @Test
+    public void testCommitGraph() throws IOException {
+        // Commit times are random, so only the generation numbers from the
+        // commit-graph give a correct walk order.
+        var random = new Random(1234);
+        var tree = repo.emptyTree();
+        var commits = new ArrayList<RevCommit>();
+        commits.add(repo.commit("root"));
+        for (int i = 0; i < 300; ++i) {
+            var p1 = commits.get(commits.size() - 1 - random.nextInt(Math.min(commits.size(), 10)));
+            var when = Instant.parse("2020-01-01T00:00:00Z").plusSeconds(random.nextInt(100_000));
+            if (random.nextInt(5) == 0) {
+                var p2 = commits.get(random.nextInt(commits.size()));
+                commits.add(p1.equals(p2)
+                            ? repo.commitAt(when, tree, "c" + i, p1)
+                            : repo.commitAt(when, tree, "m" + i, p1, p2));
+            } else {
+                commits.add(repo.commitAt(when, tree, "c" + i, p1));
+            }
+        }
+        for (var commit : commits) {
+            repo.branch("b" + commit.name(), commit);
+        }
+        repo.gc(true);
+        // Some commits newer than the commit-graph.
+        for (int i = 0; i < 30; ++i) {
+            var p1 = commits.get(commits.size() - 1 - random.nextInt(10));
+            commits.add(repo.commit("n" + i, p1));
+        }
+
+        try (var session = new GitSession(repo.repository())) {
+            var graphWalk = session.walk();
+            assertThat(graphWalk.getObjectReader().getCommitGraph().isPresent(), is(true));
+            for (int i = 0; i < 100; ++i) {
+                var a = commits.get(random.nextInt(commits.size()));
+                var b = commits.get(random.nextInt(commits.size()));
+                var expected = new AheadBehind(rangeCount(b, a), rangeCount(a, b));
+                assertThat(a.name() + " vs " + b.name(), AheadBehind.count(graphWalk, a, b), is(expected));
+            }
+        }
+    }
+
+    private int rangeCount(RevCommit since, RevCommit until) throws IOException {
+        // Full reachability, so the reference is not affected by clock skew.
+        var reachable = reachable(until);
+        reachable.removeAll(reachable(since));
+        return reachable.size();
+    }
+
+    private Set<ObjectId> reachable(RevCommit tip) throws IOException {
+        try (var reference = new RevWalk(repo.repository())) {
+            var seen = new HashSet<ObjectId>();
+            var pending = new ArrayDeque<RevCommit>();
+            pending.add(reference.parseCommit(tip));
+            while (!pending.isEmpty()) {
+                var commit = pending.poll();
+                if (seen.add(commit.toObjectId())) {
+                    for (var parent : commit.getParents()) {
+                        pending.add(reference.parseCommit(parent));
+                    }
+                }
+            }
+            return seen;
+        }
+    }
+}
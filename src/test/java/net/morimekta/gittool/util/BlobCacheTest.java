@@ -0,0 +1,157 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BlobCacheTest {
+    @TempDir
+    public Path tmp;
+
+    @Test
+    public void testLinkedOnSecondRun() throws Exception {
+        try (var repo = SyntheticRepo.create(tmp.resolve("repo"))) {
+            var cache = BlobCache.load(config(BlobCache.DEFAULT_SIZE), Map.of());
+            var ids = new ArrayList<ObjectId>();
+            try (var inserter = repo.repository().newObjectInserter()) {
+                for (int i = 0; i < 20; ++i) {
+                    ids.add(inserter.insert(Constants.OBJ_BLOB, ("blob " + i + "\n").getBytes(UTF_8)));
+                }
+                inserter.flush();
+            }
+
+            var first = cache.newRunFolder("gt-diff");
+            assertThat(first.getParent(), is(tmp.resolve("cache/runs")));
+            var metrics = new Metrics(true);
+            extract(repo, metrics, cache, ids, first);
+            assertThat(metrics.get(Metrics.Counter.BLOBS_OPENED), is(20L));
+            assertThat(metrics.get(Metrics.Counter.BLOBS_CACHED), is(0L));
+
+            var second = cache.newRunFolder("gt-diff");
+            metrics = new Metrics(true);
+            extract(repo, metrics, cache, ids, second);
+            assertThat(metrics.get(Metrics.Counter.BLOBS_OPENED), is(0L));
+            assertThat(metrics.get(Metrics.Counter.BLOBS_CACHED), is(20L));
+
+            var file = second.resolve("file-7.txt");
+            assertThat(Files.readString(file), is("blob 7\n"));
+            assertThat(Files.isSameFile(file, first.resolve("file-7.txt")), is(true));
+            assertThat(Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_WRITE), is(false));
+            assertThat(cache.evict(), is(0));
+        }
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        var cache = BlobCache.load(config(250), Map.of());
+        var run = cache.newRunFolder("gt-diff");
+        var ids = new ArrayList<ObjectId>();
+        for (int i = 0; i < 3; ++i) {
+            var content = ("x".repeat(99) + i).getBytes(UTF_8);
+            var id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content);
+            assertThat(cache.add(id, new ByteArrayInputStream(content), run.resolve("file-" + i)), is(true));
+            ids.add(id);
+        }
+        // Set the use times, oldest first, and use the first again.
+        for (int i = 0; i < 3; ++i) {
+            Files.setLastModifiedTime(cached(ids.get(i)), FileTime.from(Instant.now().minusSeconds(60 - i)));
+        }
+        assertThat(cache.link(ids.get(0), run.resolve("again")), is(true));
+
+        assertThat(cache.evict(), is(1));
+        assertThat(Files.exists(cached(ids.get(0))), is(true));
+        assertThat(Files.exists(cached(ids.get(1))), is(false));
+        assertThat(Files.exists(cached(ids.get(2))), is(true));
+        // Links to evicted blobs still work.
+        assertThat(Files.readString(run.resolve("file-1")), is("x".repeat(99) + 1));
+        assertThat(cache.link(ids.get(1), run.resolve("gone")), is(false));
+    }
+
+    @Test
+    public void testNotPrivate() throws Exception {
+        var dir = Files.createDirectory(tmp.resolve("cache"),
+                                        PosixFilePermissions.asFileAttribute(
+                                                PosixFilePermissions.fromString("rwxrwxrwx")));
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+        var content = "planted\n".getBytes(UTF_8);
+        var id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content);
+        Files.createDirectories(cached(id).getParent());
+        Files.write(cached(id), content);
+
+        var cache = BlobCache.load(config(BlobCache.DEFAULT_SIZE), Map.of());
+        var run = cache.newRunFolder("gt-diff");
+        assertThat(run.startsWith(dir), is(false));
+        assertThat(cache.link(id, run.resolve("file")), is(false));
+        assertThat(cache.add(id, new ByteArrayInputStream(content), run.resolve("file")), is(false));
+        assertThat(Files.exists(run.resolve("file")), is(false));
+        assertThat(cache.evict(), is(0));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        var cache = BlobCache.load(config(0), Map.of());
+        assertThat(cache.isEnabled(), is(false));
+        assertThat(cache.link(ObjectId.zeroId(), tmp.resolve("file")), is(false));
+        assertThat(cache.evict(), is(0));
+    }
+
+    private Config config(long size) {
+        var config = new Config();
+        config.setString("gt", null, "blobCache", tmp.resolve("cache").toString());
+        config.setLong("gt", null, "blobCacheSize", size);
+        return config;
+    }
+
+    private Path cached(ObjectId id) {
+        return tmp.resolve("cache/objects").resolve(id.name().substring(0, 2)).resolve(id.name().substring(2));
+    }
+
+    private static void extract(SyntheticRepo repo, Metrics metrics, BlobCache cache, List<ObjectId> ids, Path dir)
+            throws Exception {
+        var blobs = new ArrayList<BlobExtractor.Blob>();
+        for (int i = 0; i < ids.size(); ++i) {
+            blobs.add(new BlobExtractor.Blob(ids.get(i), dir.resolve("file-" + i + ".txt")));
+        }
+        try (var extractor = BlobExtractor.start(repo.repository(), metrics, cache, blobs, 4)) {
+            extractor.await();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BlobExtractorTest {
+    @Test
+    public void testExtractPackedAndLoose(@TempDir Path tmp, @TempDir Path out) throws Exception {
+        try (var repo = SyntheticRepo.create(tmp)) {
+            var generated = repo.generate(new SyntheticRepo.Shape(20, 0, 200, 0), 20);
+            repo.gc(false);
+
+            var blobs = new ArrayList<BlobExtractor.Blob>();
+            var expected = new HashMap<Path, ObjectId>();
+            try (var walk = new TreeWalk(repo.repository())) {
+                walk.addTree(generated.master().getTree());
+                walk.setRecursive(true);
+                while (walk.next()) {
+                    var file = out.resolve(walk.getPathString());
+                    blobs.add(new BlobExtractor.Blob(walk.getObjectId(0), file));
+                    expected.put(file, walk.getObjectId(0));
+                }
+            }
+            try (var inserter = repo.repository().newObjectInserter()) {
+                var loose = inserter.insert(Constants.OBJ_BLOB, "loose\n".getBytes(UTF_8));
+                inserter.flush();
+                var file = out.resolve("loose/file.txt");
+                blobs.add(new BlobExtractor.Blob(loose, file));
+                expected.put(file, loose);
+            }
+
+            var metrics = new Metrics(true);
+            try (var extractor = BlobExtractor.start(repo.repository(), metrics, BlobCache.disabled(), blobs, 4)) {
+                extractor.await();
+            }
+            assertThat(metrics.get(Metrics.Counter.BLOBS_OPENED), is((long) blobs.size()));
+            assertThat(hashes(expected.keySet().stream().toList()), is(expected));
+        }
+    }
+
+    private static Map<Path, ObjectId> hashes(Iterable<Path> files) throws Exception {
+        var out = new HashMap<Path, ObjectId>();
+        try (var inserter = new ObjectInserter.Formatter()) {
+            for (var file : files) {
+                out.put(file, inserter.idFor(Constants.OBJ_BLOB, Files.readAllBytes(file)));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BlobPipesTest {
+    @TempDir
+    public Path tmp;
+
+    @Test
+    public void testStreamedWhenOpened() throws Exception {
+        try (var repo = SyntheticRepo.create(tmp.resolve("repo"))) {
+            ObjectId a;
+            ObjectId b;
+            try (var inserter = repo.repository().newObjectInserter()) {
+                a = inserter.insert(Constants.OBJ_BLOB, "blob a\n".getBytes(UTF_8));
+                b = inserter.insert(Constants.OBJ_BLOB, "blob b\n".getBytes(UTF_8));
+                inserter.flush();
+            }
+
+            var metrics = new Metrics(true);
+            var run = tmp.resolve("run");
+            var blobs = List.of(new BlobExtractor.Blob(a, run.resolve("a.txt")),
+                                new BlobExtractor.Blob(b, run.resolve("sub/b.txt")));
+            try (var ignore = BlobPipes.create(repo.repository(), metrics, blobs)) {
+                assertThat(Files.isRegularFile(run.resolve("a.txt")), is(false));
+                assertThat(metrics.get(Metrics.Counter.BLOBS_OPENED), is(0L));
+
+                assertThat(Files.readString(run.resolve("a.txt")), is("blob a\n"));
+                awaitStreamed(metrics, 1);
+                // Streamed again when opened again, after the reopen delay.
+                assertThat(Files.readString(run.resolve("a.txt")), is("blob a\n"));
+                awaitStreamed(metrics, 2);
+                assertThat(metrics.get(Metrics.Counter.BLOBS_OPENED), is(2L));
+                assertThat(metrics.get(Metrics.Counter.BLOBS_STREAMED), is(2L));
+            }
+            // Never opened, so never read.
+            assertThat(Files.exists(run.resolve("sub/b.txt")), is(true));
+            assertThat(metrics.get(Metrics.Counter.BLOBS_STREAMED), is(2L));
+        }
+    }
+
+    @Test
+    public void testTooMany() throws Exception {
+        try (var repo = SyntheticRepo.create(tmp.resolve("repo"))) {
+            var blobs = new ArrayList<BlobExtractor.Blob>();
+            for (int i = 0; i <= BlobPipes.MAX_PIPES; ++i) {
+                blobs.add(new BlobExtractor.Blob(ObjectId.zeroId(), tmp.resolve("run/" + i)));
+            }
+            var e = assertThrows(IOException.class,
+                                 () -> BlobPipes.create(repo.repository(), new Metrics(false), blobs));
+            assertThat(e.getMessage(), is("Too many blobs for pipes: 1001 > 1000"));
+            assertThat(Files.exists(tmp.resolve("run")), is(false));
+        }
+    }
+
+    private static void awaitStreamed(Metrics metrics, long count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (metrics.get(Metrics.Counter.BLOBS_STREAMED) < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(metrics.get(Metrics.Counter.BLOBS_STREAMED), is(count));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static net.morimekta.gittool.util.Metrics.Counter.COMMITS_OPENED;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CommitPagesTest {
+    private SyntheticRepo repo;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        repo = SyntheticRepo.create(tmp);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        repo.close();
+    }
+
+    @Test
+    public void testLoadsPagesWhenAccessed() throws Exception {
+        var root = repo.chain("root", null, 1);
+        var tip = repo.chain("a", root, 1000);
+        var metrics = new Metrics(true);
+
+        try (var pages = new CommitPages(metrics.reader(repo.repository()), root, tip, 10)) {
+            // Only the first page is read, so the size is not known yet.
+            assertThat(pages.size(), is(11));
+            assertThat(pages.get(0).getShortMessage(), is("a 999"));
+            assertThat(pages.get(9).getShortMessage(), is("a 990"));
+            // The first page, and at most the prefetched page after it.
+            assertThat(metrics.get(COMMITS_OPENED), is(lessThan(30L)));
+
+            assertThat(pages.get(999).getShortMessage(), is("a 0"));
+            assertThrows(IndexOutOfBoundsException.class, () -> pages.get(1000));
+            assertThat(pages.size(), is(1000));
+        }
+    }
+
+    @Test
+    public void testEmptyRange() throws Exception {
+        var tip = repo.chain("a", null, 3);
+
+        try (var pages = new CommitPages(repo.repository().newObjectReader(), tip, tip, 10)) {
+            assertThat(pages.isEmpty(), is(true));
+            assertThrows(IndexOutOfBoundsException.class, () -> pages.get(0));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DiffStatTest {
+    @TempDir
+    public Path root;
+
+    private Git      git;
+    private DiffStat stat;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(root.toFile()).setInitialBranch("master").call();
+        git.getRepository().getConfig().setBoolean("commit", null, "gpgsign", false);
+        Files.writeString(root.resolve("a.txt"), "1\n2\n3\n4\n5\n6\n7\n8\n9\n");
+        Files.write(root.resolve("c.bin"), new byte[]{1, 2, 0, 3});
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial").call();
+        stat = new DiffStat(git.getRepository(), new Metrics(false), 2, 1024);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        stat.close();
+        git.close();
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        Files.writeString(root.resolve("a.txt"), "1\n2\nthree\n4\n5\n6\n7\n9\n10\n11\n");
+        assertThat(stat.get(blob("a.txt"), DiffStat.Side.file(root.resolve("a.txt"))),
+                   is(new DiffStat.Stat(3, 2, false)));
+        assertThat(stat.get(DiffStat.Side.NONE, blob("a.txt")),
+                   is(new DiffStat.Stat(9, 0, false)));
+        assertThat(stat.get(blob("a.txt"), DiffStat.Side.NONE),
+                   is(new DiffStat.Stat(0, 9, false)));
+    }
+
+    @Test
+    public void testSameBlob() throws Exception {
+        assertThat(stat.get(blob("a.txt"), blob("a.txt")), is(DiffStat.Stat.NONE));
+        assertThat(stat.get(blob("a.txt"), DiffStat.Side.file(root.resolve("a.txt"))),
+                   is(DiffStat.Stat.NONE));
+    }
+
+    @Test
+    public void testCheckInFiltering() throws Exception {
+        var config = git.getRepository().getConfig();
+        config.setString("core", null, "autocrlf", "true");
+        config.save();
+        Files.writeString(root.resolve("a.txt"), "1\r\n2\r\n3\r\n4\r\n5\r\n6\r\n7\r\n8\r\nnine\r\n");
+        // Line endings are converted as when added, so only the real change
+        // is counted.
+        assertThat(stat.get(blob("a.txt"), DiffStat.Side.file(root.resolve("a.txt"))),
+                   is(new DiffStat.Stat(1, 1, false)));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        Files.write(root.resolve("c.bin"), new byte[]{1, 2, 0, 4});
+        assertThat(stat.get(blob("c.bin"), DiffStat.Side.file(root.resolve("c.bin"))),
+                   is(new DiffStat.Stat(0, 0, true)));
+
+        // Larger than the max size.
+        Files.writeString(root.resolve("a.txt"), "line\n".repeat(1000));
+        assertThat(stat.get(blob("a.txt"), DiffStat.Side.file(root.resolve("a.txt"))),
+                   is(new DiffStat.Stat(0, 0, true)));
+    }
+
+    @Test
+    public void testReused() throws Exception {
+        var from = blob("a.txt");
+        var to = DiffStat.Side.file(root.resolve("a.txt"));
+        assertThat(stat.start(from, to), is(sameInstance(stat.start(from, to))));
+    }
+
+    private DiffStat.Side blob(String path) throws Exception {
+        return DiffStat.Side.blob(git.getRepository().resolve("HEAD:" + path));
+    }
+}
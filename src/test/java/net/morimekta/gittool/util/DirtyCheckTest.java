@@ -0,0 +1,139 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DirtyCheckTest {
+    @TempDir
+    public Path root;
+
+    private Git git;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(root.toFile()).setInitialBranch("master").call();
+        git.getRepository().getConfig().setBoolean("commit", null, "gpgsign", false);
+        Files.writeString(root.resolve(".gitignore"), "target/\n*.log\n");
+        Files.createDirectories(root.resolve("src/main"));
+        Files.writeString(root.resolve("src/main/a.txt"), "a\n");
+        Files.writeString(root.resolve("b.txt"), "b\n");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial").call();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        git.close();
+    }
+
+    private boolean dirty() throws Exception {
+        return DirtyCheck.hasUncommitted(git.getRepository());
+    }
+
+    @Test
+    public void testClean() throws Exception {
+        assertThat(dirty(), is(false));
+
+        Files.createDirectories(root.resolve("target/classes"));
+        Files.writeString(root.resolve("target/classes/c.class"), "c");
+        Files.writeString(root.resolve("src/main/out.log"), "log");
+        Files.createDirectories(root.resolve("empty"));
+        assertThat(dirty(), is(false));
+    }
+
+    @Test
+    public void testModified() throws Exception {
+        Files.writeString(root.resolve("src/main/a.txt"), "A\n");
+        assertThat(dirty(), is(true));
+    }
+
+    @Test
+    public void testStaged() throws Exception {
+        Files.writeString(root.resolve("src/main/a.txt"), "A\n");
+        git.add().addFilepattern("src/main/a.txt").call();
+        Files.writeString(root.resolve("src/main/a.txt"), "a\n");
+        assertThat(dirty(), is(true));
+    }
+
+    @Test
+    public void testUntracked() throws Exception {
+        Files.writeString(root.resolve("src/main/new.txt"), "new\n");
+        assertThat(dirty(), is(true));
+    }
+
+    @Test
+    public void testDeleted() throws Exception {
+        Files.delete(root.resolve("b.txt"));
+        assertThat(dirty(), is(true));
+
+        // A folder in place of the deleted file is not counted.
+        Files.createDirectories(root.resolve("b.txt"));
+        assertThat(dirty(), is(false));
+    }
+
+    @Test
+    public void testStopsAtFirstChange() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            Files.createDirectories(root.resolve("z" + i));
+            Files.writeString(root.resolve("z" + i + "/file.txt"), "z\n");
+        }
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("more").call();
+
+        // The first file in path order after .gitignore, so the folders
+        // after it are never scanned.
+        Files.writeString(root.resolve("b.txt"), "B\n");
+        var metrics = new Metrics(true);
+        assertThat(DirtyCheck.hasUncommitted(git.getRepository(), metrics, 1), is(true));
+        assertThat(metrics.get(Metrics.Counter.FILES_STATED), is(2L));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            Files.createDirectories(root.resolve("z" + i + "/sub"));
+            Files.writeString(root.resolve("z" + i + "/sub/file.txt"), "z\n");
+        }
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("more").call();
+
+        var metrics = new Metrics(true);
+        assertThat(DirtyCheck.hasUncommitted(git.getRepository(), metrics, 4), is(false));
+        assertThat(metrics.get(Metrics.Counter.FILES_STATED), is(13L));
+
+        // Found by any of the folder tasks.
+        Files.writeString(root.resolve("z9/sub/file.txt"), "Z\n");
+        assertThat(DirtyCheck.hasUncommitted(git.getRepository(), new Metrics(false), 4), is(true));
+        Files.writeString(root.resolve("z0/sub/new.txt"), "new\n");
+        assertThat(DirtyCheck.hasUncommitted(git.getRepository(), new Metrics(false), 4), is(true));
+    }
+}
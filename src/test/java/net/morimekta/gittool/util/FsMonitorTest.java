@@ -0,0 +1,217 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FsMonitorTest {
+    @TempDir
+    public Path root;
+    @TempDir
+    public Path hooks;
+
+    private Git  git;
+    private Path changed;
+    private Path calls;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(root.toFile()).setInitialBranch("master").call();
+        git.getRepository().getConfig().setBoolean("commit", null, "gpgsign", false);
+        Files.writeString(root.resolve(".gitignore"), "*.log\n");
+        Files.createDirectories(root.resolve("src/main"));
+        Files.writeString(root.resolve("src/main/a.txt"), "a\n");
+        Files.writeString(root.resolve("src/main/b.txt"), "b\n");
+        Files.writeString(root.resolve("c.txt"), "c\n");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial").call();
+
+        // Stub hook that reports the paths in the 'changed' file.
+        changed = hooks.resolve("changed");
+        calls = hooks.resolve("calls");
+        Files.writeString(changed, "");
+        hook("printf 'token-%s\\0' \"$(wc -l < " + calls + ")\"\ncat " + changed + "\n");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        git.close();
+    }
+
+    @Test
+    public void testOnlyChangedPaths() throws Exception {
+        Files.writeString(root.resolve("c.txt"), "changed\n");
+        assertThat(status(), is(List.of(" M c.txt")));
+        assertThat(Files.readAllLines(calls), is(List.of("2 builtin:fake")));
+        assertThat(Files.exists(root.resolve(".git/" + FsMonitor.FILE_NAME)), is(true));
+
+        // Not reported, so not seen.
+        Files.writeString(root.resolve("src/main/a.txt"), "changed\n");
+        var metrics = new Metrics(true);
+        assertThat(status(metrics), is(List.of(" M c.txt")));
+        assertThat(metrics.get(Metrics.Counter.FILES_STATED), is(1L));
+        assertThat(Files.readAllLines(calls), is(List.of("2 builtin:fake", "2 token-1")));
+
+        changed("src/main/a.txt", "src/main/new.txt", "src/main/new.log");
+        Files.writeString(root.resolve("src/main/new.txt"), "new\n");
+        Files.writeString(root.resolve("src/main/new.log"), "log\n");
+        assertThat(status(), is(List.of(" M c.txt", " M src/main/a.txt", "?? src/main/new.txt")));
+
+        // Dirty files are checked again, even when not reported.
+        changed();
+        Files.writeString(root.resolve("c.txt"), "c\n");
+        assertThat(status(), is(List.of(" M src/main/a.txt", "?? src/main/new.txt")));
+    }
+
+    @Test
+    public void testIndexChanges() throws Exception {
+        assertThat(status(), is(List.of()));
+
+        git.rm().setCached(true).addFilepattern("src/main/a.txt").call();
+        assertThat(status(), is(List.of("DA src/main/a.txt")));
+
+        Files.writeString(root.resolve("src/main/b.txt"), "changed\n");
+        changed("src/main/b.txt");
+        git.add().addFilepattern("src/main/b.txt").call();
+        changed();
+        // Staged modifications are shown as blank.
+        assertThat(status(), is(List.of("DA src/main/a.txt", "   src/main/b.txt")));
+    }
+
+    @Test
+    public void testFullScan() throws Exception {
+        assertThat(status(), is(List.of()));
+
+        Files.writeString(root.resolve("src/main/a.txt"), "changed\n");
+        changed("/");
+        assertThat(status(), is(List.of(" M src/main/a.txt")));
+
+        // A changed .gitignore may make any file untracked.
+        changed(".gitignore");
+        Files.writeString(root.resolve("build.log"), "log\n");
+        Files.writeString(root.resolve(".gitignore"), "");
+        assertThat(status(), is(List.of(" M .gitignore", "?? build.log", " M src/main/a.txt")));
+    }
+
+    @Test
+    public void testFailingHook() throws Exception {
+        hook("exit 1\n");
+        assertThat(status(), is(List.of()));
+        Files.writeString(root.resolve("src/main/a.txt"), "changed\n");
+        assertThat(status(), is(List.of(" M src/main/a.txt")));
+        assertThat(Files.exists(root.resolve(".git/" + FsMonitor.FILE_NAME)), is(false));
+    }
+
+    @Test
+    public void testVersion1() throws Exception {
+        hook("[ \"$1\" = 1 ] || exit 1\ncat " + changed + "\n");
+        assertThat(status(), is(List.of()));
+        var calls1 = Files.readAllLines(calls);
+        assertThat(calls1.get(0), is("2 builtin:fake"));
+        assertThat(calls1.get(1), is("1 0"));
+
+        Files.writeString(root.resolve("src/main/a.txt"), "changed\n");
+        assertThat(status(), is(List.of()));
+        changed("src/main/a.txt");
+        assertThat(status(), is(List.of(" M src/main/a.txt")));
+    }
+
+    @Test
+    public void testUntrackedCacheKept() throws Exception {
+        Files.writeString(root.resolve("src/main/new.txt"), "new\n");
+        settle();
+        assertThat(status(), is(List.of("?? src/main/new.txt")));
+        var cached = UntrackedCache.load(git.getRepository()).size();
+        assertThat(cached > 1, is(true));
+
+        // Only the root folder is scanned, the other folders stay cached.
+        changed("c.txt");
+        Files.writeString(root.resolve("c.txt"), "changed\n");
+        assertThat(status(), is(List.of(" M c.txt", "?? src/main/new.txt")));
+        assertThat(UntrackedCache.load(git.getRepository()).size(), is(cached));
+
+        // And are used by the next full scan.
+        changed("/");
+        var metrics = new Metrics(true);
+        assertThat(status(metrics), is(List.of(" M c.txt", "?? src/main/new.txt")));
+        assertThat(metrics.get(Metrics.Counter.DIRS_LISTED), is(0L));
+    }
+
+    private void hook(String script) throws IOException {
+        var hook = hooks.resolve("fsmonitor.sh");
+        Files.writeString(hook, "#!/bin/sh\necho \"$@\" >> " + calls + "\n" + script);
+        assertThat(hook.toFile().setExecutable(true), is(true));
+        var config = git.getRepository().getConfig();
+        config.setString("core", null, "fsmonitor", hook.toString());
+        config.save();
+    }
+
+    private void changed(String... paths) throws IOException {
+        var out = new StringBuilder();
+        for (var path : paths) {
+            out.append(path).append('\0');
+        }
+        Files.writeString(changed, out.toString());
+    }
+
+    /**
+     * Move the work tree folders back in time, as folders changed right
+     * before being listed are not cached.
+     */
+    private void settle() throws IOException {
+        var time = FileTime.from(Instant.now().minusSeconds(60));
+        try (var paths = Files.walk(root)) {
+            for (var path : paths.filter(Files::isDirectory).toList()) {
+                if (!root.relativize(path).startsWith(".git")) {
+                    Files.setLastModifiedTime(path, time);
+                }
+            }
+        }
+    }
+
+    private List<String> status() throws Exception {
+        return status(new Metrics(false));
+    }
+
+    private List<String> status(Metrics metrics) throws Exception {
+        var out = new ArrayList<String>();
+        WorktreeStatus.scan(git.getRepository(), metrics, 2, status -> {
+            out.add(status.stagedMod() + " " + status.path());
+            return true;
+        });
+        return out;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.SystemReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GitSessionTest {
+    private SyntheticRepo repo;
+    private GitSession    session;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        repo = SyntheticRepo.create(tmp);
+        session = new GitSession(repo.repository());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        session.close();
+        repo.close();
+    }
+
+    @Test
+    public void testSharedCommits() throws Exception {
+        var tip = repo.chain("a", null, 3);
+
+        var commit = session.commit(tip);
+        assertThat(commit.getShortMessage(), is("a 2"));
+        assertThat(session.commit(tip.copy()), is(sameInstance(commit)));
+
+        var walk = session.walk();
+        assertThat(session.walk(), is(sameInstance(walk)));
+
+        var other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new Object[]{session.walk(), session.commit(tip)};
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }).get();
+        assertThat(other[0], is(not(sameInstance(walk))));
+        assertThat(other[1], is(sameInstance(commit)));
+    }
+
+    @Test
+    public void testConfigNotChanged() throws Exception {
+        var tip = repo.chain("a", null, 3);
+        repo.gc(true, true);
+        var system = SystemReader.getInstance();
+        var jgit = system.getJGitConfig().toText();
+        var config = repo.repository().getConfig();
+        var user = config.getBaseConfig().toText();
+
+        try (var graphSession = new GitSession(repo.repository())) {
+            var walk = graphSession.walk();
+            assertThat(HistoryWalk.isKnown(walk.generation(tip)), is(true));
+        }
+
+        assertThat(SystemReader.getInstance(), is(sameInstance(system)));
+        assertThat(system.getJGitConfig().toText(), is(jgit));
+        assertThat(config.getBaseConfig().toText(), is(user));
+        assertThat(config.getString("core", null, "commitGraph"), is(nullValue()));
+        // Other readers of the repository do not see the session commit-graph.
+        try (var reader = repo.repository().newObjectReader()) {
+            assertThat(reader.getCommitGraph().isPresent(), is(false));
+        }
+    }
+
+    @Test
+    public void testCommitsKeepBodyWhenWalked() throws Exception {
+        var root = repo.chain("root", null, 2);
+        var a = repo.chain("a", root, 3);
+        var b = repo.chain("b", root, 3);
+        var commit = session.commit(a);
+
+        // Walking past uninteresting commits drops their bodies on the
+        // history walk, same as the log of 'a..b' would.
+        var walk = session.walk();
+        walk.markStart(walk.parseCommit(b));
+        walk.markUninteresting(walk.parseCommit(a));
+        while (walk.next() != null) {
+            // Just walk.
+        }
+        walk.reset();
+        assertThat(commit.getShortMessage(), is("a 2"));
+    }
+
+    @Test
+    public void testCommitsKeepBodyWithCommitGraph() throws Exception {
+        var root = repo.chain("root", null, 2);
+        var a = repo.chain("a", root, 3);
+        var b = repo.chain("b", root, 3);
+        repo.gc(true);
+
+        // Parents and commit times come from the commit-graph, but the
+        // shared commits still have their messages after walking past them.
+        try (var repository = new FileRepositoryBuilder().setGitDir(repo.repository().getDirectory()).build();
+             var graphSession = new GitSession(repository)) {
+            var walk = graphSession.walk();
+            assertThat(HistoryWalk.isKnown(walk.generation(a)), is(true));
+            var commit = graphSession.commit(a);
+            walk.markStart(walk.parseCommit(b));
+            walk.markUninteresting(walk.parseCommit(a));
+            while (walk.next() != null) {
+                // Just walk.
+            }
+            walk.reset();
+            assertThat(commit.getShortMessage(), is("a 2"));
+            assertThat(graphSession.commit(b).getShortMessage(), is("b 2"));
+        }
+    }
+}
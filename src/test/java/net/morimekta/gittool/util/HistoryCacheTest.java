@@ -0,0 +1,192 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import static net.morimekta.gittool.util.Metrics.Counter.COMMITS_OPENED;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class HistoryCacheTest {
+    private SyntheticRepo repo;
+    private HistoryWalk   walk;
+    private Path          gitDir;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws IOException {
+        repo = SyntheticRepo.create(tmp);
+        walk = new HistoryWalk(repo.repository());
+        gitDir = repo.repository().getDirectory().toPath();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        walk.close();
+        repo.close();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main = repo.chain("main", root, 20);
+        var branch = repo.chain("branch", root, 2);
+
+        var cache = HistoryCache.load(gitDir);
+        assertThat(cache.aheadBehind(walk, branch, main), is(new AheadBehind(2, 20)));
+        assertThat(cache.mergeBase(walk, main, branch), is(Optional.of(root)));
+        assertThat(cache.save(), is(true));
+        assertThat(cache.save(), is(false));
+
+        var loaded = HistoryCache.load(gitDir);
+        assertThat(loaded.aheadBehindSize(), is(1));
+        assertThat(loaded.mergeBaseSize(), is(1));
+        assertThat(loaded.aheadBehind(walk, branch, main), is(new AheadBehind(2, 20)));
+        assertThat(loaded.mergeBase(walk, branch, main), is(Optional.of(root)));
+
+        loaded.clear();
+        assertThat(Files.exists(loaded.file()), is(false));
+        assertThat(HistoryCache.load(gitDir).aheadBehindSize(), is(0));
+
+        // Deleted also when the cache is not loaded.
+        assertThat(cache.save(), is(false));
+        cache.aheadBehind(walk, main, branch);
+        assertThat(cache.save(), is(true));
+        HistoryCache.delete(gitDir);
+        assertThat(Files.exists(gitDir.resolve(HistoryCache.FILE_NAME)), is(false));
+    }
+
+    @Test
+    public void testFastForward() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main = repo.chain("main", root, 20);
+        var branch = repo.chain("branch", root, 2);
+
+        var cache = HistoryCache.inMemory();
+        assertThat(cache.aheadBehind(walk, branch, main), is(new AheadBehind(2, 20)));
+
+        // Both the local side and the other side moving forward.
+        var branch2 = repo.chain("branch more", branch, 5);
+        assertThat(cache.aheadBehind(walk, branch2, main), is(new AheadBehind(7, 20)));
+        var main2 = repo.chain("main more", main, 4);
+        assertThat(cache.aheadBehind(walk, branch2, main2), is(new AheadBehind(7, 24)));
+        assertThat(cache.aheadBehind(walk, main2, branch2), is(new AheadBehind(24, 7)));
+    }
+
+    @Test
+    public void testFastForwardIntoOther() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var branch = repo.chain("branch", root, 2);
+        var main1 = repo.chain("main", root, 3);
+        var main2 = repo.chain("main more", main1, 3);
+
+        var cache = HistoryCache.inMemory();
+        assertThat(cache.aheadBehind(walk, root, main2), is(new AheadBehind(0, 6)));
+        assertThat(cache.aheadBehind(walk, branch, main2), is(new AheadBehind(2, 6)));
+
+        // The new commits on the local side are already on the other side,
+        // so cannot just be added.
+        assertThat(cache.aheadBehind(walk, main1, main2), is(new AheadBehind(0, 3)));
+    }
+
+    @Test
+    public void testColdCacheCost() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main = repo.chain("main", root, 2 * HistoryCache.MAX_FAST_FORWARD);
+        var branch = repo.chain("branch", root, 2);
+        var other = repo.chain("other", root, 2);
+
+        long uncached = commitsOpened(w -> AheadBehind.count(w, main, branch));
+
+        // A cold cache reads no more commits than just counting.
+        var cache = HistoryCache.inMemory();
+        assertThat(commitsOpened(w -> cache.aheadBehind(w, main, branch)), is(uncached));
+
+        // Nor does a cache with no entries for the commits compared with.
+        var cache2 = HistoryCache.inMemory();
+        cache2.aheadBehind(walk, other, root);
+        assertThat(commitsOpened(w -> cache2.aheadBehind(w, main, branch)), is(uncached));
+
+        // A warm cache walks at most the bound before giving up.
+        var cache3 = HistoryCache.inMemory();
+        cache3.aheadBehind(walk, other, branch);
+        assertThat(commitsOpened(w -> cache3.aheadBehind(w, main, branch)),
+                   is(lessThanOrEqualTo(uncached + 2 * HistoryCache.MAX_FAST_FORWARD)));
+    }
+
+    @Test
+    public void testMergesKeptOnConcurrentSave() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var a = repo.chain("a", root, 2);
+        var b = repo.chain("b", root, 3);
+
+        var first = HistoryCache.load(gitDir);
+        var second = HistoryCache.load(gitDir);
+        first.aheadBehind(walk, a, root);
+        second.aheadBehind(walk, b, root);
+        assertThat(first.save(), is(true));
+        assertThat(second.save(), is(true));
+
+        assertThat(HistoryCache.load(gitDir).aheadBehindSize(), is(2));
+
+        // Save is skipped while another process holds the lock.
+        var third = HistoryCache.load(gitDir);
+        third.aheadBehind(walk, a, b);
+        try (var channel = FileChannel.open(gitDir.resolve(HistoryCache.FILE_NAME + ".lock"),
+                                            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             var ignore = channel.lock()) {
+            assertThat(third.save(), is(false));
+        }
+        assertThat(HistoryCache.load(gitDir).aheadBehindSize(), is(2));
+
+        // A lock file left behind does not block saving.
+        assertThat(third.save(), is(true));
+        assertThat(HistoryCache.load(gitDir).aheadBehindSize(), is(3));
+        try (var files = Files.list(gitDir)) {
+            assertThat(files.filter(f -> f.toString().endsWith(".tmp")).count(), is(0L));
+        }
+    }
+
+    private long commitsOpened(Counting counting) throws IOException {
+        var metrics = new Metrics(true);
+        try (var reader = metrics.reader(repo.repository());
+             var counted = new HistoryWalk(reader)) {
+            counting.count(counted);
+        }
+        return metrics.get(COMMITS_OPENED);
+    }
+
+    @FunctionalInterface
+    private interface Counting {
+        void count(HistoryWalk walk) throws IOException;
+    }
+}
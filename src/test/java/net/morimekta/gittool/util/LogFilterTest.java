@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.TreeRevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LogFilterTest {
+    private SyntheticRepo repo;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        repo = SyntheticRepo.create(tmp);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        repo.close();
+    }
+
+    @Test
+    public void testMessageAndTime() throws Exception {
+        // Commit times are one minute apart from 2020-01-01T00:00Z.
+        var tip = repo.chain("a", null, 10);
+
+        assertThat(log(tip, LogFilter.ALL).size(), is(10));
+        assertThat(log(tip, new LogFilter(null, "a [13]$", null, null, List.of())),
+                   is(List.of("a 3", "a 1")));
+        assertThat(log(tip, new LogFilter(null, null,
+                                          Instant.parse("2020-01-01T00:08:00Z"), null, List.of())),
+                   is(List.of("a 9", "a 8", "a 7")));
+        assertThat(log(tip, new LogFilter(null, null,
+                                          Instant.parse("2020-01-01T00:03:00Z"),
+                                          Instant.parse("2020-01-01T00:04:00Z"), List.of())),
+                   is(List.of("a 3", "a 2")));
+        assertThat(log(tip, new LogFilter("nobody", null, null, null, List.of())),
+                   is(List.of()));
+    }
+
+    @Test
+    public void testPaths() throws Exception {
+        var one = repo.commit(tree("a.txt", "1"), "one");
+        var two = repo.commit(tree("a.txt", "1", "b.txt", "1"), "two", one);
+        var three = repo.commit(tree("a.txt", "2", "b.txt", "1"), "three", two);
+        var four = repo.commit(tree("a.txt", "2", "b.txt", "2"), "four", three);
+
+        assertThat(log(four, new LogFilter(null, null, null, null, List.of("a.txt"))),
+                   is(List.of("three", "one")));
+        assertThat(log(four, new LogFilter(null, "^t", null, null, List.of("b.txt"))),
+                   is(List.of("two")));
+    }
+
+    @Test
+    public void testChangedPathFilters() throws Exception {
+        var generated = repo.generate(new SyntheticRepo.Shape(300, 0, 1000, 0), 300);
+        var path = SyntheticRepo.generatedPath(0);
+        var filter = new LogFilter(null, null, null, null, List.of(path.substring(0, path.lastIndexOf('/'))));
+
+        repo.gc(true, false);
+        var expected = pathLog(generated.master(), filter, false);
+        repo.gc(true, true);
+        var actual = pathLog(generated.master(), filter, true);
+        assertThat(actual, is(expected));
+        assertThat(actual.isEmpty(), is(false));
+    }
+
+    @Test
+    public void testParseDate() {
+        assertThat(LogFilter.parseDate("2020-01-02T03:04:05Z"), is(Instant.parse("2020-01-02T03:04:05Z")));
+        assertThat(LogFilter.parseDate("2020-01-02T03:04:05+01:00"), is(Instant.parse("2020-01-02T02:04:05Z")));
+
+        var weeks = LogFilter.parseDate("2.weeks.ago");
+        var expected = Instant.now().minusSeconds(14 * 24 * 3600);
+        assertThat(Math.abs(weeks.getEpochSecond() - expected.getEpochSecond()) < 60, is(true));
+
+        var e = assertThrows(IllegalArgumentException.class, () -> LogFilter.parseDate("yesterday"));
+        assertThat(e.getMessage(), is("Invalid date: yesterday"));
+    }
+
+    private List<String> log(RevCommit tip, LogFilter filter) throws IOException {
+        var out = new ArrayList<String>();
+        try (var walk = new RevWalk(repo.repository())) {
+            walk.setRevFilter(filter.revFilter(walk));
+            walk.markStart(walk.parseCommit(tip));
+            for (var commit : walk) {
+                out.add(commit.getShortMessage());
+            }
+        }
+        return out;
+    }
+
+    private List<String> pathLog(RevCommit tip, LogFilter filter, boolean bloom) throws IOException {
+        var out = new ArrayList<String>();
+        try (var repository = new FileRepositoryBuilder().setGitDir(repo.repository().getDirectory()).build();
+             var session = new GitSession(repository)) {
+            var walk = session.walk();
+            var revFilter = (TreeRevFilter) filter.revFilter(walk);
+            walk.setRevFilter(revFilter);
+            walk.markStart(walk.parseCommit(tip));
+            for (var commit : walk) {
+                out.add(commit.name());
+            }
+            if (bloom) {
+                // Commits that did not change the path were skipped by
+                // the Bloom filters, without a tree diff.
+                assertThat(revFilter.getChangedPathFilterNegative(), is(greaterThan(0L)));
+            } else {
+                assertThat(revFilter.getChangedPathFilterNegative(), is(0L));
+            }
+        }
+        return out;
+    }
+
+    private ObjectId tree(String... pathAndContent) throws IOException {
+        try (var inserter = repo.repository().newObjectInserter()) {
+            var tree = new TreeFormatter();
+            for (int i = 0; i < pathAndContent.length; i += 2) {
+                var blob = inserter.insert(Constants.OBJ_BLOB,
+                                           pathAndContent[i + 1].getBytes(StandardCharsets.UTF_8));
+                tree.append(pathAndContent[i], FileMode.REGULAR_FILE, blob);
+            }
+            var id = inserter.insert(tree);
+            inserter.flush();
+            return id;
+        }
+    }
+}
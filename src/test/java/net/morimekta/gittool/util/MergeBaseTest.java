@@ -0,0 +1,120 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MergeBaseTest {
+    private SyntheticRepo repo;
+    private RevWalk       walk;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws IOException {
+        repo = SyntheticRepo.create(tmp);
+        walk = new RevWalk(repo.repository());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        walk.close();
+        repo.close();
+    }
+
+    @Test
+    public void testLinear() throws IOException {
+        var a = repo.chain("a", null, 5);
+        var b = repo.chain("b", a, 3);
+
+        assertThat(MergeBase.all(walk, a, b), is(List.of(a)));
+        assertThat(MergeBase.all(walk, b, a), is(List.of(a)));
+        assertThat(MergeBase.all(walk, b, b), is(List.of(b)));
+    }
+
+    @Test
+    public void testFork() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main = repo.chain("main", root, 100);
+        var branch = repo.chain("branch", root, 2);
+
+        assertThat(MergeBase.best(walk, main, branch), is(Optional.of(root)));
+        assertThat(MergeBase.best(walk, branch, main), is(Optional.of(root)));
+    }
+
+    @Test
+    public void testMergedBack() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main1 = repo.chain("main", root, 3);
+        var branch1 = repo.chain("branch", root, 2);
+        var merge = repo.commit("merge main", branch1, main1);
+        var branch2 = repo.chain("branch more", merge, 2);
+        var main2 = repo.chain("main more", main1, 4);
+
+        assertThat(MergeBase.all(walk, main2, branch2), is(List.of(main1)));
+    }
+
+    @Test
+    public void testCrissCross() throws IOException {
+        var root = repo.chain("root", null, 2);
+        var a1 = repo.commit("a1", root);
+        var b1 = repo.commit("b1", root);
+        var a2 = repo.commit("a2", a1, b1);
+        var b2 = repo.commit("b2", b1, a1);
+        var a3 = repo.commit("a3", a2);
+        var b3 = repo.commit("b3", b2);
+
+        // Both a1 and b1 are best common ancestors, newest first.
+        assertThat(MergeBase.all(walk, a3, b3), is(List.of(b1, a1)));
+        assertThat(MergeBase.best(walk, a3, b3), is(Optional.of(b1)));
+    }
+
+    @Test
+    public void testUnrelated() throws IOException {
+        var a = repo.chain("a", null, 3);
+        var b = repo.chain("b", null, 3);
+
+        assertThat(MergeBase.all(walk, a, b), is(List.of()));
+        assertThat(MergeBase.best(walk, a, b), is(Optional.empty()));
+    }
+
+    @Test
+    public void testReusesWalk() throws IOException {
+        var root = repo.chain("root", null, 3);
+        var main = repo.chain("main", root, 10);
+        var branch = repo.chain("branch", root, 2);
+
+        assertThat(MergeBase.best(walk, main, branch), is(Optional.of(root)));
+        // The walk is reset, so it can be used again right away.
+        assertThat(MergeBase.best(walk, main, root), is(Optional.of(root)));
+        assertThat(walk.parseCommit(main), is(main));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static net.morimekta.gittool.util.Metrics.Counter.COMMITS_OPENED;
+import static net.morimekta.gittool.util.Metrics.Counter.COMMITS_PARSED;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricsTest {
+    private SyntheticRepo repo;
+    private Metrics       metrics;
+    private GitSession    session;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        repo = SyntheticRepo.create(tmp.resolve("repo"));
+        metrics = new Metrics(true);
+        session = new GitSession(repo.repository(), metrics);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        session.close();
+        repo.close();
+    }
+
+    @Test
+    public void testCountsObjects() throws Exception {
+        var tip = repo.chain("a", null, 5);
+
+        var walk = session.walk();
+        walk.markStart(walk.parseCommit(tip));
+        int walked = 0;
+        while (walk.next() != null) {
+            ++walked;
+        }
+        walk.reset();
+        assertThat(walked, is(5));
+        assertThat(metrics.get(COMMITS_OPENED), is(5L));
+
+        session.commit(tip);
+        session.commit(tip);
+        assertThat(metrics.get(COMMITS_PARSED), is(1L));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        var disabled = new Metrics(false);
+        try (var other = new GitSession(repo.repository(), disabled)) {
+            other.commit(repo.chain("a", null, 2));
+        }
+        assertThat(disabled.get(COMMITS_OPENED), is(0L));
+        assertThat(disabled.get(COMMITS_PARSED), is(0L));
+    }
+
+    @Test
+    public void testAppend(@TempDir Path tmp) throws Exception {
+        session.commit(repo.chain("a", null, 2));
+
+        var file = tmp.resolve("metrics.json");
+        metrics.append(file, List.of("st", "\"quoted\""), tmp, 12);
+        metrics.append(file, List.of("l"), null, 3);
+
+        var lines = Files.readAllLines(file);
+        assertThat(lines.size(), is(2));
+        assertThat(lines.get(0), containsString("\"args\":[\"st\",\"\\\"quoted\\\"\"]"));
+        assertThat(lines.get(0), containsString("\"wall_ms\":12,"));
+        assertThat(lines.get(0), containsString("\"commits_parsed\":1,"));
+        assertThat(lines.get(1), containsString("\"repository\":null,"));
+    }
+}
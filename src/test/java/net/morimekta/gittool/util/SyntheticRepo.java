@@ -0,0 +1,439 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.FS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Builds commit graphs directly through the object inserter, so tests
+ * and benchmarks can make histories of many thousand commits without
+ * touching a work tree.
+ */
+public class SyntheticRepo implements Closeable {
+    private static final Instant EPOCH            = Instant.parse("2020-01-01T00:00:00Z");
+    private static final int     FILES_PER_DIR    = 100;
+    private static final int     DIRS_PER_DIR     = 100;
+    private static final int     FILES_PER_COMMIT = 3;
+    private static final int     LINES_PER_FILE   = 40;
+
+    private final Git            git;
+    private final ObjectInserter inserter;
+    private final RevWalk        walk;
+    private final ObjectId       emptyTree;
+
+    private long tick = 0;
+
+    private SyntheticRepo(Git git) throws IOException {
+        this.git = git;
+        this.inserter = git.getRepository().newObjectInserter();
+        this.walk = new RevWalk(git.getRepository());
+        this.emptyTree = inserter.insert(new TreeFormatter());
+    }
+
+    public static SyntheticRepo create(Path root) throws IOException {
+        try {
+            var git = Git.init()
+                         .setDirectory(root.toFile())
+                         .setInitialBranch("master")
+                         .call();
+            var config = git.getRepository().getConfig();
+            config.setBoolean("commit", null, "gpgsign", false);
+            config.save();
+            return new SyntheticRepo(git);
+        } catch (GitAPIException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public Git git() {
+        return git;
+    }
+
+    public Repository repository() {
+        return git.getRepository();
+    }
+
+    public ObjectId emptyTree() {
+        return emptyTree;
+    }
+
+    /**
+     * Make a commit with the given parents. Each commit gets a commit time
+     * one minute after the previous, so date ordering follows creation order.
+     *
+     * @param message The commit message.
+     * @param parents The parent commits.
+     * @return The new commit.
+     * @throws IOException If unable to insert the commit.
+     */
+    public RevCommit commit(String message, RevCommit... parents) throws IOException {
+        return commit(emptyTree, message, parents);
+    }
+
+    public RevCommit commit(ObjectId tree, String message, RevCommit... parents) throws IOException {
+        return commitAt(EPOCH.plusSeconds(60 * (++tick)), tree, message, parents);
+    }
+
+    /**
+     * Make a commit with an explicit commit time, e.g. to simulate clock skew.
+     *
+     * @param when    The commit time.
+     * @param tree    The commit tree.
+     * @param message The commit message.
+     * @param parents The parent commits.
+     * @return The new commit.
+     * @throws IOException If unable to insert the commit.
+     */
+    public RevCommit commitAt(Instant when, ObjectId tree, String message, RevCommit... parents) throws IOException {
+        var ident = new PersonIdent("Synthetic", "synthetic@example.com", when, ZoneOffset.UTC);
+        var builder = new CommitBuilder();
+        builder.setTreeId(tree);
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage(message);
+        for (var parent : parents) {
+            builder.addParentId(parent);
+        }
+        var id = inserter.insert(builder);
+        inserter.flush();
+        return walk.parseCommit(id);
+    }
+
+    /**
+     * Make a linear chain of commits on top of parent.
+     *
+     * @param prefix The commit message prefix.
+     * @param parent The parent of the first commit, or null for a new root.
+     * @param count  Number of commits to make.
+     * @return The last commit in the chain.
+     * @throws IOException If unable to insert the commits.
+     */
+    public RevCommit chain(String prefix, RevCommit parent, int count) throws IOException {
+        var current = parent;
+        for (int i = 0; i < count; ++i) {
+            current = current == null
+                      ? commit(prefix + " " + i)
+                      : commit(prefix + " " + i, current);
+        }
+        return current;
+    }
+
+    /**
+     * The size of a generated repository.
+     *
+     * @param commits    Number of commits on master.
+     * @param branches   Number of branches forked from master.
+     * @param files      Number of files in the tree, 100 per directory.
+     * @param divergence Number of commits on each branch, and the maximum
+     *                   number of commits master has moved on since the
+     *                   branch was forked.
+     */
+    public record Shape(int commits, int branches, int files, int divergence) {}
+
+    /**
+     * A generated repository.
+     *
+     * @param master   The master head.
+     * @param branches The branch heads, named 'branch-N'.
+     */
+    public record Generated(RevCommit master, List<RevCommit> branches) {}
+
+    /**
+     * Generate master and branches with file content, and check out master
+     * in the work tree. Each commit changes a few files. Each branch tracks
+     * a branch on the 'origin' remote, which is one commit behind it.
+     *
+     * @param shape The repository size.
+     * @param seed  Random seed, so the same shape gives the same history.
+     * @return The generated heads.
+     * @throws IOException If unable to generate the repository.
+     */
+    public Generated generate(Shape shape, long seed) throws IOException {
+        var random = new Random(seed);
+        var forks = new int[shape.branches()];
+        for (int b = 0; b < forks.length; ++b) {
+            forks[b] = Math.max(0, shape.commits() - random.nextInt(shape.divergence() + 1));
+        }
+        var forkTrees = new HashMap<Integer, GeneratedTree>();
+        for (int fork : forks) {
+            forkTrees.put(fork, null);
+        }
+
+        var tree = new GeneratedTree(shape.files());
+        var master = new ArrayList<RevCommit>();
+        var current = commit(tree.root(), "root");
+        master.add(current);
+        for (int i = 1; i <= shape.commits(); ++i) {
+            if (forkTrees.containsKey(i - 1)) {
+                forkTrees.put(i - 1, new GeneratedTree(tree));
+            }
+            current = commit(tree.change(random), "master " + i, current);
+            master.add(current);
+        }
+        if (forkTrees.containsKey(shape.commits())) {
+            forkTrees.put(shape.commits(), new GeneratedTree(tree));
+        }
+        branch("master", current);
+
+        var config = repository().getConfig();
+        config.setString("remote", "origin", "url", repository().getDirectory().getPath());
+        config.setString("remote", "origin", "fetch", "+refs/heads/*:refs/remotes/origin/*");
+        var branches = new ArrayList<RevCommit>();
+        for (int b = 0; b < shape.branches(); ++b) {
+            var fork = master.get(forks[b]);
+            var branchTree = new GeneratedTree(forkTrees.get(forks[b]));
+            var pushed = fork;
+            var tip = fork;
+            for (int i = 0; i < shape.divergence(); ++i) {
+                pushed = tip;
+                tip = commit(branchTree.change(random), "branch " + b + " " + i, tip);
+            }
+            var name = "branch-" + b;
+            branch(name, tip);
+            ref(Constants.R_REMOTES + "origin/" + name, pushed);
+            config.setString("branch", name, "remote", "origin");
+            config.setString("branch", name, "merge", Constants.R_HEADS + name);
+            branches.add(tip);
+        }
+        config.save();
+
+        try {
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(Constants.R_HEADS + "master").call();
+        } catch (GitAPIException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        refreshIndex();
+        return new Generated(current, List.copyOf(branches));
+    }
+
+    /**
+     * Files just written by a checkout are racily clean, and have to be read
+     * to check if they are modified. Once the timestamp resolution has
+     * passed, the index is written again with the file stats, same as
+     * 'git update-index --refresh', so later checks only need the stats.
+     *
+     * @throws IOException If unable to update the index.
+     */
+    public void refreshIndex() throws IOException {
+        var root = repository().getWorkTree().toPath();
+        try {
+            Thread.sleep(FS.FileStoreAttributes.get(root).getFsTimestampResolution().toMillis() + 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        var index = repository().lockDirCache();
+        try {
+            for (int i = 0; i < index.getEntryCount(); ++i) {
+                var entry = index.getEntry(i);
+                var file = root.resolve(entry.getPathString());
+                entry.setLength(Files.size(file));
+                entry.setLastModified(Files.getLastModifiedTime(file).toInstant());
+            }
+            index.write();
+            index.commit();
+        } finally {
+            index.unlock();
+        }
+    }
+
+    /**
+     * @param file The generated file number.
+     * @return The path of the file relative to the repository root.
+     */
+    public static String generatedPath(int file) {
+        int dir = file / FILES_PER_DIR;
+        return String.format("d%02d/d%04d/f%06d.txt", dir / DIRS_PER_DIR, dir, file);
+    }
+
+    /**
+     * The files of a generated tree, in two levels of directories, so
+     * changing a file only rewrites small trees, even with many files.
+     */
+    private class GeneratedTree {
+        private final ObjectId[] blobs;
+        private final ObjectId[] dirs;
+        private final ObjectId[] top;
+
+        private GeneratedTree(int files) throws IOException {
+            blobs = new ObjectId[files];
+            dirs = new ObjectId[(files + FILES_PER_DIR - 1) / FILES_PER_DIR];
+            top = new ObjectId[(dirs.length + DIRS_PER_DIR - 1) / DIRS_PER_DIR];
+            for (int file = 0; file < blobs.length; ++file) {
+                blobs[file] = blob(file, 0);
+            }
+            for (int d = 0; d < dirs.length; ++d) {
+                dirs[d] = dir(d);
+            }
+            for (int t = 0; t < top.length; ++t) {
+                top[t] = top(t);
+            }
+        }
+
+        private GeneratedTree(GeneratedTree other) {
+            blobs = other.blobs.clone();
+            dirs = other.dirs.clone();
+            top = other.top.clone();
+        }
+
+        private ObjectId change(Random random) throws IOException {
+            var changed = new TreeSet<Integer>();
+            for (int i = 0; i < FILES_PER_COMMIT && blobs.length > 0; ++i) {
+                int file = random.nextInt(blobs.length);
+                blobs[file] = blob(file, 1 + random.nextInt(1 << 20));
+                changed.add(file / FILES_PER_DIR);
+            }
+            var changedTop = new TreeSet<Integer>();
+            for (int d : changed) {
+                dirs[d] = dir(d);
+                changedTop.add(d / DIRS_PER_DIR);
+            }
+            for (int t : changedTop) {
+                top[t] = top(t);
+            }
+            return root();
+        }
+
+        private ObjectId root() throws IOException {
+            var tree = new TreeFormatter();
+            for (int t = 0; t < top.length; ++t) {
+                tree.append(String.format("d%02d", t), FileMode.TREE, top[t]);
+            }
+            return inserter.insert(tree);
+        }
+
+        private ObjectId top(int t) throws IOException {
+            var tree = new TreeFormatter();
+            var end = Math.min(dirs.length, (t + 1) * DIRS_PER_DIR);
+            for (int d = t * DIRS_PER_DIR; d < end; ++d) {
+                tree.append(String.format("d%04d", d), FileMode.TREE, dirs[d]);
+            }
+            return inserter.insert(tree);
+        }
+
+        private ObjectId dir(int d) throws IOException {
+            var tree = new TreeFormatter();
+            var end = Math.min(blobs.length, (d + 1) * FILES_PER_DIR);
+            for (int file = d * FILES_PER_DIR; file < end; ++file) {
+                tree.append(String.format("f%06d.txt", file), FileMode.REGULAR_FILE, blobs[file]);
+            }
+            return inserter.insert(tree);
+        }
+
+        private ObjectId blob(int file, int version) throws IOException {
+            var content = new StringBuilder();
+            for (int line = 0; line < LINES_PER_FILE; ++line) {
+                content.append("file ").append(file)
+                       .append(" line ").append(line)
+                       .append(" version ").append(line % 8 == 0 ? version : 0)
+                       .append('\n');
+            }
+            return inserter.insert(Constants.OBJ_BLOB, content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public void branch(String name, ObjectId commit) throws IOException {
+        ref(Constants.R_HEADS + name, commit);
+    }
+
+    private void ref(String name, ObjectId commit) throws IOException {
+        var update = repository().updateRef(name);
+        update.setNewObjectId(commit);
+        var result = update.forceUpdate();
+        if (result != RefUpdate.Result.NEW &&
+            result != RefUpdate.Result.FORCED &&
+            result != RefUpdate.Result.NO_CHANGE) {
+            throw new IOException("Unable to update " + name + ": " + result);
+        }
+    }
+
+    /**
+     * Pack all objects, same as git maintenance would do, and optionally
+     * write the commit-graph file for all branches.
+     *
+     * @param writeCommitGraph If the commit-graph file should be written.
+     * @throws IOException If unable to pack the repository.
+     */
+    public void gc(boolean writeCommitGraph) throws IOException {
+        gc(writeCommitGraph, false);
+    }
+
+    /**
+     * Pack all objects, and optionally write the commit-graph file with
+     * changed-path Bloom filters, same as 'git commit-graph write
+     * --changed-paths' would.
+     *
+     * @param writeCommitGraph  If the commit-graph file should be written.
+     * @param writeChangedPaths If the commit-graph should have Bloom filters.
+     * @throws IOException If unable to pack the repository.
+     */
+    public void gc(boolean writeCommitGraph, boolean writeChangedPaths) throws IOException {
+        var config = repository().getConfig();
+        config.setBoolean("core", null, "commitGraph", writeCommitGraph);
+        config.setBoolean("gc", null, "writeCommitGraph", writeCommitGraph);
+        config.setBoolean("gc", null, "writeChangedPaths", writeChangedPaths);
+        try {
+            git.gc().call();
+        } catch (GitAPIException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            // Leave it to the reader to enable the commit-graph.
+            config.unset("core", null, "commitGraph");
+            config.unset("gc", null, "writeCommitGraph");
+            config.unset("gc", null, "writeChangedPaths");
+        }
+    }
+
+    @Override
+    public void close() {
+        walk.close();
+        inserter.close();
+        git.close();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.diff.DiffEntry.DEV_NULL;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TerminalDiffTest {
+    @TempDir
+    public Path root;
+
+    private Git git;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(root.toFile()).setInitialBranch("master").call();
+        git.getRepository().getConfig().setBoolean("commit", null, "gpgsign", false);
+        Files.writeString(root.resolve("a.txt"), "1\n2\n3\n4\n5\n6\n7\n8\n9\n");
+        Files.writeString(root.resolve("b.txt"), "b\n");
+        Files.write(root.resolve("c.bin"), new byte[]{1, 2, 0, 3});
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial").call();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        git.close();
+    }
+
+    @Test
+    public void testModifyAddDelete() throws Exception {
+        Files.writeString(root.resolve("a.txt"), "1\n2\n3\n4\nfive\n6\n7\n8\n9\n");
+        Files.writeString(root.resolve("new.txt"), "new");
+        var out = diff(List.of(modified("a.txt"),
+                               new TerminalDiff.FileDiff(DEV_NULL, null, "new.txt", root.resolve("new.txt")),
+                               new TerminalDiff.FileDiff("b.txt", blob("b.txt"), DEV_NULL, null)),
+                       TerminalDiff.DEFAULT_MAX_SIZE);
+        assertThat(out, is("diff --git a/a.txt b/a.txt\n" +
+                           "--- a/a.txt\n" +
+                           "+++ b/a.txt\n" +
+                           "@@ -2,7 +2,7 @@\n" +
+                           " 2\n" +
+                           " 3\n" +
+                           " 4\n" +
+                           "-5\n" +
+                           "+five\n" +
+                           " 6\n" +
+                           " 7\n" +
+                           " 8\n" +
+                           "diff --git a/new.txt b/new.txt\n" +
+                           "new file\n" +
+                           "--- /dev/null\n" +
+                           "+++ b/new.txt\n" +
+                           "@@ -0,0 +1 @@\n" +
+                           "+new\n" +
+                           "\\ No newline at end of file\n" +
+                           "diff --git a/b.txt b/b.txt\n" +
+                           "deleted file\n" +
+                           "--- a/b.txt\n" +
+                           "+++ /dev/null\n" +
+                           "@@ -1 +0,0 @@\n" +
+                           "-b\n"));
+    }
+
+    @Test
+    public void testBinaryAndTooLarge() throws Exception {
+        Files.write(root.resolve("c.bin"), new byte[]{1, 2, 0, 4});
+        Files.writeString(root.resolve("a.txt"), "changed\n".repeat(10));
+        var out = diff(List.of(modified("a.txt"), modified("c.bin")), 50);
+        assertThat(out, is("diff --git a/a.txt b/a.txt\n" +
+                           "Not diffed, larger than 50 bytes\n" +
+                           "diff --git a/c.bin b/c.bin\n" +
+                           "Binary files a/c.bin and b/c.bin differ\n"));
+    }
+
+    @Test
+    public void testUnchangedIsSkipped() throws Exception {
+        assertThat(diff(List.of(modified("b.txt")), TerminalDiff.DEFAULT_MAX_SIZE), is(""));
+    }
+
+    @Test
+    public void testKeepsFileOrder() throws Exception {
+        var files = new ArrayList<TerminalDiff.FileDiff>();
+        var expected = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            var name = "file-" + i + ".txt";
+            Files.writeString(root.resolve(name), "line " + i + "\n".repeat(i % 7 + 1));
+            files.add(new TerminalDiff.FileDiff(DEV_NULL, null, name, root.resolve(name)));
+            expected.append("diff --git a/").append(name).append(" b/").append(name).append('\n');
+        }
+        var headers = diff(files, TerminalDiff.DEFAULT_MAX_SIZE)
+                .lines()
+                .filter(line -> line.startsWith("diff --git"))
+                .map(line -> line + "\n")
+                .reduce("", String::concat);
+        assertThat(headers, is(expected.toString()));
+    }
+
+    private TerminalDiff.FileDiff modified(String path) throws Exception {
+        return new TerminalDiff.FileDiff(path, blob(path), path, root.resolve(path));
+    }
+
+    private ObjectId blob(String path) throws Exception {
+        return git.getRepository().resolve("HEAD:" + path);
+    }
+
+    private String diff(List<TerminalDiff.FileDiff> files, long maxSize) throws Exception {
+        var out = new ByteArrayOutputStream();
+        TerminalDiff.write(git.getRepository(), new Metrics(false), files, out, 4, maxSize);
+        // Without colors.
+        return out.toString(UTF_8).replaceAll("\033\\[[0-9;]*m", "");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static net.morimekta.strings.StringUtil.stripNonPrintable;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TimingsTest {
+    @Test
+    public void testNestedPhases() {
+        var timings = new Timings(true);
+        try (var outer = timings.start("outer")) {
+            try (var inner = timings.start("inner")) {
+                // Nothing.
+            }
+            try (var inner = timings.start("inner")) {
+                // Nothing.
+            }
+        }
+        try (var other = timings.start("other")) {
+            // Nothing.
+        }
+
+        assertThat(phases(timings), is(List.of(
+                "outer 1",
+                "  inner 2",
+                "other 1")));
+    }
+
+    @Test
+    public void testInherit() throws Exception {
+        var timings = new Timings(true);
+        try (var outer = timings.start("outer")) {
+            var thread = new Thread(timings.inherit(() -> {
+                try (var inner = timings.start("inner")) {
+                    // Nothing.
+                }
+            }));
+            thread.start();
+            thread.join();
+        }
+
+        assertThat(phases(timings), is(List.of(
+                "outer 1",
+                "  inner 1")));
+    }
+
+    @Test
+    public void testDisabled() {
+        var timings = new Timings(false);
+        try (var outer = timings.start("outer")) {
+            try (var inner = timings.start("inner")) {
+                // Nothing.
+            }
+        }
+
+        assertThat(timings.isEnabled(), is(false));
+        assertThat(phases(timings), is(List.of()));
+    }
+
+    /**
+     * @return The printed phases with their count, without the header.
+     */
+    private static List<String> phases(Timings timings) {
+        var out = new ByteArrayOutputStream();
+        timings.print(new PrintStream(out, true, StandardCharsets.UTF_8));
+        return out.toString(StandardCharsets.UTF_8)
+                  .lines()
+                  .skip(1)
+                  .map(line -> stripNonPrintable(line).replaceAll(" +[0-9.]+ +[0-9.]+ +", " ").stripTrailing())
+                  .toList();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 (c) Stein Eldar Johnsen
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.morimekta.gittool.util;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WorktreeStatusTest {
+    @TempDir
+    public Path root;
+
+    private Git git;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        git = Git.init().setDirectory(root.toFile()).setInitialBranch("master").call();
+        git.getRepository().getConfig().setBoolean("commit", null, "gpgsign", false);
+        Files.writeString(root.resolve(".gitignore"), "target/\n*.log\n");
+        Files.createDirectories(root.resolve("src/main"));
+        Files.writeString(root.resolve("src/main/a.txt"), "a\n");
+        Files.writeString(root.resolve("src/main/b.txt"), "b\n");
+        Files.writeString(root.resolve("c.txt"), "c\n");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial").call();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        git.close();
+    }
+
+    private List<String> status() throws Exception {
+        return status(git.getRepository(), Runtime.getRuntime().availableProcessors());
+    }
+
+    private static List<String> status(Repository repository, int threads) throws Exception {
+        var out = new ArrayList<String>();
+        WorktreeStatus.scan(repository, new Metrics(false), threads, status -> {
+            out.add(status.stagedMod() + " " + status.path());
+            return true;
+        });
+        return out;
+    }
+
+    @Test
+    public void testClean() throws Exception {
+        Files.createDirectories(root.resolve("target/classes"));
+        Files.writeString(root.resolve("target/classes/c.class"), "c");
+        Files.writeString(root.resolve("src/main/out.log"), "log");
+        assertThat(status(), is(List.of()));
+    }
+
+    @Test
+    public void testStagedAndUnstaged() throws Exception {
+        Files.writeString(root.resolve("src/main/a.txt"), "A\n");
+        git.add().addFilepattern("src/main/a.txt").call();
+        Files.writeString(root.resolve("src/main/a.txt"), "AA\n");
+        Files.writeString(root.resolve("src/main/b.txt"), "B\n");
+        Files.writeString(root.resolve("new.txt"), "new\n");
+        git.add().addFilepattern("new.txt").call();
+        Files.delete(root.resolve("c.txt"));
+        Files.writeString(root.resolve("src/untracked.txt"), "u\n");
+
+        // One status per file, in path order.
+        assertThat(status(), is(List.of(
+                " D c.txt",
+                "A  new.txt",
+                "MM src/main/a.txt",
+                " M src/main/b.txt",
+                "?? src/untracked.txt")));
+    }
+
+    @Test
+    public void testStagedDelete() throws Exception {
+        git.rm().addFilepattern("c.txt").call();
+        assertThat(status(), is(List.of("D  c.txt")));
+    }
+
+    @Test
+    public void testStopsWhenVisitorSaysSo() throws Exception {
+        Files.writeString(root.resolve("c.txt"), "C\n");
+        Files.writeString(root.resolve("src/main/a.txt"), "A\n");
+        var seen = new ArrayList<String>();
+        assertThat(WorktreeStatus.scan(git.getRepository(), new Metrics(false), status -> {
+            seen.add(status.path());
+            return false;
+        }), is(true));
+        assertThat(seen, is(List.of("c.txt")));
+    }
+
+    @Test
+    public void testParallelScanMatchesIndexDiff(@TempDir Path tmp) throws Exception {
+        try (var repo = SyntheticRepo.create(tmp)) {
+            repo.generate(new SyntheticRepo.Shape(50, 0, 5000, 0), 50);
+            var random = new Random(50);
+            for (int i = 0; i < 100; ++i) {
+                var path = SyntheticRepo.generatedPath(random.nextInt(5000));
+                switch (i % 4) {
+                    case 0:
+                        Files.deleteIfExists(tmp.resolve(path));
+                        break;
+                    case 1:
+                        Files.writeString(tmp.resolve(path + ".new"), "new " + i + "\n");
+                        break;
+                    case 2:
+                        Files.writeString(tmp.resolve(path), "changed " + i + "\n");
+                        repo.git().add().addFilepattern(path).call();
+                        break;
+                    default:
+                        Files.writeString(tmp.resolve(path), "changed " + i + "\n");
+                        break;
+                }
+            }
+
+            var expected = new TreeSet<String>();
+            var status = repo.git().status().call();
+            status.getUncommittedChanges().forEach(expected::add);
+            status.getUntracked().forEach(expected::add);
+
+            var sequential = status(repo.repository(), 1);
+            assertThat(status(repo.repository(), 8), is(sequential));
+            assertThat(sequential.stream().map(line -> line.substring(3)).toList(), is(List.copyOf(expected)));
+        }
+    }
+
+    @Test
+    public void testUntrackedCache() throws Exception {
+        Files.createDirectories(root.resolve("target/classes"));
+        Files.writeString(root.resolve("target/classes/c.class"), "c");
+        Files.writeString(root.resolve("src/main/new.txt"), "new\n");
+        Files.writeString(root.resolve("src/main/build.log"), "log\n");
+        settle();
+
+        assertThat(status(), is(List.of("?? src/main/new.txt")));
+        assertThat(Files.exists(root.resolve(".git/" + UntrackedCache.FILE_NAME)), is(true));
+
+        var metrics = new Metrics(true);
+        assertThat(status(metrics), is(List.of("?? src/main/new.txt")));
+        assertThat(metrics.get(Metrics.Counter.DIRS_LISTED), is(0L));
+
+        // A new file changes the folder.
+        Files.writeString(root.resolve("src/other.txt"), "other\n");
+        settle();
+        assertThat(status(), is(List.of("?? src/main/new.txt", "?? src/other.txt")));
+
+        // As does changed ignore rules, without changing the folder.
+        Files.writeString(root.resolve(".gitignore"), "target/\n");
+        assertThat(status(), is(List.of(" M .gitignore",
+                                         "?? src/main/build.log",
+                                         "?? src/main/new.txt",
+                                         "?? src/other.txt")));
+
+        // And changes to the index.
+        git.rm().setCached(true).addFilepattern("src/main/a.txt").call();
+        git.add().addFilepattern("src/main/new.txt").call();
+        assertThat(status(), is(List.of(" M .gitignore",
+                                         "DA src/main/a.txt",
+                                         "?? src/main/build.log",
+                                         "A  src/main/new.txt",
+                                         "?? src/other.txt")));
+    }
+
+    @Test
+    public void testUntrackedCacheFolderNextToFile() throws Exception {
+        // 'X0' sorts right after all of 'X/' in the index.
+        Files.createDirectories(root.resolve("X"));
+        Files.writeString(root.resolve("X/a.txt"), "a\n");
+        Files.writeString(root.resolve("X0"), "x\n");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("x").call();
+        Files.writeString(root.resolve("X/new.txt"), "new\n");
+        Files.writeString(root.resolve("new.txt"), "new\n");
+        settle();
+
+        assertThat(status(), is(List.of("?? X/new.txt", "?? new.txt")));
+        var metrics = new Metrics(true);
+        assertThat(status(metrics), is(List.of("?? X/new.txt", "?? new.txt")));
+        assertThat(metrics.get(Metrics.Counter.DIRS_LISTED), is(0L));
+    }
+
+    @Test
+    public void testUntrackedCacheDisabled() throws Exception {
+        var config = git.getRepository().getConfig();
+        config.setBoolean("gt", null, "untrackedCache", false);
+        config.save();
+        Files.writeString(root.resolve("src/main/new.txt"), "new\n");
+        settle();
+
+        assertThat(status(), is(List.of("?? src/main/new.txt")));
+        var metrics = new Metrics(true);
+        assertThat(status(metrics), is(List.of("?? src/main/new.txt")));
+        assertThat(metrics.get(Metrics.Counter.DIRS_CACHED), is(0L));
+        assertThat(Files.exists(root.resolve(".git/" + UntrackedCache.FILE_NAME)), is(false));
+    }
+
+    private List<String> status(Metrics metrics) throws Exception {
+        var out = new ArrayList<String>();
+        WorktreeStatus.scan(git.getRepository(), metrics, 1, status -> {
+            out.add(status.stagedMod() + " " + status.path());
+            return true;
+        });
+        return out;
+    }
+
+    /**
+     * Move the work tree folders back in time, as folders changed right
+     * before being listed are not cached.
+     */
+    private void settle() throws IOException {
+        var time = FileTime.from(Instant.now().minusSeconds(60));
+        try (var paths = Files.walk(root)) {
+            for (var path : paths.filter(Files::isDirectory).toList()) {
+                if (!root.relativize(path).startsWith(".git")) {
+                    Files.setLastModifiedTime(path, time);
+                }
+            }
+        }
+    }
+}